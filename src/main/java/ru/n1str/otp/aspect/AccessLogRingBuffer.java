@@ -0,0 +1,117 @@
+package ru.n1str.otp.aspect;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+//Кольцевой буфер записей журнала доступа: много писателей (потоки запросов), один читатель.
+//Слоты создаются заранее и переиспользуются, поэтому запись не создаёт объектов на каждый запрос.
+//Каждый слот хранит номер последовательности: писатель захватывает позицию CAS-ом, заполняет поля
+//и публикует слот записью sequence; читатель освобождает слот для следующего круга.
+//Если буфер заполнен, запись отбрасывается — поток запроса никогда не ждёт
+
+public class AccessLogRingBuffer {
+    private final Entry[] slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long head;
+
+    public AccessLogRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.slots = new Entry[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Entry();
+            slots[i].sequence = i;
+        }
+    }
+
+    //Захватывает свободный слот. Возвращает null, если буфер заполнен.
+    //После заполнения полей слот нужно опубликовать через publish
+
+    public Entry claim() {
+        while (true) {
+            long position = tail.get();
+            Entry entry = slots[(int) (position & mask)];
+            long sequence = entry.sequence;
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    entry.position = position;
+                    return entry;
+                }
+            } else if (sequence < position) {
+                dropped.incrementAndGet();
+                return null;
+            }
+        }
+    }
+
+    public void publish(Entry entry) {
+        entry.sequence = entry.position + 1;
+    }
+
+    //Передаёт читателю до maxBatch опубликованных записей и освобождает их слоты.
+    //Вызывается только из одного потока
+
+    public int drain(Consumer<Entry> consumer, int maxBatch) {
+        int drained = 0;
+        while (drained < maxBatch) {
+            Entry entry = slots[(int) (head & mask)];
+            if (entry.sequence != head + 1) {
+                break;
+            }
+            consumer.accept(entry);
+            entry.clear();
+            entry.sequence = head + slots.length;
+            head++;
+            drained++;
+        }
+        return drained;
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    //Приблизительное число записей, ожидающих записи в журнал
+
+    public long getBacklog() {
+        return Math.max(tail.get() - head, 0);
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    //Слот буфера: фиксированный набор полей одной записи журнала
+
+    public static final class Entry {
+        private volatile long sequence;
+        private long position;
+
+        long timestampMillis;
+        String method;
+        String uri;
+        String username;
+        String remoteAddr;
+        String handler;
+        boolean error;
+        String errorMessage;
+        long durationNanos;
+        double sampleRate;
+        String headers;
+        String args;
+
+        private void clear() {
+            method = null;
+            uri = null;
+            username = null;
+            remoteAddr = null;
+            handler = null;
+            error = false;
+            errorMessage = null;
+            headers = null;
+            args = null;
+        }
+    }
+}
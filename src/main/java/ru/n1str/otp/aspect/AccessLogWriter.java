@@ -0,0 +1,187 @@
+package ru.n1str.otp.aspect;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+//Журнал доступа к API: потоки запросов только заполняют слот кольцевого буфера,
+//фоновый поток пачками переносит записи в логгер "ACCESS" в формате key=value.
+//Успешные запросы пишутся выборочно: доля sampleRate снижается, когда поток запросов
+//превышает target-per-second, и возвращается к базовой при снижении нагрузки. Ошибки пишутся всегда
+
+@Component
+@Slf4j
+public class AccessLogWriter {
+    private static final Logger accessLog = LoggerFactory.getLogger("ACCESS");
+    private static final long ADAPT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final boolean enabled;
+    private final AccessLogRingBuffer buffer;
+    private final int batchSize;
+    private final long idleParkNanos;
+    private final double baseSampleRate;
+    private final long targetPerSecond;
+    private final LongAdder arrivals = new LongAdder();
+    private final StringBuilder line = new StringBuilder(256);
+
+    private volatile double sampleRate;
+    private volatile boolean running;
+    private Thread thread;
+
+    public AccessLogWriter(@Value("${access-log.enabled:true}") boolean enabled,
+                           @Value("${access-log.buffer-size:8192}") int bufferSize,
+                           @Value("${access-log.batch-size:256}") int batchSize,
+                           @Value("${access-log.idle-park-ms:20}") long idleParkMs,
+                           @Value("${access-log.sample-rate:1.0}") double sampleRate,
+                           @Value("${access-log.target-per-second:500}") long targetPerSecond,
+                           MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.buffer = new AccessLogRingBuffer(bufferSize);
+        this.batchSize = batchSize;
+        this.idleParkNanos = TimeUnit.MILLISECONDS.toNanos(idleParkMs);
+        this.baseSampleRate = sampleRate;
+        this.sampleRate = sampleRate;
+        this.targetPerSecond = targetPerSecond;
+
+        Gauge.builder("access_log.backlog", buffer, AccessLogRingBuffer::getBacklog)
+                .description("Записи журнала доступа, ожидающие записи")
+                .register(meterRegistry);
+        Gauge.builder("access_log.sample_rate", this, AccessLogWriter::getSampleRate)
+                .description("Текущая доля записываемых успешных запросов")
+                .register(meterRegistry);
+        FunctionCounter.builder("access_log.dropped", buffer, AccessLogRingBuffer::getDroppedCount)
+                .description("Записи, потерянные из-за переполнения буфера")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "access-log-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    //Решение о записи успешного запроса; вызывается на каждый запрос
+
+    public boolean sample() {
+        arrivals.increment();
+        double rate = sampleRate;
+        return rate >= 1.0 || ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    //Слот для записи или null, если буфер заполнен (запись теряется, счётчик потерь растёт)
+
+    public AccessLogRingBuffer.Entry claim() {
+        return buffer.claim();
+    }
+
+    public void publish(AccessLogRingBuffer.Entry entry) {
+        buffer.publish(entry);
+    }
+
+    public long getBacklog() {
+        return buffer.getBacklog();
+    }
+
+    public long getDroppedCount() {
+        return buffer.getDroppedCount();
+    }
+
+    private void run() {
+        long windowStart = System.nanoTime();
+        long reportedDropped = 0;
+        while (running || buffer.getBacklog() > 0) {
+            int drained = buffer.drain(this::write, batchSize);
+
+            long now = System.nanoTime();
+            if (now - windowStart >= ADAPT_INTERVAL_NANOS) {
+                adaptSampleRate(arrivals.sumThenReset() * ADAPT_INTERVAL_NANOS / (now - windowStart));
+                windowStart = now;
+
+                long dropped = buffer.getDroppedCount();
+                if (dropped > reportedDropped) {
+                    log.warn("Access log buffer overflow: {} entries dropped", dropped - reportedDropped);
+                    reportedDropped = dropped;
+                }
+            }
+
+            if (drained == 0) {
+                LockSupport.parkNanos(idleParkNanos);
+            }
+        }
+    }
+
+    private void adaptSampleRate(long perSecond) {
+        double rate = baseSampleRate;
+        if (perSecond > targetPerSecond && perSecond > 0) {
+            rate = Math.min(baseSampleRate, (double) targetPerSecond / perSecond);
+        }
+        if (rate != sampleRate) {
+            log.debug("Access log sample rate {} -> {} at {} req/s", sampleRate, rate, perSecond);
+            sampleRate = rate;
+        }
+    }
+
+    private void write(AccessLogRingBuffer.Entry entry) {
+        line.setLength(0);
+        line.append("ts=").append(Instant.ofEpochMilli(entry.timestampMillis))
+                .append(" method=").append(entry.method)
+                .append(" uri=").append(entry.uri)
+                .append(" user=").append(entry.username)
+                .append(" ip=").append(entry.remoteAddr)
+                .append(" handler=").append(entry.handler)
+                .append(" outcome=").append(entry.error ? "ERROR" : "OK")
+                .append(" duration_ms=").append(entry.durationNanos / 1_000_000)
+                .append('.').append(entry.durationNanos / 1_000 % 1_000 / 100)
+                .append(" sample_rate=").append(entry.sampleRate);
+        if (entry.errorMessage != null) {
+            line.append(" error=\"").append(entry.errorMessage).append('"');
+        }
+        if (entry.headers != null) {
+            line.append(" headers=").append(entry.headers);
+        }
+        if (entry.args != null) {
+            line.append(" args=").append(entry.args);
+        }
+
+        if (entry.error) {
+            accessLog.warn(line.toString());
+        } else {
+            accessLog.info(line.toString());
+        }
+    }
+}
@@ -1,77 +1,143 @@
 package ru.n1str.otp.aspect;
 
 import jakarta.servlet.http.HttpServletRequest;
-import lombok.extern.slf4j.Slf4j;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
 import java.util.Arrays;
-import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+
+//Журнал вызовов API. На потоке запроса заполняются только фиксированные поля слота
+//кольцевого буфера, форматирование и запись в лог выполняет AccessLogWriter в фоне.
+//Заголовки пишутся только из списка access-log.capture-headers, аргументы — при access-log.capture-args
 
 @Aspect
 @Component
-@Slf4j
 public class ApiLoggingAspect {
+    private final AccessLogWriter accessLogWriter;
+    private final List<String> captureHeaders;
+    private final boolean captureArgs;
+    private final int maxArgsLength;
+
+    public ApiLoggingAspect(AccessLogWriter accessLogWriter,
+                            @Value("${access-log.capture-headers:}") List<String> captureHeaders,
+                            @Value("${access-log.capture-args:false}") boolean captureArgs,
+                            @Value("${access-log.max-args-length:512}") int maxArgsLength) {
+        this.accessLogWriter = accessLogWriter;
+        this.captureHeaders = captureHeaders.stream()
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .filter(name -> !name.equalsIgnoreCase("authorization") && !name.equalsIgnoreCase("cookie"))
+                .toList();
+        this.captureArgs = captureArgs;
+        this.maxArgsLength = maxArgsLength;
+    }
 
     @Around("@within(org.springframework.web.bind.annotation.RestController) || " +
             "@within(org.springframework.stereotype.Controller)")
     public Object logApiCall(ProceedingJoinPoint joinPoint) throws Throwable {
-        HttpServletRequest request = ((ServletRequestAttributes) RequestContextHolder.getRequestAttributes()).getRequest();
-
-        String username = "anonymous";
-        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
-        if (auth != null && auth.isAuthenticated() && !"anonymousUser".equals(auth.getName())) {
-            username = auth.getName();
+        if (!accessLogWriter.isEnabled()) {
+            return joinPoint.proceed();
         }
 
-        Map<String, String> headers = new HashMap<>();
-        Enumeration<String> headerNames = request.getHeaderNames();
-        while (headerNames.hasMoreElements()) {
-            String headerName = headerNames.nextElement();
-            if (!headerName.equalsIgnoreCase("authorization") &&
-                    !headerName.equalsIgnoreCase("cookie")) {
-                headers.put(headerName, request.getHeader(headerName));
+        long startTime = System.nanoTime();
+        try {
+            Object result = joinPoint.proceed();
+            if (accessLogWriter.sample()) {
+                record(joinPoint, startTime, null);
             }
+            return result;
+        } catch (Throwable e) {
+            record(joinPoint, startTime, e);
+            throw e;
         }
+    }
 
-        log.info("API Request: {} {} | User: {} | IP: {} | Headers: {} | Args: {}",
-                request.getMethod(),
-                request.getRequestURI(),
-                username,
-                request.getRemoteAddr(),
-                headers,
-                Arrays.toString(joinPoint.getArgs()));
+    //Все значения вычисляются до захвата слота: захваченный слот обязан быть опубликован,
+    //иначе единственный читатель остановится на нём и журнал перестанет писаться
 
-        long startTime = System.currentTimeMillis();
-        Object result;
+    private void record(ProceedingJoinPoint joinPoint, long startTime, Throwable error) {
+        long duration = System.nanoTime() - startTime;
+        String handler = joinPoint.getSignature().getName();
+        String username = currentUsername();
+        String errorMessage = error != null ? error.getClass().getSimpleName() + ": " + error.getMessage() : null;
 
+        String method = null;
+        String uri = null;
+        String remoteAddr = null;
+        String headers = null;
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes instanceof ServletRequestAttributes servletAttributes) {
+            HttpServletRequest request = servletAttributes.getRequest();
+            method = request.getMethod();
+            uri = request.getRequestURI();
+            remoteAddr = request.getRemoteAddr();
+            if (!captureHeaders.isEmpty()) {
+                headers = headers(request);
+            }
+        }
+        String args = captureArgs ? formatArgs(joinPoint.getArgs()) : null;
+
+        AccessLogRingBuffer.Entry entry = accessLogWriter.claim();
+        if (entry == null) {
+            return;
+        }
         try {
-            result = joinPoint.proceed();
-            log.info("API Response: {} {} | User: {} | Status: OK | Time: {}ms",
-                    request.getMethod(),
-                    request.getRequestURI(),
-                    username,
-                    System.currentTimeMillis() - startTime);
+            entry.timestampMillis = System.currentTimeMillis();
+            entry.durationNanos = duration;
+            entry.handler = handler;
+            entry.username = username;
+            entry.sampleRate = error != null ? 1.0 : accessLogWriter.getSampleRate();
+            entry.error = error != null;
+            entry.errorMessage = errorMessage;
+            entry.method = method;
+            entry.uri = uri;
+            entry.remoteAddr = remoteAddr;
+            entry.headers = headers;
+            entry.args = args;
+        } finally {
+            accessLogWriter.publish(entry);
+        }
+    }
 
-            return result;
-        } catch (Exception e) {
-            log.error("API Exception: {} {} | User: {} | Status: ERROR | Time: {}ms | Error: {}",
-                    request.getMethod(),
-                    request.getRequestURI(),
-                    username,
-                    System.currentTimeMillis() - startTime,
-                    e.getMessage(),
-                    e);
+    // toString аргумента может бросить исключение: запрос из-за журнала падать не должен
+    private String formatArgs(Object[] arguments) {
+        String args;
+        try {
+            args = Arrays.toString(arguments);
+        } catch (RuntimeException e) {
+            return "<" + e.getClass().getSimpleName() + " in toString>";
+        }
+        return args.length() > maxArgsLength ? args.substring(0, maxArgsLength) + "..." : args;
+    }
 
-            throw e;
+    private String headers(HttpServletRequest request) {
+        StringBuilder headers = new StringBuilder("{");
+        for (String name : captureHeaders) {
+            String value = request.getHeader(name);
+            if (value != null) {
+                if (headers.length() > 1) {
+                    headers.append(", ");
+                }
+                headers.append(name).append('=').append(value);
+            }
+        }
+        return headers.length() > 1 ? headers.append('}').toString() : null;
+    }
+
+    private static String currentUsername() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null && auth.isAuthenticated() && !"anonymousUser".equals(auth.getName())) {
+            return auth.getName();
         }
+        return "anonymous";
     }
-}
\ No newline at end of file
+}
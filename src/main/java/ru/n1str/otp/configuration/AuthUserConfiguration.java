@@ -1,6 +1,9 @@
 package ru.n1str.otp.configuration;
 
+import jakarta.servlet.DispatcherType;
 import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -15,8 +18,11 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 
+import ru.n1str.otp.security.AdaptiveConcurrencyLimiter;
+import ru.n1str.otp.security.ConcurrencyLimitFilter;
 import ru.n1str.otp.security.JwtAuthenticationFilter;
 import ru.n1str.otp.security.JwtAuthenticationProvider;
+import ru.n1str.otp.security.PasswordHashingExecutor;
 import ru.n1str.otp.service.AuthUserService;
 
 
@@ -34,10 +40,10 @@ public class AuthUserConfiguration {
     //Провайдер аутентификации для логина и пароля
 
     @Bean
-    public DaoAuthenticationProvider daoAuthenticationProvider() {
+    public DaoAuthenticationProvider daoAuthenticationProvider(PasswordEncoder passwordEncoder) {
         DaoAuthenticationProvider provider = new DaoAuthenticationProvider();
         provider.setUserDetailsService(userService);
-        provider.setPasswordEncoder(passwordEncoder());
+        provider.setPasswordEncoder(passwordEncoder);
         return provider;
     }
 
@@ -45,21 +51,30 @@ public class AuthUserConfiguration {
     //Конфигурация безопасности для API
 
     @Bean
-    public SecurityFilterChain apiSecurityFilterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain apiSecurityFilterChain(HttpSecurity http,
+                                                      DaoAuthenticationProvider daoAuthenticationProvider) throws Exception {
         http
             .csrf(csrf -> csrf.disable())
             .authorizeHttpRequests(auth -> auth
+                // Повторная диспетчеризация после потокового ответа (StreamingResponseBody) и после sendError:
+                // запрос уже авторизован при первом проходе, а JWT-контекст без сессии в неё не переносится
+                .dispatcherTypeMatchers(DispatcherType.ASYNC, DispatcherType.ERROR).permitAll()
+
                 // Только логин и регистрация доступны без JWT
                 .requestMatchers("/api/jwt/auth").permitAll()
                 .requestMatchers("/api/auth/register").permitAll()
 
+                // Проверка состояния для балансировщика; метрики раскрывают нагрузку и имена каналов — только админу
+                .requestMatchers("/actuator/health").permitAll()
+                .requestMatchers("/actuator/prometheus").hasAuthority("ROLE_ADMIN")
+
                 // Административные эндпоинты
                 .requestMatchers("/api/admin/**").hasAuthority("ROLE_ADMIN")
 
                 // Все остальные запросы требуют аутентификации
                 .anyRequest().authenticated())
             .authenticationProvider(jwtAuthProvider)
-            .authenticationProvider(daoAuthenticationProvider())
+            .authenticationProvider(daoAuthenticationProvider)
             .addFilterBefore(jwtAuthFilter, UsernamePasswordAuthenticationFilter.class)
 
             .sessionManagement(sess -> sess.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
@@ -87,10 +102,23 @@ public class AuthUserConfiguration {
         return authConfig.getAuthenticationManager();
     }
 
-    //Все пароли в базе хранятся не в чистом виде, а в виде bcrypt
+    //Все пароли в базе хранятся не в чистом виде, а в виде bcrypt.
+    //Хеширование и проверка выполняются на ограниченном пуле PasswordHashingExecutor
+
+    @Bean
+    public PasswordEncoder passwordEncoder(PasswordHashingExecutor passwordHashingExecutor) {
+        return passwordHashingExecutor.wrap(new BCryptPasswordEncoder());
+    }
+
+    //Адаптивный предел одновременных запросов к OTP. Стоит перед цепочкой Spring Security,
+    //чтобы лишний запрос отклонялся до разбора JWT и загрузки пользователя из БД
 
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public FilterRegistrationBean<ConcurrencyLimitFilter> concurrencyLimitFilter(AdaptiveConcurrencyLimiter limiter) {
+        FilterRegistrationBean<ConcurrencyLimitFilter> registration =
+                new FilterRegistrationBean<>(new ConcurrencyLimitFilter(limiter));
+        registration.addUrlPatterns("/api/otp/*", "/api/telegram/send-otp");
+        registration.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER - 1);
+        return registration;
     }
 }
@@ -1,5 +1,6 @@
 package ru.n1str.otp.configuration;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.telegram.telegrambots.meta.TelegramBotsApi;
@@ -7,7 +8,11 @@ import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
 import ru.n1str.otp.service.TelegramBotService;
 
+//Регистрация бота и long polling. При telegram.bot.enabled=false (бенчмарки, локальный запуск без сети)
+//бот не подключается к Telegram, отправка кодов через канал TELEGRAM при этом не работает
+
 @Configuration
+@ConditionalOnProperty(name = "telegram.bot.enabled", havingValue = "true", matchIfMissing = true)
 public class TelegramBotConfig {
 
     @Bean
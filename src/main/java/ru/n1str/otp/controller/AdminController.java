@@ -1,23 +1,44 @@
 package ru.n1str.otp.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.n1str.otp.dao.OtpCodeJdbcDao;
+import ru.n1str.otp.dao.UserJdbcDao;
 import ru.n1str.otp.models.OtpConfiguration;
+import ru.n1str.otp.models.UserDeletionJob;
 import ru.n1str.otp.models.User;
-import ru.n1str.otp.models.role.RoleUser;
 import ru.n1str.otp.repository.OtpConfigurationRepository;
 import ru.n1str.otp.repository.UserRepository;
+import ru.n1str.otp.service.ExportCacheService;
+import ru.n1str.otp.service.OtpStatsService;
+import ru.n1str.otp.service.RoleService;
+import ru.n1str.otp.service.TelegramLinkService;
+import ru.n1str.otp.service.UserDeletionJobService;
+import ru.n1str.otp.service.UserImportService;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/admin")
@@ -25,9 +46,22 @@ import java.util.stream.Collectors;
 @Slf4j
 @PreAuthorize("hasAuthority('ROLE_ADMIN')")
 public class AdminController {
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final int DEFAULT_USERS_PAGE = 100;
+    private static final int MAX_USERS_PAGE = 1000;
+    private static final int MAX_STATS_BUCKETS = 2000;
+
     private final OtpConfigurationRepository configRepo;
     private final UserRepository userRepo;
     private final OtpCodeJdbcDao otpCodeDao;
+    private final ExportCacheService exportCacheService;
+    private final UserImportService userImportService;
+    private final UserDeletionJobService userDeletionJobService;
+    private final OtpStatsService otpStatsService;
+    private final TelegramLinkService telegramLinkService;
+    private final UserJdbcDao userJdbcDao;
+    private final RoleService roleService;
+    private final ObjectMapper objectMapper;
 
 
     //Получение текущей конфигурации OTP (длина кода, время жизни)
@@ -76,33 +110,127 @@ public class AdminController {
         return ResponseEntity.ok(configRepo.save(config));
     }
 
-    //Получение списка всех пользователей кроме администраторов
+    //Статистика событий OTP по каналам в корзинах по минутам (granularity=minute, по умолчанию последний час)
+    //или по часам (granularity=hour, по умолчанию последние сутки). Читается из агрегатов, а не из otp_code
+
+    @GetMapping("/stats")
+    @PreAuthorize("hasAuthority('ROLE_ADMIN')")
+    public ResponseEntity<Map<String, Object>> getOtpStats(
+            @RequestParam(required = false, defaultValue = "minute") String granularity,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        log.info("Admin requested OTP statistics");
+        validateAdminAccess("получение статистики OTP");
+
+        OtpStatsService.Granularity bucketSize;
+        try {
+            bucketSize = OtpStatsService.Granularity.valueOf(granularity.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "granularity: minute или hour"));
+        }
+
+        LocalDateTime end = to != null ? to : LocalDateTime.now().truncatedTo(bucketSize.getUnit()).plus(1, bucketSize.getUnit());
+        LocalDateTime start = from != null ? from
+                : end.minus(bucketSize == OtpStatsService.Granularity.MINUTE ? 60 : 24, bucketSize.getUnit());
+        if (!start.isBefore(end) || bucketSize.getUnit().between(start, end) > MAX_STATS_BUCKETS) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Интервал должен быть непустым и не длиннее " + MAX_STATS_BUCKETS + " корзин"));
+        }
+
+        Map<String, Map<String, Long>> totals = new TreeMap<>();
+        List<Map<String, Object>> buckets = new ArrayList<>();
+        otpStatsService.getStats(bucketSize, start, end).forEach((bucketStart, events) -> {
+            Map<String, Object> bucket = new HashMap<>();
+            bucket.put("start", bucketStart);
+            bucket.put("events", events);
+            buckets.add(bucket);
+            events.forEach((event, channels) -> channels.forEach((channel, count) ->
+                    totals.computeIfAbsent(event, e -> new TreeMap<>()).merge(channel, count, Long::sum)));
+        });
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("granularity", bucketSize.name().toLowerCase());
+        response.put("from", start);
+        response.put("to", end);
+        response.put("buckets", buckets);
+        response.put("totals", totals);
+        return ResponseEntity.ok(response);
+    }
+
+    //Список пользователей кроме администраторов: keyset-страница по id (after — id последнего пользователя
+    //предыдущей страницы), фильтр по префиксу логина. Если есть следующая страница, её курсор
+    //отдаётся в заголовке X-Next-Cursor. Тело пишется потоком, без промежуточных Map на пользователя
 
     @GetMapping("/users")
     @PreAuthorize("hasAuthority('ROLE_ADMIN')")
-    public ResponseEntity<List<Map<String, Object>>> getUsers() {
+    public ResponseEntity<StreamingResponseBody> getUsers(
+            @RequestParam(required = false, defaultValue = "0") long after,
+            @RequestParam(required = false, defaultValue = "" + DEFAULT_USERS_PAGE) int limit,
+            @RequestParam(required = false) String prefix) {
         log.info("Admin requested users list");
         validateAdminAccess("получение списка пользователей");
-        
-        List<User> users = userRepo.findAll().stream()
-                .filter(user -> !user.getRoleUsers().stream()
-                        .anyMatch(role -> 
-                            role.getNameRole().equals("ROLE_ADMIN") || 
-                            role.getNameRole().equals("ADMIN")))
-                .collect(Collectors.toList());
-
-        List<Map<String, Object>> result = users.stream().map(user -> {
-            Map<String, Object> map = new HashMap<>();
-            map.put("id", user.getId());
-            map.put("username", user.getUsername());
-            map.put("roles", user.getRoleUsers().stream()
-                    .map(RoleUser::getNameRole)
-                    .collect(Collectors.toList()));
-            return map;
-        }).collect(Collectors.toList());
-
-        log.info("Admin requested user list, found {} non-admin users", users.size());
-        return ResponseEntity.ok(result);
+
+        int pageSize = Math.max(1, Math.min(limit, MAX_USERS_PAGE));
+        String usernamePrefix = prefix != null && !prefix.isEmpty() ? prefix : null;
+        long adminRoleId = roleService.findRole("ADMIN").getId();
+
+        // Одна лишняя строка показывает, есть ли следующая страница
+        List<UserJdbcDao.UserSummary> users = userJdbcDao.findUserPage(after, usernamePrefix, adminRoleId, pageSize + 1);
+        boolean hasMore = users.size() > pageSize;
+        List<UserJdbcDao.UserSummary> page = hasMore ? users.subList(0, pageSize) : users;
+
+        log.info("Admin requested user list, returning {} non-admin users", page.size());
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON);
+        if (hasMore) {
+            response.header(NEXT_CURSOR_HEADER, String.valueOf(page.get(page.size() - 1).id()));
+        }
+        return response.body(out -> {
+            try (JsonGenerator json = objectMapper.getFactory().createGenerator(out)) {
+                json.writeStartArray();
+                for (UserJdbcDao.UserSummary user : page) {
+                    json.writeStartObject();
+                    json.writeNumberField("id", user.id());
+                    json.writeStringField("username", user.username());
+                    json.writeArrayFieldStart("roles");
+                    for (String role : user.roles()) {
+                        json.writeString(role);
+                    }
+                    json.writeEndArray();
+                    json.writeEndObject();
+                }
+                json.writeEndArray();
+            }
+        });
+    }
+
+    //Массовый импорт пользователей из потока CSV или JSON lines. Выполняется на потоке запроса,
+    //отчёт (ошибки строк, прогресс, итог) пишется в ответ NDJSON по мере обработки порций
+
+    @PostMapping(value = "/users/import", consumes = {"text/csv", "application/x-ndjson"})
+    @PreAuthorize("hasAuthority('ROLE_ADMIN')")
+    public void importUsers(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        log.info("Admin started bulk user import");
+        validateAdminAccess("массовый импорт пользователей");
+
+        UserImportService.UserImport userImport;
+        try {
+            userImport = userImportService.open(request.getInputStream(),
+                    UserImportService.Format.fromContentType(request.getContentType()));
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        } catch (RejectedExecutionException e) {
+            log.warn("Bulk user import rejected: another import is running");
+            response.setHeader(HttpHeaders.RETRY_AFTER, "30");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+            return;
+        }
+
+        try (userImport) {
+            response.setContentType(UserImportService.NDJSON_TYPE.toString());
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            userImport.run(response.getWriter());
+        }
     }
 
     //Удаление пользователя по ID
@@ -132,11 +260,82 @@ public class AdminController {
         otpCodeDao.deleteByUser(user);
 
         userRepo.deleteById(id);
+        exportCacheService.evictUser(id);
+        telegramLinkService.evictUser(user.getUsername());
         log.info("Deleted user: {} ({})", user.getUsername(), id);
 
         return ResponseEntity.ok().build();
     }
 
+    //Постановка в очередь массового удаления пользователей: {"userIds": [..]} или {"usernamePrefix": ".."}.
+    //Администраторы не удаляются. Прогресс доступен по GET /users/delete-jobs/{jobId}
+
+    @PostMapping("/users/delete-jobs")
+    @PreAuthorize("hasAuthority('ROLE_ADMIN')")
+    public ResponseEntity<Map<String, Object>> submitUserDeletion(Authentication authentication,
+                                                                  @RequestBody Map<String, Object> requestBody) {
+        log.info("Admin requested bulk user deletion");
+        validateAdminAccess("массовое удаление пользователей");
+
+        List<Long> userIds = new ArrayList<>();
+        if (requestBody.get("userIds") instanceof List<?> ids) {
+            for (Object id : ids) {
+                if (!(id instanceof Number number)) {
+                    return ResponseEntity.badRequest().body(Map.of("error", "userIds должен содержать только числа"));
+                }
+                userIds.add(number.longValue());
+            }
+        }
+        Object prefix = requestBody.get("usernamePrefix");
+        String usernamePrefix = prefix instanceof String value && !value.isEmpty() ? value : null;
+
+        if (userIds.isEmpty() == (usernamePrefix == null)) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Нужно указать либо непустой userIds, либо usernamePrefix"));
+        }
+
+        try {
+            UserDeletionJob job = userDeletionJobService.submit(userIds, usernamePrefix, authentication.getName());
+            return ResponseEntity.accepted().body(deletionJobStatus(job));
+        } catch (RejectedExecutionException e) {
+            log.warn("Очередь массового удаления пользователей заполнена");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "30")
+                    .body(Map.of("error", "Очередь удаления заполнена, повторите запрос позже"));
+        }
+    }
+
+    //Статус задачи массового удаления пользователей
+
+    @GetMapping("/users/delete-jobs/{jobId}")
+    @PreAuthorize("hasAuthority('ROLE_ADMIN')")
+    public ResponseEntity<Map<String, Object>> getUserDeletionJob(@PathVariable String jobId) {
+        return userDeletionJobService.findJob(jobId)
+                .map(job -> ResponseEntity.ok(deletionJobStatus(job)))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    private Map<String, Object> deletionJobStatus(UserDeletionJob job) {
+        Map<String, Object> status = new HashMap<>();
+        status.put("jobId", job.getId());
+        status.put("status", job.getStatus());
+        status.put("progress", job.getProgressPercent());
+        status.put("totalUsers", job.getTotalUsers());
+        status.put("deletedUsers", job.getDeletedUsers());
+        status.put("skippedUsers", job.getSkippedUsers());
+        status.put("deletedOtpCodes", job.getDeletedOtpCodes());
+        status.put("createdAt", job.getCreatedAt());
+        status.put("finishedAt", job.getFinishedAt());
+        status.put("expiresAt", job.getExpiresAt());
+        if (job.getUsernamePrefix() != null) {
+            status.put("usernamePrefix", job.getUsernamePrefix());
+        }
+        if (job.getError() != null) {
+            status.put("error", job.getError());
+        }
+        return status;
+    }
+
     //Вспомогательный метод для валидации доступа администратора
 
     private void validateAdminAccess(String action) {
@@ -2,16 +2,21 @@ package ru.n1str.otp.controller;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.*;
 import ru.n1str.otp.models.User;
 import ru.n1str.otp.repository.UserRepository;
+import ru.n1str.otp.security.PasswordHashingRejectedException;
+import ru.n1str.otp.service.AuthUserService;
 import ru.n1str.otp.service.JwtService;
 import ru.n1str.otp.service.UserRoleService;
 
@@ -29,7 +34,7 @@ public class AuthRestController {
     private final PasswordEncoder passwordEncoder;
     private final UserRoleService userRoleService;
     private final JwtService jwtService;
-    private final AuthenticationManager authenticationManager;
+    private final AuthUserService authUserService;
 
 
     //Регистрация нового пользователя с возвращением JWT-токена
@@ -44,7 +49,7 @@ public class AuthRestController {
             return ResponseEntity.badRequest().body(Map.of("error", "Имя пользователя и пароль обязательны"));
         }
 
-        if (userRepository.findByUsername(username).isPresent()) {
+        if (userRepository.existsByUsername(username)) {
             log.warn("Попытка регистрации с существующим именем пользователя: {}", username);
             return ResponseEntity.badRequest().body(Map.of("error", "Пользователь с таким именем уже существует"));
         }
@@ -63,9 +68,10 @@ public class AuthRestController {
 
             User savedUser = userRepository.save(newUser);
 
-            Authentication authentication = authenticationManager.authenticate(
-                    new UsernamePasswordAuthenticationToken(username, password)
-            );
+            // Пароль только что захеширован, повторная проверка через bcrypt не нужна
+            UserDetails userDetails = authUserService.toUserDetails(savedUser);
+            Authentication authentication = UsernamePasswordAuthenticationToken.authenticated(
+                    userDetails, null, userDetails.getAuthorities());
 
             String token = jwtService.generateToken(authentication);
 
@@ -80,6 +86,13 @@ public class AuthRestController {
 
             log.info("Успешная регистрация пользователя: {}, isAdmin: {}, токен выдан", username, isAdmin);
             return ResponseEntity.ok(response);
+        } catch (PasswordHashingRejectedException e) {
+            log.warn("Очередь хеширования паролей заполнена, регистрация {} отклонена", username);
+            return serviceUnavailable(e);
+        } catch (DataIntegrityViolationException e) {
+            // Параллельная регистрация того же логина — сработало уникальное ограничение
+            log.warn("Попытка регистрации с существующим именем пользователя: {}", username);
+            return ResponseEntity.badRequest().body(Map.of("error", "Пользователь с таким именем уже существует"));
         } catch (Exception e) {
             log.error("Ошибка при регистрации пользователя: {}", e.getMessage(), e);
             return ResponseEntity.internalServerError().body(Map.of("error", "Ошибка при регистрации пользователя: " + e.getMessage()));
@@ -107,15 +120,20 @@ public class AuthRestController {
         User user = userRepository.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
 
-        if (!passwordEncoder.matches(currentPassword, user.getPassword())) {
-            log.warn("Попытка изменения пароля с неверным текущим паролем для пользователя: {}", username);
-            return ResponseEntity.badRequest().body(Map.of(
-                "success", false,
-                "message", "Текущий пароль неверен"
-            ));
+        try {
+            if (!passwordEncoder.matches(currentPassword, user.getPassword())) {
+                log.warn("Попытка изменения пароля с неверным текущим паролем для пользователя: {}", username);
+                return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", "Текущий пароль неверен"
+                ));
+            }
+
+            user.setPassword(passwordEncoder.encode(newPassword));
+        } catch (PasswordHashingRejectedException e) {
+            log.warn("Очередь хеширования паролей заполнена, смена пароля {} отклонена", username);
+            return serviceUnavailable(e);
         }
-
-        user.setPassword(passwordEncoder.encode(newPassword));
         userRepository.save(user);
         
         log.info("Пароль успешно изменен для пользователя: {}", username);
@@ -125,6 +143,14 @@ public class AuthRestController {
         ));
     }
 
+    //Пул bcrypt перегружен: клиенту предлагается повторить запрос через Retry-After секунд
+
+    private static ResponseEntity<?> serviceUnavailable(PasswordHashingRejectedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(Map.of("error", e.getMessage()));
+    }
+
     //Получение информации о текущем пользователе
 
     @GetMapping("/profile")
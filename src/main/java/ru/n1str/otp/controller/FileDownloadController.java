@@ -1,56 +1,103 @@
 package ru.n1str.otp.controller;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.Resource;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
-import ru.n1str.otp.repository.UserRepository;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.n1str.otp.models.ExportCursor;
+import ru.n1str.otp.models.ExportJob;
+import ru.n1str.otp.models.OtpExportFilter;
+import ru.n1str.otp.models.User;
+import ru.n1str.otp.service.ExportCacheService;
+import ru.n1str.otp.service.ExportJobService;
 import ru.n1str.otp.service.OtpDownloadService;
+import ru.n1str.otp.utils.CapturingOutputStream;
+import ru.n1str.otp.utils.FileRangeSender;
+import ru.n1str.otp.utils.OtpColumnarFormat;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/api/otp/export")
 @RequiredArgsConstructor
 @Slf4j
 public class FileDownloadController {
+    private static final MediaType TEXT_CSV = new MediaType("text", "csv", StandardCharsets.UTF_8);
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
 
     private final OtpDownloadService otpDownloadService;
-    private final UserRepository userRepository;
+    private final ExportJobService exportJobService;
+    private final ExportCacheService exportCacheService;
 
 
     //Экспорт истории OTP в формате CSV для текущего пользователя
 
     @GetMapping("/csv")
-    public ResponseEntity<Resource> exportOtpCsv(Authentication authentication) {
+    public ResponseEntity<StreamingResponseBody> exportOtpCsv(
+            Authentication authentication,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) Long afterId,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         String username = authentication.getName();
         log.info("Запрос на экспорт OTP истории в CSV для пользователя: {}", username);
-        
-        Resource fileResource = otpDownloadService.exportOtpHistoryToCsv(username);
-        
-        return ResponseEntity.ok()
-                .contentType(MediaType.TEXT_PLAIN)
-                .header(HttpHeaders.CONTENT_DISPOSITION, 
-                        "attachment; filename=\"otp_history_" + username + ".csv\"")
-                .body(fileResource);
+
+        User user = otpDownloadService.findUser(username);
+        if (cursor != null) {
+            return streamDeltaCsv("otp_history_" + username + ".csv", acceptEncoding,
+                    new OtpExportFilter(user.getId(), from, to, null, limit), cursor);
+        }
+        OtpExportFilter filter = new OtpExportFilter(null, from, to, afterId, limit);
+
+        return cachedUserCsv(user, filter, "otp_history_" + username + ".csv", acceptEncoding, ifNoneMatch);
     }
 
     //Экспорт истории OTP в формате CSV для всех пользователей (только для администраторов)
 
     @GetMapping("/admin/csv")
     @PreAuthorize("hasAuthority('ROLE_ADMIN')")
-    public ResponseEntity<Resource> exportAllOtpCsv() {
+    public ResponseEntity<StreamingResponseBody> exportAllOtpCsv(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) Long afterId,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
         log.info("Запрос администратором на экспорт OTP истории всех пользователей в CSV");
-        
-        Resource fileResource = otpDownloadService.exportAllOtpHistoryToCsv();
-        
-        return ResponseEntity.ok()
-                .contentType(MediaType.TEXT_PLAIN)
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"all_otp_history.csv\"")
-                .body(fileResource);
+
+        if (cursor != null) {
+            return streamDeltaCsv("all_otp_history.csv", acceptEncoding,
+                    new OtpExportFilter(null, from, to, null, limit), cursor);
+        }
+        OtpExportFilter filter = new OtpExportFilter(null, from, to, afterId, limit);
+
+        return streamCsv("all_otp_history.csv", acceptEncoding, null,
+                writer -> otpDownloadService.writeAllOtpHistoryCsv(filter, writer));
     }
 
 
@@ -58,19 +105,281 @@ public class FileDownloadController {
 
     @GetMapping("/admin/csv/{username}")
     @PreAuthorize("hasAuthority('ROLE_ADMIN')")
-    public ResponseEntity<Resource> exportUserOtpCsvAsAdmin(@PathVariable String username) {
+    public ResponseEntity<StreamingResponseBody> exportUserOtpCsvAsAdmin(
+            @PathVariable String username,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) Long afterId,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         log.info("Запрос администратором на экспорт OTP истории пользователя {} в CSV", username);
-        
-        if (!userRepository.findByUsername(username).isPresent()) {
-            throw new RuntimeException("Пользователь не найден");
+
+        User user = otpDownloadService.findUser(username);
+        if (cursor != null) {
+            return streamDeltaCsv("otp_history_" + username + ".csv", acceptEncoding,
+                    new OtpExportFilter(user.getId(), from, to, null, limit), cursor);
+        }
+        OtpExportFilter filter = new OtpExportFilter(null, from, to, afterId, limit);
+
+        return cachedUserCsv(user, filter, "otp_history_" + username + ".csv", acceptEncoding, ifNoneMatch);
+    }
+
+    //Экспорт истории OTP текущего пользователя в бинарном колоночном формате
+
+    @GetMapping("/bin")
+    public ResponseEntity<StreamingResponseBody> exportOtpColumnar(
+            Authentication authentication,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) Long afterId,
+            @RequestParam(required = false) Integer limit) {
+        String username = authentication.getName();
+        log.info("Запрос на колоночный экспорт OTP истории для пользователя: {}", username);
+
+        User user = otpDownloadService.findUser(username);
+        OtpExportFilter filter = new OtpExportFilter(null, from, to, afterId, limit);
+
+        return streamColumnar("otp_history_" + username + ".otpc",
+                out -> otpDownloadService.writeOtpHistoryColumnar(user, filter, out));
+    }
+
+    //Экспорт всей истории OTP в бинарном колоночном формате (только для администраторов)
+
+    @GetMapping("/admin/bin")
+    @PreAuthorize("hasAuthority('ROLE_ADMIN')")
+    public ResponseEntity<StreamingResponseBody> exportAllOtpColumnar(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) Long afterId,
+            @RequestParam(required = false) Integer limit) {
+        log.info("Запрос администратором на колоночный экспорт OTP истории всех пользователей");
+
+        OtpExportFilter filter = new OtpExportFilter(null, from, to, afterId, limit);
+
+        return streamColumnar("all_otp_history.otpc",
+                out -> otpDownloadService.writeAllOtpHistoryColumnar(filter, out));
+    }
+
+    //Постановка в очередь фонового экспорта всей истории OTP (только для администраторов)
+
+    @PostMapping("/admin/csv/jobs")
+    @PreAuthorize("hasAuthority('ROLE_ADMIN')")
+    public ResponseEntity<Map<String, Object>> submitAllOtpCsvJob(
+            Authentication authentication,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        log.info("Запрос администратором на фоновый экспорт OTP истории всех пользователей в CSV");
+
+        OtpExportFilter filter = new OtpExportFilter(null, from, to, null, null);
+        try {
+            ExportJob job = exportJobService.submitAllOtpHistoryCsv(filter, authentication.getName());
+            return ResponseEntity.accepted().body(jobStatus(job));
+        } catch (RejectedExecutionException e) {
+            log.warn("Очередь фонового экспорта заполнена");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "30")
+                    .body(Map.of("error", "Очередь экспорта заполнена, повторите запрос позже"));
+        }
+    }
+
+    //Статус фоновой задачи экспорта
+
+    @GetMapping("/admin/csv/jobs/{jobId}")
+    @PreAuthorize("hasAuthority('ROLE_ADMIN')")
+    public ResponseEntity<Map<String, Object>> getExportJob(@PathVariable String jobId) {
+        return exportJobService.findJob(jobId)
+                .map(job -> ResponseEntity.ok(jobStatus(job)))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    //Скачивание результата фоновой задачи: поддерживает Range для докачки, файл отдаётся без копирования в приложении
+
+    @GetMapping("/admin/csv/jobs/{jobId}/file")
+    @PreAuthorize("hasAuthority('ROLE_ADMIN')")
+    public void downloadExportJob(@PathVariable String jobId,
+                                  HttpServletRequest request,
+                                  HttpServletResponse response) throws IOException {
+        ExportJob job = exportJobService.findJob(jobId).orElse(null);
+        if (job == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Задача экспорта не найдена");
+            return;
+        }
+        if (job.getStatus() != ExportJob.ExportJobStatus.COMPLETED) {
+            response.sendError(HttpServletResponse.SC_CONFLICT, "Экспорт ещё не готов: " + job.getStatus());
+            return;
+        }
+
+        // Файл удерживается на время отдачи, чтобы очистка по TTL не удалила его посреди скачивания
+        ExportJob retained = exportJobService.retainCompletedJob(jobId).orElse(null);
+        if (retained == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Задача экспорта не найдена");
+            return;
+        }
+        try {
+            FileRangeSender.send(retained.getFile(), TEXT_CSV.toString(), "all_otp_history.csv", request, response);
+        } finally {
+            exportJobService.releaseFile(retained);
+        }
+    }
+
+    private Map<String, Object> jobStatus(ExportJob job) {
+        Map<String, Object> status = new HashMap<>();
+        status.put("jobId", job.getId());
+        status.put("status", job.getStatus());
+        status.put("progress", job.getProgressPercent());
+        status.put("rowsWritten", job.getRowsWritten());
+        status.put("totalRows", job.getTotalRows());
+        status.put("createdAt", job.getCreatedAt());
+        status.put("finishedAt", job.getFinishedAt());
+        status.put("expiresAt", job.getExpiresAt());
+        if (job.getStatus() == ExportJob.ExportJobStatus.COMPLETED) {
+            status.put("sizeBytes", job.getSizeBytes());
+            status.put("downloadUrl", "/api/otp/export/admin/csv/jobs/" + job.getId() + "/file");
+        }
+        if (job.getError() != null) {
+            status.put("error", job.getError());
+        }
+        return status;
+    }
+
+    //Дельта-выгрузка после курсора. Конец выгрузки определяется до записи тела,
+    //поэтому курсор для следующего запроса отдаётся в заголовке X-Next-Cursor
+
+    private ResponseEntity<StreamingResponseBody> streamDeltaCsv(String filename, String acceptEncoding,
+                                                                 OtpExportFilter filter, String cursor) {
+        ExportCursor after;
+        try {
+            after = ExportCursor.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            log.warn("Некорректный курсор экспорта: {}", cursor);
+            return ResponseEntity.badRequest().build();
+        }
+
+        ExportCursor upTo = otpDownloadService.findDeltaEnd(filter, after);
+        return streamCsv(filename, acceptEncoding, upTo.encode(),
+                writer -> otpDownloadService.writeOtpDeltaCsv(filter, after, upTo, writer));
+    }
+
+    //Экспорт пользователя с проверкой версии: ETag строится из позиции последнего изменения
+    //его истории и параметров выборки. Совпавший If-None-Match даёт 304 после одного индексного поиска,
+    //сформированный ранее CSV той же версии отдаётся из кэша, иначе CSV пишется потоком и попадает в кэш
+
+    private ResponseEntity<StreamingResponseBody> cachedUserCsv(User user, OtpExportFilter filter, String filename,
+                                                                String acceptEncoding, String ifNoneMatch) {
+        boolean gzip = acceptsGzip(acceptEncoding);
+        String key = user.getId() + "|" + filter.createdFrom() + "|" + filter.createdTo() + "|"
+                + filter.afterId() + "|" + filter.limit();
+        String version = otpDownloadService.exportVersion(user);
+        String etag = "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8))
+                + "-" + version + (gzip ? "-gzip" : "") + "\"";
+        CacheControl cacheControl = CacheControl.noCache().cachePrivate();
+
+        if (etagMatches(ifNoneMatch, etag)) {
+            log.debug("Экспорт пользователя {} не изменился, 304", user.getUsername());
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cacheControl).build();
+        }
+
+        ResponseEntity.BodyBuilder response = csvResponse(filename, gzip).eTag(etag).cacheControl(cacheControl);
+        byte[] cached = exportCacheService.get(key, version);
+        if (cached != null) {
+            log.debug("Экспорт пользователя {} отдан из кэша", user.getUsername());
+            return response.body(csvBody(gzip, out -> out.write(cached)));
         }
-        
-        Resource fileResource = otpDownloadService.exportOtpHistoryToCsv(username);
-        
+
+        return response.body(csvBody(gzip, out -> {
+            CapturingOutputStream capture = new CapturingOutputStream(out, exportCacheService.getMaxEntryBytes());
+            writeCsv(capture, writer -> otpDownloadService.writeOtpHistoryCsv(user, filter, writer));
+            byte[] content = capture.getCaptured();
+            if (content != null) {
+                exportCacheService.put(key, version, content);
+            }
+        }));
+    }
+
+    //Отдаёт CSV потоком: строки пишутся в ответ по мере чтения из БД, при поддержке клиентом сжимаются gzip
+
+    private ResponseEntity<StreamingResponseBody> streamCsv(String filename, String acceptEncoding, String nextCursor,
+                                                            CsvWriterCallback callback) {
+        boolean gzip = acceptsGzip(acceptEncoding);
+        ResponseEntity.BodyBuilder response = csvResponse(filename, gzip);
+        if (nextCursor != null) {
+            response.header(NEXT_CURSOR_HEADER, nextCursor);
+        }
+        return response.body(csvBody(gzip, out -> writeCsv(out, callback)));
+    }
+
+    //Колоночный формат уже сжат блоками, поэтому gzip к нему не применяется
+
+    private static ResponseEntity<StreamingResponseBody> streamColumnar(String filename, OutputCallback callback) {
         return ResponseEntity.ok()
-                .contentType(MediaType.TEXT_PLAIN)
-                .header(HttpHeaders.CONTENT_DISPOSITION, 
-                        "attachment; filename=\"otp_history_" + username + ".csv\"")
-                .body(fileResource);
+                .contentType(MediaType.parseMediaType(OtpColumnarFormat.CONTENT_TYPE))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                .body(callback::write);
+    }
+
+    private static ResponseEntity.BodyBuilder csvResponse(String filename, boolean gzip) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(TEXT_CSV)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response;
+    }
+
+    private static StreamingResponseBody csvBody(boolean gzip, OutputCallback callback) {
+        return outputStream -> {
+            OutputStream out = gzip ? new GZIPOutputStream(outputStream, WRITE_BUFFER_SIZE) : outputStream;
+            callback.write(out);
+            if (gzip) {
+                ((GZIPOutputStream) out).finish();
+            }
+        };
+    }
+
+    private static void writeCsv(OutputStream out, CsvWriterCallback callback) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), WRITE_BUFFER_SIZE);
+        callback.write(writer);
+        writer.flush();
+    }
+
+    //Некорректные параметры выборки (например, limit меньше 1) отклоняются до обращения к БД
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, String>> handleInvalidFilter(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        return acceptEncoding != null && acceptEncoding.contains("gzip");
+    }
+
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @FunctionalInterface
+    private interface OutputCallback {
+        void write(OutputStream out) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface CsvWriterCallback {
+        void write(Writer writer) throws IOException;
     }
-}
\ No newline at end of file
+}
@@ -2,6 +2,8 @@ package ru.n1str.otp.controller;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.BadCredentialsException;
@@ -11,6 +13,7 @@ import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.web.bind.annotation.*;
 import ru.n1str.otp.repository.UserRepository;
+import ru.n1str.otp.security.PasswordHashingRejectedException;
 import ru.n1str.otp.service.JwtService;
 
 import java.util.HashMap;
@@ -56,6 +59,11 @@ public class JwtAuthController {
 
             log.info("Аутентификация успешна для пользователя: {}", username);
             return ResponseEntity.ok(response);
+        } catch (PasswordHashingRejectedException e) {
+            log.warn("Очередь проверки паролей заполнена, вход пользователя {} отклонён", username);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(Map.of("error", e.getMessage()));
         } catch (BadCredentialsException e) {
             log.warn("Неверные учетные данные для пользователя: {}", username);
             return ResponseEntity.badRequest().body(Map.of("error", "Неверное имя пользователя или пароль"));
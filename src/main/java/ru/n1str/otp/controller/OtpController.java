@@ -1,16 +1,21 @@
 package ru.n1str.otp.controller;
 
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import ru.n1str.otp.models.OtpCode;
 import ru.n1str.otp.models.User;
 import ru.n1str.otp.repository.OtpConfigurationRepository;
 import ru.n1str.otp.repository.UserRepository;
-import ru.n1str.otp.service.EmailService;
+import ru.n1str.otp.security.AttemptLimiter;
+import ru.n1str.otp.service.ChannelDispatcher;
+import ru.n1str.otp.service.ChannelUnavailableException;
 import ru.n1str.otp.service.OtpService;
-import ru.n1str.otp.service.SmsService;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -24,19 +29,23 @@ public class OtpController {
 
     private final OtpService otpService;
     private final UserRepository userRepository;
-    private final EmailService emailService;
-    private final SmsService smsService;
+    private final ChannelDispatcher channelDispatcher;
     private final OtpConfigurationRepository configRepo;
+    private final AttemptLimiter attemptLimiter;
 
     //Верификация OTP кода для текущего аутентифицированного пользователя
 
     @PostMapping("/verify")
     public ResponseEntity<Map<String, Object>> verifyOtp(
             Authentication authentication,
-            @RequestBody Map<String, String> request) {
+            @RequestBody Map<String, String> request,
+            HttpServletRequest httpRequest) {
         
         String code = request.get("code");
         String username = authentication.getName();
+        if (!attemptLimiter.tryAcquire(AttemptLimiter.Action.VERIFY, username, httpRequest.getRemoteAddr())) {
+            return tooManyAttempts();
+        }
         User user = userRepository.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("User not found"));
         
@@ -48,7 +57,7 @@ public class OtpController {
             return ResponseEntity.badRequest().body(response);
         }
         
-        boolean verified = otpService.verify(user, code);
+        boolean verified = verifyWithLimits(user, code);
         
         if (verified) {
             response.put("success", true);
@@ -61,10 +70,13 @@ public class OtpController {
         return ResponseEntity.ok(response);
     }
 
-    //Верификация OTP кода OTP кода для указанного пользователя
+    //Верификация OTP кода для указанного пользователя. Проверять чужие коды может только администратор:
+    //иначе любой пользователь мог бы неудачными проверками аннулировать коды другого
 
     @PostMapping("/validate")
-    public ResponseEntity<Map<String, Object>> validateOtp(@RequestBody Map<String, String> request) {
+    public ResponseEntity<Map<String, Object>> validateOtp(Authentication authentication,
+                                                           @RequestBody Map<String, String> request,
+                                                           HttpServletRequest httpRequest) {
         String username = request.get("username");
         String code = request.get("code");
         Map<String, Object> response = new HashMap<>();
@@ -74,6 +86,19 @@ public class OtpController {
             response.put("message", "Имя пользователя и код должны быть указаны");
             return ResponseEntity.badRequest().body(response);
         }
+
+        boolean admin = authentication.getAuthorities().stream()
+                .anyMatch(authority -> "ROLE_ADMIN".equals(authority.getAuthority()));
+        if (!admin && !username.equals(authentication.getName())) {
+            response.put("success", false);
+            response.put("message", "Проверять коды другого пользователя может только администратор");
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(response);
+        }
+
+        // Лимит проверяется до поиска пользователя: перебор отсекается без запросов к БД
+        if (!attemptLimiter.tryAcquire(AttemptLimiter.Action.VERIFY, username, httpRequest.getRemoteAddr())) {
+            return tooManyAttempts();
+        }
         
         User user = userRepository.findByUsername(username)
                 .orElse(null);
@@ -84,7 +109,7 @@ public class OtpController {
             return ResponseEntity.badRequest().body(response);
         }
         
-        boolean verified = otpService.verify(user, code);
+        boolean verified = verifyWithLimits(user, code);
         
         if (verified) {
             response.put("success", true);
@@ -102,10 +127,14 @@ public class OtpController {
     @PostMapping("/send-email")
     public ResponseEntity<Map<String, Object>> sendOtpEmail(
             Authentication authentication,
-            @RequestBody Map<String, String> request) {
+            @RequestBody Map<String, String> request,
+            HttpServletRequest httpRequest) {
         
         String email = request.get("email");
         String username = authentication.getName();
+        if (!attemptLimiter.tryAcquire(AttemptLimiter.Action.SEND, username, httpRequest.getRemoteAddr())) {
+            return tooManyAttempts();
+        }
         User user = userRepository.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("User not found"));
         
@@ -118,13 +147,15 @@ public class OtpController {
         }
         
         try {
-            ru.n1str.otp.models.OtpCode otpCode = otpService.generateEmailOtpWithoutSending(user, email);
+            OtpCode otpCode = otpService.generateEmailOtpWithoutSending(user, email);
 
-            emailService.sendOtpEmail(email, otpCode.getCode());
+            channelDispatcher.send(OtpCode.OtpChannel.EMAIL, user.getId(), email, otpCode.getCode());
             
             response.put("success", true);
             response.put("message", "Код отправлен на email");
             return ResponseEntity.ok(response);
+        } catch (ChannelUnavailableException e) {
+            return channelUnavailable(e);
         } catch (Exception e) {
             log.error("Ошибка при отправке OTP на email: {}", e.getMessage());
             response.put("success", false);
@@ -138,10 +169,14 @@ public class OtpController {
     @PostMapping("/send-sms")
     public ResponseEntity<Map<String, Object>> sendOtpSms(
             Authentication authentication,
-            @RequestBody Map<String, String> request) {
+            @RequestBody Map<String, String> request,
+            HttpServletRequest httpRequest) {
         
         String phone = request.get("phone");
         String username = authentication.getName();
+        if (!attemptLimiter.tryAcquire(AttemptLimiter.Action.SEND, username, httpRequest.getRemoteAddr())) {
+            return tooManyAttempts();
+        }
         User user = userRepository.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("User not found"));
         
@@ -154,13 +189,15 @@ public class OtpController {
         }
         
         try {
-            ru.n1str.otp.models.OtpCode otpCode = otpService.generateSmsOtpWithoutSending(user, phone);
+            OtpCode otpCode = otpService.generateSmsOtpWithoutSending(user, phone);
 
-            smsService.sendOtpCode(phone, otpCode.getCode());
+            channelDispatcher.send(OtpCode.OtpChannel.SMS, user.getId(), phone, otpCode.getCode());
             
             response.put("success", true);
             response.put("message", "Код отправлен по SMS");
             return ResponseEntity.ok(response);
+        } catch (ChannelUnavailableException e) {
+            return channelUnavailable(e);
         } catch (Exception e) {
             log.error("Ошибка при отправке OTP по SMS: {}", e.getMessage());
             response.put("success", false);
@@ -168,4 +205,38 @@ public class OtpController {
             return ResponseEntity.internalServerError().body(response);
         }
     }
-} 
\ No newline at end of file
+
+    //Проверка кода с учётом неудачных попыток: после otp.limiter.max-failures неудач подряд
+    //активные коды пользователя аннулируются
+
+    private boolean verifyWithLimits(User user, String code) {
+        boolean verified = otpService.verify(user, code);
+        if (verified) {
+            attemptLimiter.recordSuccess(user.getUsername());
+        } else if (attemptLimiter.recordFailure(user.getUsername())) {
+            otpService.invalidateActiveCodes(user);
+        }
+        return verified;
+    }
+
+    private ResponseEntity<Map<String, Object>> tooManyAttempts() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", "Слишком много попыток, повторите позже");
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(attemptLimiter.getRetryAfterSeconds()))
+                .body(response);
+    }
+
+    //Канал отключён выключателем или перегружен: отвечаем сразу, не дожидаясь таймаута отправки
+
+    private ResponseEntity<Map<String, Object>> channelUnavailable(ChannelUnavailableException e) {
+        log.warn(e.getMessage());
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", "Канал отправки временно недоступен, повторите позже");
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(response);
+    }
+}
@@ -1,10 +1,14 @@
 package ru.n1str.otp.controller;
 
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import ru.n1str.otp.security.AttemptLimiter;
+import ru.n1str.otp.service.ChannelUnavailableException;
 import ru.n1str.otp.service.TelegramBotService;
 import ru.n1str.otp.service.TelegramLinkService;
 import org.springframework.http.HttpStatus;
@@ -24,6 +28,7 @@ public class TelegramController {
     private final TelegramBotService telegramBotService;
     private final TelegramLinkService telegramLinkService;
     private final UserRepository userRepository;
+    private final AttemptLimiter attemptLimiter;
 
 
 
@@ -70,8 +75,16 @@ public class TelegramController {
     //Отправка OTP через Telegram (требует JWT)
 
     @PostMapping("/send-otp")
-    public ResponseEntity<?> sendOtp(Authentication authentication) {
+    public ResponseEntity<?> sendOtp(Authentication authentication, HttpServletRequest httpRequest) {
         String username = authentication.getName();
+        if (!attemptLimiter.tryAcquire(AttemptLimiter.Action.SEND, username, httpRequest.getRemoteAddr())) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "Слишком много попыток, повторите позже");
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(attemptLimiter.getRetryAfterSeconds()))
+                    .body(response);
+        }
         Long chatId = telegramLinkService.getUserTelegramChatId(username);
 
         if (chatId == null) {
@@ -81,9 +94,19 @@ public class TelegramController {
             return ResponseEntity.badRequest().body(response);
         }
 
-        boolean success = telegramBotService.sendOtpForUser(chatId);
-
         Map<String, Object> response = new HashMap<>();
+        boolean success;
+        try {
+            success = telegramBotService.sendOtpForUser(chatId);
+        } catch (ChannelUnavailableException e) {
+            log.warn(e.getMessage());
+            response.put("success", false);
+            response.put("message", "Канал отправки временно недоступен, повторите позже");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(response);
+        }
+
         if (success) {
             response.put("success", true);
             response.put("message", "Код отправлен в ваш Telegram");
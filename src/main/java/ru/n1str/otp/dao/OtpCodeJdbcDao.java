@@ -2,96 +2,97 @@ package ru.n1str.otp.dao;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
-import org.springframework.jdbc.support.GeneratedKeyHolder;
-import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.n1str.otp.models.ExportCursor;
 import ru.n1str.otp.models.OtpCode;
+import ru.n1str.otp.models.OtpExportFilter;
+import ru.n1str.otp.models.OtpExportRow;
 import ru.n1str.otp.models.OtpStatus;
 import ru.n1str.otp.models.User;
-import ru.n1str.otp.repository.UserRepository;
 
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @Repository
 @Slf4j
 public class OtpCodeJdbcDao {
     private final JdbcTemplate jdbcTemplate;
-    private final UserRepository userRepository;
-    private final RowMapper<OtpCode> otpCodeRowMapper;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final PooledIdGenerator idGenerator;
+    private final int fetchSize;
+    private final int batchSize;
 
     // SQL-запросы для работы с таблицей otp_code
+    private static final String OTP_CODE_SEQUENCE = "otp_code_seq";
+    // updated_at ставит БД: время изменения и граница дельта-выгрузки берутся с одних часов на всех экземплярах
     private static final String INSERT_OTP =
-            "INSERT INTO otp_code (code, status, created_at, expires_at, user_id, operation_id, channel) VALUES (?, ?, ?, ?, ?, ?, ?)";
+            "INSERT INTO otp_code (id, code, status, created_at, expires_at, user_id, operation_id, channel, updated_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)";
     private static final String UPDATE_STATUS =
-            "UPDATE otp_code SET status = ? WHERE id = ?";
-    private static final String FIND_ACTIVE_BY_USER_CODE =
-            "SELECT * FROM otp_code WHERE user_id = ? AND code = ? AND status = 'ACTIVE'";
+            "UPDATE otp_code SET status = ?, updated_at = CURRENT_TIMESTAMP WHERE id = ?";
+    private static final String OTP_COLUMNS =
+            "c.id, c.code, c.status, c.channel, c.created_at, c.expires_at, c.updated_at, c.user_id, c.operation_id";
+    private static final String FIND_BY_USER_CODE_AND_STATUS =
+            "SELECT " + OTP_COLUMNS + " FROM otp_code c WHERE c.user_id = ? AND c.code = ? AND c.status = ?";
     private static final String FIND_BY_USER_AND_STATUS =
-            "SELECT * FROM otp_code WHERE user_id = ? AND status = ?";
+            "SELECT " + OTP_COLUMNS + " FROM otp_code c WHERE c.user_id = ? AND c.status = ?";
+    // Пользователь подтягивается тем же запросом, а не отдельным findById на каждую строку
+    // LEFT JOIN: коды без пользователя (user_id допускает NULL) тоже должны истекать
     private static final String FIND_EXPIRED_ACTIVE =
-            "SELECT * FROM otp_code WHERE status = 'ACTIVE' AND expires_at < ?";
+            "SELECT " + OTP_COLUMNS + ", u.username FROM otp_code c LEFT JOIN user_table u ON u.id = c.user_id " +
+            "WHERE c.status = 'ACTIVE' AND c.expires_at < ?";
+    private static final String EXPIRE_ACTIVE =
+            "UPDATE otp_code SET status = 'EXPIRED', updated_at = CURRENT_TIMESTAMP WHERE id = ? AND status = 'ACTIVE'";
+    private static final String SELECT_EXPORT_ROWS =
+            "SELECT c.id, u.username, c.code, c.status, c.channel, c.created_at, c.expires_at, c.operation_id " +
+            "FROM otp_code c JOIN user_table u ON u.id = c.user_id";
+    // Инкрементальный экспорт: строки строго после курсора (updated_at, id)
+    private static final String DELTA_AFTER_CURSOR =
+            " AND (c.updated_at, c.id) > (?, ?)";
+    // Последнее изменение в истории пользователя — версия его экспорта (обратный проход по индексу)
+    private static final String FIND_LAST_CHANGE_BY_USER =
+            "SELECT c.updated_at, c.id FROM otp_code c WHERE c.user_id = ? ORDER BY c.updated_at DESC, c.id DESC LIMIT 1";
+    private static final String COUNT_ACTIVE =
+            "SELECT COUNT(*) FROM otp_code WHERE status = 'ACTIVE'";
     private static final String DELETE_BY_USER_ID =
             "DELETE FROM otp_code WHERE user_id = ?";
+    // Ограниченная порция кодов группы пользователей: короткие транзакции и блокировки при массовом удалении
+    private static final String DELETE_BATCH_BY_USER_IDS =
+            "DELETE FROM otp_code WHERE id IN (SELECT id FROM otp_code WHERE user_id IN (:userIds) LIMIT :limit)";
 
     @Autowired
-    public OtpCodeJdbcDao(JdbcTemplate jdbcTemplate, UserRepository userRepository) {
+    public OtpCodeJdbcDao(JdbcTemplate jdbcTemplate,
+                          PooledIdGenerator idGenerator,
+                          @Value("${otp.jdbc.fetch-size:500}") int fetchSize,
+                          @Value("${otp.jdbc.batch-size:50}") int batchSize) {
         this.jdbcTemplate = jdbcTemplate;
-        this.userRepository = userRepository;
-
-        this.otpCodeRowMapper = (rs, rowNum) -> {
-            OtpCode otpCode = new OtpCode();
-            otpCode.setId(rs.getLong("id"));
-            otpCode.setCode(rs.getString("code"));
-            otpCode.setStatus(OtpStatus.valueOf(rs.getString("status")));
-            otpCode.setCreatedAt(rs.getTimestamp("created_at").toLocalDateTime());
-            otpCode.setExpiresAt(rs.getTimestamp("expires_at").toLocalDateTime());
-            otpCode.setOperationId(rs.getString("operation_id"));
-
-            Long userId = rs.getLong("user_id");
-            User user = userRepository.findById(userId).orElse(null);
-            otpCode.setUser(user);
-
-            String channelStr = rs.getString("channel");
-            if (channelStr != null) {
-                otpCode.setChannel(OtpCode.OtpChannel.valueOf(channelStr));
-            }
-
-            return otpCode;
-        };
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.idGenerator = idGenerator;
+        this.fetchSize = fetchSize;
+        this.batchSize = batchSize;
     }
 
     public OtpCode save(OtpCode otpCode) {
         if (otpCode.getId() == null) {
-            KeyHolder keyHolder = new GeneratedKeyHolder();
-
-            jdbcTemplate.update(connection -> {
-                PreparedStatement ps = connection.prepareStatement(INSERT_OTP, new String[]{"id"});
-                ps.setString(1, otpCode.getCode());
-                ps.setString(2, otpCode.getStatus().name());
-                ps.setTimestamp(3, Timestamp.valueOf(otpCode.getCreatedAt()));
-                ps.setTimestamp(4, Timestamp.valueOf(otpCode.getExpiresAt()));
-                ps.setLong(5, otpCode.getUser().getId());
-                ps.setString(6, otpCode.getOperationId());
-
-                if (otpCode.getChannel() != null) {
-                    ps.setString(7, otpCode.getChannel().name());
-                } else {
-                    ps.setNull(7, Types.VARCHAR);
-                }
-
-                return ps;
-            }, keyHolder);
-
-            otpCode.setId(Objects.requireNonNull(keyHolder.getKey()).longValue());
+            otpCode.setId(idGenerator.nextId(OTP_CODE_SEQUENCE));
+            jdbcTemplate.update(INSERT_OTP, ps -> bindInsert(ps, otpCode));
             log.debug("Created new OTP code: {}", otpCode.getId());
         } else {
             jdbcTemplate.update(UPDATE_STATUS, otpCode.getStatus().name(), otpCode.getId());
@@ -101,12 +102,24 @@ public class OtpCodeJdbcDao {
         return otpCode;
     }
 
+    //Пакетная вставка новых кодов: идентификаторы берутся из пула, без обращения к БД на каждую строку
+
+    @Transactional
+    public List<OtpCode> saveAll(List<OtpCode> otpCodes) {
+        for (OtpCode otpCode : otpCodes) {
+            otpCode.setId(idGenerator.nextId(OTP_CODE_SEQUENCE));
+        }
+        jdbcTemplate.batchUpdate(INSERT_OTP, otpCodes, batchSize, this::bindInsert);
+        log.debug("Created {} OTP codes in batches of {}", otpCodes.size(), batchSize);
+        return otpCodes;
+    }
+
     public Optional<OtpCode> findByUserAndCodeAndStatus(User user, String code, OtpStatus status) {
         try {
             OtpCode otpCode = jdbcTemplate.queryForObject(
-                    FIND_ACTIVE_BY_USER_CODE,
-                    new Object[]{user.getId(), code},
-                    otpCodeRowMapper
+                    FIND_BY_USER_CODE_AND_STATUS,
+                    forUser(user),
+                    user.getId(), code, status.name()
             );
             return Optional.ofNullable(otpCode);
         } catch (EmptyResultDataAccessException e) {
@@ -117,21 +130,296 @@ public class OtpCodeJdbcDao {
     public List<OtpCode> findByUserAndStatus(User user, OtpStatus status) {
         return jdbcTemplate.query(
                 FIND_BY_USER_AND_STATUS,
-                new Object[]{user.getId(), status.name()},
-                otpCodeRowMapper
+                forUser(user),
+                user.getId(), status.name()
         );
     }
 
     public List<OtpCode> findExpiredActiveCodes() {
         return jdbcTemplate.query(
                 FIND_EXPIRED_ACTIVE,
-                new Object[]{Timestamp.valueOf(LocalDateTime.now())},
-                otpCodeRowMapper
+                joinedUser(),
+                Timestamp.valueOf(LocalDateTime.now())
         );
     }
 
+    //Помечает истёкшими не больше limit просроченных активных кодов в одной транзакции и возвращает их.
+    //Вызывается порциями, пока порция не окажется неполной: в памяти не больше limit строк,
+    //а блокировки строк держатся только на время порции. Коды, которые успели проверить или
+    //аннулировать между выборкой и обновлением, не возвращаются
+
+    @Transactional
+    public List<OtpCode> expireActiveBatch(LocalDateTime now, int limit) {
+        List<OtpCode> expired = jdbcTemplate.query(FIND_EXPIRED_ACTIVE + " ORDER BY c.id LIMIT ?",
+                joinedUser(), Timestamp.valueOf(now), limit);
+        if (expired.isEmpty()) {
+            return expired;
+        }
+
+        int[][] counts = jdbcTemplate.batchUpdate(EXPIRE_ACTIVE, expired, batchSize,
+                (ps, otpCode) -> ps.setLong(1, otpCode.getId()));
+
+        List<OtpCode> updated = new ArrayList<>(expired.size());
+        int index = 0;
+        for (int[] batch : counts) {
+            for (int count : batch) {
+                // SUCCESS_NO_INFO (-2) драйвер возвращает для переписанных пакетов: строка считается обновлённой
+                if (count != 0) {
+                    OtpCode otpCode = expired.get(index);
+                    otpCode.setStatus(OtpStatus.EXPIRED);
+                    updated.add(otpCode);
+                }
+                index++;
+            }
+        }
+        return updated;
+    }
+
+    //Потоковое чтение истории для экспорта: один запрос с JOIN, упорядоченный по id,
+    //курсор только вперёд с порциями по fetchSize
+
+    @Transactional(readOnly = true)
+    public void forEachExportRow(OtpExportFilter filter, Consumer<OtpExportRow> action) {
+        List<Object> args = new ArrayList<>();
+        String sql = SELECT_EXPORT_ROWS + exportConditions(filter, args) + " ORDER BY c.id" + exportLimit(filter, args);
+        streamExportRows(sql, args, action);
+    }
+
+    //Чтение одного диапазона id [fromId, toId) для параллельного экспорта.
+    //Каждый вызов идёт в своей транзакции, поэтому диапазоны можно читать из разных потоков
+
+    @Transactional(readOnly = true)
+    public void forEachExportRow(OtpExportFilter filter, long fromId, long toId, Consumer<OtpExportRow> action) {
+        List<Object> args = new ArrayList<>();
+        String sql = SELECT_EXPORT_ROWS + exportConditions(filter, args) + " AND c.id >= ? AND c.id < ? ORDER BY c.id";
+        args.add(fromId);
+        args.add(toId);
+        streamExportRows(sql, args, action);
+    }
+
+    //Граница очередной дельта-выгрузки: позиция последней строки после курсора, изменённой больше
+    //safetyLagSeconds назад по часам БД, с учётом limit. Считается до выгрузки, чтобы следующий курсор
+    //можно было отдать в заголовке ответа. Пусто, если новых строк нет
+
+    public Optional<ExportCursor> findDeltaEnd(OtpExportFilter filter, ExportCursor after, long safetyLagSeconds) {
+        List<Object> args = new ArrayList<>();
+        String where = " FROM otp_code c" + exportConditions(filter, args) + DELTA_AFTER_CURSOR
+                + " AND c.updated_at < CURRENT_TIMESTAMP - CAST(? AS INTEGER) * INTERVAL '1' SECOND";
+        args.add(Timestamp.valueOf(after.updatedAt()));
+        args.add(after.id());
+        args.add(safetyLagSeconds);
+
+        RowMapper<ExportCursor> cursorMapper = (rs, rowNum) ->
+                new ExportCursor(rs.getTimestamp("updated_at").toLocalDateTime(), rs.getLong("id"));
+
+        if (filter.limit() != null) {
+            List<Object> limitArgs = new ArrayList<>(args);
+            limitArgs.add(Math.max(filter.limit() - 1, 0));
+            List<ExportCursor> end = jdbcTemplate.query(
+                    "SELECT c.updated_at, c.id" + where + " ORDER BY c.updated_at, c.id LIMIT 1 OFFSET ?",
+                    cursorMapper, limitArgs.toArray());
+            if (!end.isEmpty()) {
+                return Optional.of(end.get(0));
+            }
+        }
+        List<ExportCursor> last = jdbcTemplate.query(
+                "SELECT c.updated_at, c.id" + where + " ORDER BY c.updated_at DESC, c.id DESC LIMIT 1",
+                cursorMapper, args.toArray());
+        return last.stream().findFirst();
+    }
+
+    //Потоковое чтение дельты: строки в полуинтервале (after, upTo] по (updated_at, id)
+
+    @Transactional(readOnly = true)
+    public void forEachDeltaRow(OtpExportFilter filter, ExportCursor after, ExportCursor upTo,
+                                Consumer<OtpExportRow> action) {
+        List<Object> args = new ArrayList<>();
+        String sql = SELECT_EXPORT_ROWS + exportConditions(filter, args) + DELTA_AFTER_CURSOR +
+                " AND (c.updated_at, c.id) <= (?, ?) ORDER BY c.updated_at, c.id";
+        args.add(Timestamp.valueOf(after.updatedAt()));
+        args.add(after.id());
+        args.add(Timestamp.valueOf(upTo.updatedAt()));
+        args.add(upTo.id());
+        streamExportRows(sql, args, action);
+    }
+
+    //Позиция последнего созданного или изменённого кода пользователя
+
+    public Optional<ExportCursor> findLastChange(Long userId) {
+        return jdbcTemplate.query(FIND_LAST_CHANGE_BY_USER, (rs, rowNum) ->
+                        new ExportCursor(rs.getTimestamp("updated_at").toLocalDateTime(), rs.getLong("id")),
+                userId).stream().findFirst();
+    }
+
+    //Границы id строк, попадающих в экспорт, для разбиения на диапазоны
+
+    public Optional<IdRange> findExportIdRange(OtpExportFilter filter) {
+        List<Object> args = new ArrayList<>();
+        String sql = "SELECT MIN(c.id), MAX(c.id) FROM otp_code c" + exportConditions(filter, args);
+        return jdbcTemplate.queryForObject(sql, (rs, rowNum) -> {
+            long min = rs.getLong(1);
+            if (rs.wasNull()) {
+                return Optional.<IdRange>empty();
+            }
+            return Optional.of(new IdRange(min, rs.getLong(2)));
+        }, args.toArray());
+    }
+
+    private void streamExportRows(String sql, List<Object> args, Consumer<OtpExportRow> action) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(sql,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(fetchSize);
+            for (int i = 0; i < args.size(); i++) {
+                ps.setObject(i + 1, args.get(i));
+            }
+            return ps;
+        }, rs -> {
+            action.accept(mapExportRow(rs));
+        });
+    }
+
+    //Количество строк, которые вернёт forEachExportRow (для отображения прогресса экспорта)
+
+    public long countExportRows(OtpExportFilter filter) {
+        List<Object> args = new ArrayList<>();
+        String sql = "SELECT COUNT(*) FROM otp_code c" + exportConditions(filter, args);
+        Long count = jdbcTemplate.queryForObject(sql, Long.class, args.toArray());
+        long total = count != null ? count : 0;
+        return filter.limit() != null ? Math.min(total, filter.limit()) : total;
+    }
+
+    private static String exportConditions(OtpExportFilter filter, List<Object> args) {
+        StringBuilder sql = new StringBuilder(" WHERE 1 = 1");
+        if (filter.userId() != null) {
+            sql.append(" AND c.user_id = ?");
+            args.add(filter.userId());
+        }
+        if (filter.afterId() != null) {
+            sql.append(" AND c.id > ?");
+            args.add(filter.afterId());
+        }
+        if (filter.createdFrom() != null) {
+            sql.append(" AND c.created_at >= ?");
+            args.add(Timestamp.valueOf(filter.createdFrom()));
+        }
+        if (filter.createdTo() != null) {
+            sql.append(" AND c.created_at < ?");
+            args.add(Timestamp.valueOf(filter.createdTo()));
+        }
+        return sql.toString();
+    }
+
+    private static String exportLimit(OtpExportFilter filter, List<Object> args) {
+        if (filter.limit() == null) {
+            return "";
+        }
+        args.add(filter.limit());
+        return " LIMIT ?";
+    }
+
+    public long countActiveCodes() {
+        Long count = jdbcTemplate.queryForObject(COUNT_ACTIVE, Long.class);
+        return count != null ? count : 0;
+    }
+
     public void deleteByUser(User user) {
         int count = jdbcTemplate.update(DELETE_BY_USER_ID, user.getId());
         log.debug("Deleted {} OTP codes for user: {}", count, user.getId());
     }
-}
\ No newline at end of file
+
+    //Удаляет не больше limit кодов пользователей userIds; возвращает число удалённых (0 — кодов не осталось)
+
+    public int deleteBatchByUserIds(Collection<Long> userIds, int limit) {
+        if (userIds.isEmpty()) {
+            return 0;
+        }
+        return namedJdbcTemplate.update(DELETE_BATCH_BY_USER_IDS,
+                new MapSqlParameterSource()
+                        .addValue("userIds", userIds)
+                        .addValue("limit", limit));
+    }
+
+    private void bindInsert(PreparedStatement ps, OtpCode otpCode) throws SQLException {
+        ps.setLong(1, otpCode.getId());
+        ps.setString(2, otpCode.getCode());
+        ps.setString(3, otpCode.getStatus().name());
+        ps.setTimestamp(4, Timestamp.valueOf(otpCode.getCreatedAt()));
+        ps.setTimestamp(5, Timestamp.valueOf(otpCode.getExpiresAt()));
+        ps.setLong(6, otpCode.getUser().getId());
+        ps.setString(7, otpCode.getOperationId());
+
+        if (otpCode.getChannel() != null) {
+            ps.setString(8, otpCode.getChannel().name());
+        } else {
+            ps.setNull(8, Types.VARCHAR);
+        }
+    }
+
+    //Маппер для запросов по конкретному пользователю: пользователь уже известен вызывающему
+
+    private static RowMapper<OtpCode> forUser(User user) {
+        return (rs, rowNum) -> mapOtpCode(rs, user);
+    }
+
+    //Маппер для запросов с JOIN на user_table. Пользователь собирается из колонок выборки
+    //в облегчённом виде (id и username, без ролей) и переиспользуется в пределах одной выборки
+
+    private static RowMapper<OtpCode> joinedUser() {
+        Map<Long, User> users = new HashMap<>();
+        return (rs, rowNum) -> {
+            long userId = rs.getLong("user_id");
+            if (rs.wasNull()) {
+                return mapOtpCode(rs, null);
+            }
+            User user = users.get(userId);
+            if (user == null) {
+                user = User.builder()
+                        .id(userId)
+                        .username(rs.getString("username"))
+                        .build();
+                users.put(userId, user);
+            }
+            return mapOtpCode(rs, user);
+        };
+    }
+
+    //Диапазон id (включительно с обеих сторон)
+
+    public record IdRange(long min, long max) {
+    }
+
+    //Разбор строк выборки; видимость пакета — для бенчмарков в src/perf/java
+
+    static OtpExportRow mapExportRow(ResultSet rs) throws SQLException {
+        String channelStr = rs.getString("channel");
+        return new OtpExportRow(
+                rs.getLong("id"),
+                rs.getString("username"),
+                rs.getString("code"),
+                OtpStatus.valueOf(rs.getString("status")),
+                channelStr != null ? OtpCode.OtpChannel.valueOf(channelStr) : null,
+                rs.getTimestamp("created_at").toLocalDateTime(),
+                rs.getTimestamp("expires_at").toLocalDateTime(),
+                rs.getString("operation_id"));
+    }
+
+    static OtpCode mapOtpCode(ResultSet rs, User user) throws SQLException {
+        OtpCode otpCode = new OtpCode();
+        otpCode.setId(rs.getLong("id"));
+        otpCode.setCode(rs.getString("code"));
+        otpCode.setStatus(OtpStatus.valueOf(rs.getString("status")));
+        otpCode.setCreatedAt(rs.getTimestamp("created_at").toLocalDateTime());
+        otpCode.setExpiresAt(rs.getTimestamp("expires_at").toLocalDateTime());
+        otpCode.setUpdatedAt(rs.getTimestamp("updated_at").toLocalDateTime());
+        otpCode.setOperationId(rs.getString("operation_id"));
+        otpCode.setUser(user);
+
+        String channelStr = rs.getString("channel");
+        if (channelStr != null) {
+            otpCode.setChannel(OtpCode.OtpChannel.valueOf(channelStr));
+        }
+
+        return otpCode;
+    }
+}
@@ -0,0 +1,88 @@
+package ru.n1str.otp.dao;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+//Таблица otp_stats_rollup: накопленные счётчики событий OTP по корзинам времени.
+//Каждый экземпляр прибавляет свои приращения, поэтому запись — UPDATE с добавлением, а для новой корзины INSERT
+
+@Repository
+@RequiredArgsConstructor
+@Slf4j
+public class OtpStatsDao {
+    private final JdbcTemplate jdbcTemplate;
+
+    private static final String ADD_COUNT =
+            "UPDATE otp_stats_rollup SET event_count = event_count + ? " +
+            "WHERE granularity = ? AND bucket_start = ? AND event = ? AND channel = ?";
+    private static final String INSERT_COUNT =
+            "INSERT INTO otp_stats_rollup (granularity, bucket_start, event, channel, event_count) VALUES (?, ?, ?, ?, ?)";
+    private static final String FIND_RANGE =
+            "SELECT bucket_start, event, channel, event_count FROM otp_stats_rollup " +
+            "WHERE granularity = ? AND bucket_start >= ? AND bucket_start < ? ORDER BY bucket_start";
+    private static final String DELETE_BEFORE =
+            "DELETE FROM otp_stats_rollup WHERE granularity = ? AND bucket_start < ?";
+
+    //Прибавляет приращения одной транзакцией: сначала пакетный UPDATE, затем INSERT для отсутствующих строк.
+    //Если строку параллельно вставил другой экземпляр, транзакция откатывается с DuplicateKeyException
+    //и вызывающий повторяет сброс позже — тогда строка уже существует и сработает UPDATE
+
+    @Transactional
+    public void addCounts(List<StatsDelta> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        int[][] updated = jdbcTemplate.batchUpdate(ADD_COUNT, deltas, deltas.size(), (ps, delta) -> {
+            ps.setLong(1, delta.count());
+            ps.setString(2, delta.granularity());
+            ps.setTimestamp(3, Timestamp.valueOf(delta.bucketStart()));
+            ps.setString(4, delta.event());
+            ps.setString(5, delta.channel());
+        });
+
+        List<StatsDelta> missing = new ArrayList<>();
+        for (int i = 0; i < deltas.size(); i++) {
+            if (updated[0][i] == 0) {
+                missing.add(deltas.get(i));
+            }
+        }
+        if (!missing.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_COUNT, missing, missing.size(), (ps, delta) -> {
+                ps.setString(1, delta.granularity());
+                ps.setTimestamp(2, Timestamp.valueOf(delta.bucketStart()));
+                ps.setString(3, delta.event());
+                ps.setString(4, delta.channel());
+                ps.setLong(5, delta.count());
+            });
+        }
+        log.debug("Flushed {} OTP stats counters ({} new rows)", deltas.size(), missing.size());
+    }
+
+    //Сохранённые счётчики корзин в [from, to)
+
+    public List<StatsDelta> findRange(String granularity, LocalDateTime from, LocalDateTime to) {
+        return jdbcTemplate.query(FIND_RANGE, (rs, rowNum) -> new StatsDelta(granularity,
+                        rs.getTimestamp("bucket_start").toLocalDateTime(),
+                        rs.getString("event"),
+                        rs.getString("channel"),
+                        rs.getLong("event_count")),
+                granularity, Timestamp.valueOf(from), Timestamp.valueOf(to));
+    }
+
+    public int deleteBefore(String granularity, LocalDateTime before) {
+        return jdbcTemplate.update(DELETE_BEFORE, granularity, Timestamp.valueOf(before));
+    }
+
+    //Счётчик одной комбинации корзина/событие/канал
+
+    public record StatsDelta(String granularity, LocalDateTime bucketStart, String event, String channel, long count) {
+    }
+}
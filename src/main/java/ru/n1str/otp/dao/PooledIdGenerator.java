@@ -0,0 +1,84 @@
+package ru.n1str.otp.dao;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+import org.springframework.jdbc.support.incrementer.AbstractSequenceMaxValueIncrementer;
+import org.springframework.jdbc.support.incrementer.H2SequenceMaxValueIncrementer;
+import org.springframework.jdbc.support.incrementer.PostgresSequenceMaxValueIncrementer;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.DatabaseMetaData;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+//Выдача идентификаторов для JDBC-вставок блоками из последовательности (pooled-lo):
+//одно обращение к последовательности даёт ALLOCATION_SIZE идентификаторов.
+//Семантика совпадает с оптимизатором pooled-lo Hibernate, поэтому JPA и JDBC
+//могут брать блоки из одной последовательности без пересечений
+
+@Component
+@Slf4j
+public class PooledIdGenerator {
+    // Должен совпадать с INCREMENT BY последовательностей и allocationSize в сущностях
+    public static final int ALLOCATION_SIZE = 50;
+
+    private final DataSource dataSource;
+    private final boolean postgres;
+    private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+
+    public PooledIdGenerator(DataSource dataSource) {
+        this.dataSource = dataSource;
+        this.postgres = isPostgres(dataSource);
+    }
+
+    public long nextId(String sequenceName) {
+        return pools.computeIfAbsent(sequenceName, this::createPool).next();
+    }
+
+    private Pool createPool(String sequenceName) {
+        AbstractSequenceMaxValueIncrementer incrementer = postgres
+                ? new PostgresSequenceMaxValueIncrementer(dataSource, sequenceName)
+                : new H2SequenceMaxValueIncrementer(dataSource, sequenceName);
+        return new Pool(incrementer);
+    }
+
+    private static boolean isPostgres(DataSource dataSource) {
+        try {
+            String product = JdbcUtils.extractDatabaseMetaData(dataSource, DatabaseMetaData::getDatabaseProductName);
+            return "PostgreSQL".equalsIgnoreCase(product);
+        } catch (MetaDataAccessException e) {
+            log.warn("Failed to detect database product, assuming PostgreSQL: {}", e.getMessage());
+            return true;
+        }
+    }
+
+    //Текущий блок идентификаторов одной последовательности
+
+    private static final class Pool {
+        private final AbstractSequenceMaxValueIncrementer incrementer;
+        private final ReentrantLock lock = new ReentrantLock();
+        private long next;
+        private long limit;
+
+        private Pool(AbstractSequenceMaxValueIncrementer incrementer) {
+            this.incrementer = incrementer;
+        }
+
+        private long next() {
+            lock.lock();
+            try {
+                if (next >= limit) {
+                    long low = incrementer.nextLongValue();
+                    next = low;
+                    limit = low + ALLOCATION_SIZE;
+                }
+                return next++;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package ru.n1str.otp.dao;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+@Repository
+@RequiredArgsConstructor
+@Slf4j
+public class SchedulerLockDao {
+    private final JdbcTemplate jdbcTemplate;
+
+    // SQL-запросы для работы с таблицей scheduler_lock. Время берётся из часов БД, а не экземпляра:
+    // расхождение часов между узлами не должно давать двух лидеров
+    private static final String TAKE_OR_RENEW =
+            "UPDATE scheduler_lock SET owner = ?, " +
+            "locked_until = CURRENT_TIMESTAMP + CAST(? AS INTEGER) * INTERVAL '1' SECOND, " +
+            "heartbeat_at = CURRENT_TIMESTAMP " +
+            "WHERE name = ? AND (owner = ? OR locked_until < CURRENT_TIMESTAMP)";
+    private static final String INSERT_LOCK =
+            "INSERT INTO scheduler_lock (name, owner, locked_until, heartbeat_at) " +
+            "VALUES (?, ?, CURRENT_TIMESTAMP + CAST(? AS INTEGER) * INTERVAL '1' SECOND, CURRENT_TIMESTAMP)";
+    private static final String RELEASE =
+            "DELETE FROM scheduler_lock WHERE name = ? AND owner = ?";
+
+    //Захватывает или продлевает аренду на leaseSeconds. Возвращает true, если владельцем стал owner
+
+    public boolean tryAcquire(String name, String owner, long leaseSeconds) {
+        int updated = jdbcTemplate.update(TAKE_OR_RENEW, owner, leaseSeconds, name, owner);
+        if (updated > 0) {
+            return true;
+        }
+
+        try {
+            jdbcTemplate.update(INSERT_LOCK, name, owner, leaseSeconds);
+            log.debug("Created scheduler lock {} for {}", name, owner);
+            return true;
+        } catch (DuplicateKeyException e) {
+            // Блокировку держит другой экземпляр, и её аренда ещё не истекла
+            return false;
+        }
+    }
+
+    public void release(String name, String owner) {
+        int count = jdbcTemplate.update(RELEASE, name, owner);
+        log.debug("Released scheduler lock {} held by {}: {}", name, owner, count > 0);
+    }
+}
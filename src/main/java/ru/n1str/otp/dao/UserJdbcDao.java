@@ -0,0 +1,212 @@
+package ru.n1str.otp.dao;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+//Операции с пользователями через JDBC: массовый импорт, постраничный список для администратора и массовое удаление.
+//Идентификаторы берутся блоками из user_table_seq через PooledIdGenerator — тот же pooled-lo,
+//что у сущности User, поэтому импорт и регистрация через JPA не пересекаются по id
+
+@Repository
+@Slf4j
+public class UserJdbcDao {
+    private static final String USER_SEQUENCE = "user_table_seq";
+    private static final String INSERT_USER =
+            "INSERT INTO user_table (id, username, password, enabled, account_non_expired, account_non_locked, credentials_non_expired) " +
+            "VALUES (?, ?, ?, TRUE, TRUE, TRUE, TRUE)";
+    private static final String INSERT_ROLE_LINK =
+            "INSERT INTO m2m_role_table (user_id, roles_id) VALUES (?, ?)";
+    private static final String FIND_EXISTING_USERNAMES =
+            "SELECT username FROM user_table WHERE username IN (:usernames)";
+
+    // Страница пользователей без указанной роли по возрастанию id (keyset), роли подтягиваются тем же запросом
+    private static final String USER_PAGE =
+            "SELECT p.id, p.username, r.name_role FROM (" +
+            "SELECT u.id, u.username FROM user_table u WHERE u.id > ?%s " +
+            "AND NOT EXISTS (SELECT 1 FROM m2m_role_table x WHERE x.user_id = u.id AND x.roles_id = ?) " +
+            "ORDER BY u.id LIMIT ?) p " +
+            "LEFT JOIN m2m_role_table m ON m.user_id = p.id LEFT JOIN role_user r ON r.id = m.roles_id " +
+            "ORDER BY p.id";
+    private static final String USERNAME_PREFIX = " AND u.username LIKE ? ESCAPE '\\'";
+    // Кандидаты на удаление: не администраторы, порциями по возрастанию id
+    private static final String NOT_ADMIN =
+            " AND NOT EXISTS (SELECT 1 FROM m2m_role_table x WHERE x.user_id = u.id AND x.roles_id = :adminRoleId)";
+    private static final String FIND_DELETABLE_BY_PREFIX =
+            "SELECT u.id, u.username FROM user_table u WHERE u.id > :afterId AND u.username LIKE :pattern ESCAPE '\\'" +
+            NOT_ADMIN + " ORDER BY u.id LIMIT :limit";
+    private static final String COUNT_DELETABLE_BY_PREFIX =
+            "SELECT COUNT(*) FROM user_table u WHERE u.username LIKE :pattern ESCAPE '\\'" + NOT_ADMIN;
+    private static final String FIND_DELETABLE_BY_IDS =
+            "SELECT u.id, u.username FROM user_table u WHERE u.id IN (:ids)" + NOT_ADMIN;
+    // Удаление пользователя каскадом: оставшиеся коды, связи с ролями, сам пользователь
+    private static final String DELETE_OTP_CODES = "DELETE FROM otp_code WHERE user_id IN (:ids)";
+    private static final String DELETE_ROLE_LINKS = "DELETE FROM m2m_role_table WHERE user_id IN (:ids)";
+    private static final String DELETE_USERS = "DELETE FROM user_table WHERE id IN (:ids)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final PooledIdGenerator idGenerator;
+    private final int batchSize;
+
+    @Autowired
+    public UserJdbcDao(JdbcTemplate jdbcTemplate,
+                       PooledIdGenerator idGenerator,
+                       @Value("${otp.jdbc.batch-size:50}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.idGenerator = idGenerator;
+        this.batchSize = batchSize;
+    }
+
+    //Какие из логинов уже заняты (один запрос по уникальному индексу на порцию)
+
+    public Set<String> findExistingUsernames(Collection<String> usernames) {
+        if (usernames.isEmpty()) {
+            return Set.of();
+        }
+        return new HashSet<>(namedJdbcTemplate.queryForList(FIND_EXISTING_USERNAMES,
+                new MapSqlParameterSource("usernames", usernames), String.class));
+    }
+
+    //Вставляет пользователей и их связь с ролью пакетами в одной транзакции. Возвращает выданные id
+
+    @Transactional
+    public List<Long> insertAll(List<NewUser> users, long roleId) {
+        List<Long> ids = new ArrayList<>(users.size());
+        for (int i = 0; i < users.size(); i++) {
+            ids.add(idGenerator.nextId(USER_SEQUENCE));
+        }
+
+        jdbcTemplate.batchUpdate(INSERT_USER, indexes(users.size()), batchSize, (ps, index) -> {
+            NewUser user = users.get(index);
+            ps.setLong(1, ids.get(index));
+            ps.setString(2, user.username());
+            ps.setString(3, user.passwordHash());
+        });
+        jdbcTemplate.batchUpdate(INSERT_ROLE_LINK, ids, batchSize, (ps, id) -> {
+            ps.setLong(1, id);
+            ps.setLong(2, roleId);
+        });
+        log.debug("Inserted {} users in batches of {}", users.size(), batchSize);
+        return ids;
+    }
+
+    //Страница пользователей с id > afterId, у которых нет роли excludedRoleId; usernamePrefix может быть null
+
+    public List<UserSummary> findUserPage(long afterId, String usernamePrefix, long excludedRoleId, int limit) {
+        List<Object> args = new ArrayList<>(4);
+        args.add(afterId);
+        if (usernamePrefix != null) {
+            args.add(escapeLike(usernamePrefix) + "%");
+        }
+        args.add(excludedRoleId);
+        args.add(limit);
+
+        List<UserSummary> page = new ArrayList<>(limit);
+        jdbcTemplate.query(String.format(USER_PAGE, usernamePrefix != null ? USERNAME_PREFIX : ""), rs -> {
+            long id = rs.getLong("id");
+            UserSummary last = page.isEmpty() ? null : page.get(page.size() - 1);
+            if (last == null || last.id() != id) {
+                last = new UserSummary(id, rs.getString("username"), new ArrayList<>(1));
+                page.add(last);
+            }
+            String role = rs.getString("name_role");
+            if (role != null) {
+                last.roles().add(role);
+            }
+        }, args.toArray());
+        return page;
+    }
+
+    //Следующая порция пользователей (не администраторов) с логином на usernamePrefix после afterId
+
+    public List<UserRef> findDeletableByPrefix(long afterId, String usernamePrefix, long adminRoleId, int limit) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("afterId", afterId)
+                .addValue("pattern", escapeLike(usernamePrefix) + "%")
+                .addValue("adminRoleId", adminRoleId)
+                .addValue("limit", limit);
+        return namedJdbcTemplate.query(FIND_DELETABLE_BY_PREFIX, params, USER_REF);
+    }
+
+    public long countDeletableByPrefix(String usernamePrefix, long adminRoleId) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("pattern", escapeLike(usernamePrefix) + "%")
+                .addValue("adminRoleId", adminRoleId);
+        Long count = namedJdbcTemplate.queryForObject(COUNT_DELETABLE_BY_PREFIX, params, Long.class);
+        return count != null ? count : 0;
+    }
+
+    //Существующие пользователи из списка, кроме администраторов
+
+    public List<UserRef> findDeletableByIds(Collection<Long> ids, long adminRoleId) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("ids", ids)
+                .addValue("adminRoleId", adminRoleId);
+        return namedJdbcTemplate.query(FIND_DELETABLE_BY_IDS, params, USER_REF);
+    }
+
+    //Удаляет пользователей вместе с оставшимися кодами и связями с ролями в одной транзакции.
+    //Основную массу кодов вызывающий удаляет заранее ограниченными порциями (OtpCodeJdbcDao.deleteBatchByUserIds),
+    //здесь дочищаются коды, выданные за это время
+
+    @Transactional
+    public DeletedUsers deleteUsers(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return new DeletedUsers(0, 0);
+        }
+        MapSqlParameterSource params = new MapSqlParameterSource("ids", ids);
+        int otpCodes = namedJdbcTemplate.update(DELETE_OTP_CODES, params);
+        namedJdbcTemplate.update(DELETE_ROLE_LINKS, params);
+        int users = namedJdbcTemplate.update(DELETE_USERS, params);
+        log.debug("Deleted {} users and {} remaining OTP codes", users, otpCodes);
+        return new DeletedUsers(users, otpCodes);
+    }
+
+    private static final RowMapper<UserRef> USER_REF =
+            (rs, rowNum) -> new UserRef(rs.getLong("id"), rs.getString("username"));
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private static List<Integer> indexes(int size) {
+        List<Integer> indexes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            indexes.add(i);
+        }
+        return indexes;
+    }
+
+    //Пользователь в списке администратора: только id, логин и названия ролей
+
+    public record UserSummary(long id, String username, List<String> roles) {
+    }
+
+    public record UserRef(long id, String username) {
+    }
+
+    public record DeletedUsers(int users, int otpCodes) {
+    }
+
+    //Пользователь для вставки: логин и уже вычисленный хеш пароля
+
+    public record NewUser(String username, String passwordHash) {
+    }
+}
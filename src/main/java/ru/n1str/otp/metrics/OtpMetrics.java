@@ -0,0 +1,164 @@
+package ru.n1str.otp.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.n1str.otp.dao.OtpCodeJdbcDao;
+import ru.n1str.otp.models.OtpCode.OtpChannel;
+import ru.n1str.otp.service.OtpStatsService;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Метрики жизненного цикла OTP. Все счётчики и таймеры создаются заранее для каждой комбинации тегов,
+//поэтому на горячем пути нет поиска в реестре и выделения памяти — только System.nanoTime и запись в метр.
+//Число активных кодов обновляется периодическим запросом, а не при каждом опросе Prometheus.
+//События кодов дополнительно считаются в OtpStatsService для статистики администратора
+
+@Component
+@Slf4j
+public class OtpMetrics {
+    public static final String NO_CHANNEL = "NONE";
+
+    public enum CodeEvent {
+        ISSUED, VERIFIED, EXPIRED, FAILED
+    }
+
+    public enum VerifyOutcome {
+        SUCCESS, EXPIRED, NOT_FOUND
+    }
+
+    public enum ExportFormat {
+        CSV, CSV_DELTA, COLUMNAR
+    }
+
+    private final OtpCodeJdbcDao otpCodeDao;
+    private final OtpStatsService otpStatsService;
+    private final AtomicLong activeCodes = new AtomicLong();
+
+    private final Map<OtpChannel, Timer> issueTimers = new EnumMap<>(OtpChannel.class);
+    private final Map<OtpChannel, Timer> persistTimers = new EnumMap<>(OtpChannel.class);
+    private final Map<OtpChannel, Timer> sendSuccessTimers = new EnumMap<>(OtpChannel.class);
+    private final Map<OtpChannel, Timer> sendFailureTimers = new EnumMap<>(OtpChannel.class);
+    private final Map<VerifyOutcome, Timer> verifyTimers = new EnumMap<>(VerifyOutcome.class);
+    private final Map<ExportFormat, Timer> exportTimers = new EnumMap<>(ExportFormat.class);
+    private final Map<ExportFormat, Counter> exportRows = new EnumMap<>(ExportFormat.class);
+    private final Map<CodeEvent, Map<OtpChannel, Counter>> codeCounters = new EnumMap<>(CodeEvent.class);
+    private final Map<CodeEvent, Counter> codeCountersWithoutChannel = new EnumMap<>(CodeEvent.class);
+    private final Timer jwtValid;
+    private final Timer jwtInvalid;
+
+    public OtpMetrics(MeterRegistry registry, OtpCodeJdbcDao otpCodeDao, OtpStatsService otpStatsService) {
+        this.otpCodeDao = otpCodeDao;
+        this.otpStatsService = otpStatsService;
+
+        for (OtpChannel channel : OtpChannel.values()) {
+            issueTimers.put(channel, timer(registry, "otp.issue", "Генерация и сохранение кода",
+                    "channel", channel.name()));
+            persistTimers.put(channel, timer(registry, "otp.persist", "Запись кода в БД",
+                    "channel", channel.name()));
+            sendSuccessTimers.put(channel, timer(registry, "otp.channel.send", "Доставка кода через канал",
+                    "channel", channel.name(), "outcome", "success"));
+            sendFailureTimers.put(channel, timer(registry, "otp.channel.send", "Доставка кода через канал",
+                    "channel", channel.name(), "outcome", "failure"));
+        }
+        for (VerifyOutcome outcome : VerifyOutcome.values()) {
+            verifyTimers.put(outcome, timer(registry, "otp.verify", "Проверка кода",
+                    "outcome", outcome.name().toLowerCase()));
+        }
+        for (ExportFormat format : ExportFormat.values()) {
+            exportTimers.put(format, timer(registry, "otp.export", "Экспорт истории",
+                    "format", format.name().toLowerCase()));
+            exportRows.put(format, Counter.builder("otp.export.rows")
+                    .description("Строки, выгруженные экспортом")
+                    .tag("format", format.name().toLowerCase())
+                    .register(registry));
+        }
+        for (CodeEvent event : CodeEvent.values()) {
+            Map<OtpChannel, Counter> byChannel = new EnumMap<>(OtpChannel.class);
+            for (OtpChannel channel : OtpChannel.values()) {
+                byChannel.put(channel, codeCounter(registry, event, channel.name()));
+            }
+            codeCounters.put(event, byChannel);
+            codeCountersWithoutChannel.put(event, codeCounter(registry, event, NO_CHANNEL));
+        }
+        jwtValid = timer(registry, "jwt.validate", "Проверка JWT", "outcome", "valid");
+        jwtInvalid = timer(registry, "jwt.validate", "Проверка JWT", "outcome", "invalid");
+
+        Gauge.builder("otp.codes.active", activeCodes, AtomicLong::get)
+                .description("Активные коды (обновляется периодически)")
+                .register(registry);
+    }
+
+    public void recordIssue(OtpChannel channel, long startNanos) {
+        issueTimers.get(channel).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        codeEvent(CodeEvent.ISSUED, channel);
+    }
+
+    public void recordPersist(OtpChannel channel, long startNanos) {
+        persistTimers.get(channel).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordSend(OtpChannel channel, long startNanos, boolean success) {
+        (success ? sendSuccessTimers : sendFailureTimers).get(channel)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    //Результат проверки кода; channel — канал найденного кода или null, если код не найден
+
+    public void recordVerify(VerifyOutcome outcome, OtpChannel channel, long startNanos) {
+        verifyTimers.get(outcome).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        codeEvent(switch (outcome) {
+            case SUCCESS -> CodeEvent.VERIFIED;
+            case EXPIRED -> CodeEvent.EXPIRED;
+            case NOT_FOUND -> CodeEvent.FAILED;
+        }, channel);
+    }
+
+    public void recordJwtValidation(boolean valid, long startNanos) {
+        (valid ? jwtValid : jwtInvalid).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordExport(ExportFormat format, long rows, long startNanos) {
+        exportTimers.get(format).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        exportRows.get(format).increment(rows);
+    }
+
+    public void codeEvent(CodeEvent event, OtpChannel channel) {
+        (channel != null ? codeCounters.get(event).get(channel) : codeCountersWithoutChannel.get(event)).increment();
+        otpStatsService.record(event, channel);
+    }
+
+    //Обновляет gauge активных кодов
+
+    @Scheduled(fixedRateString = "${otp.metrics.active-codes-refresh-ms:30000}")
+    public void refreshActiveCodes() {
+        try {
+            activeCodes.set(otpCodeDao.countActiveCodes());
+        } catch (RuntimeException e) {
+            log.warn("Failed to refresh active OTP codes gauge: {}", e.getMessage());
+        }
+    }
+
+    private static Timer timer(MeterRegistry registry, String name, String description, String... tags) {
+        return Timer.builder(name)
+                .description(description)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private static Counter codeCounter(MeterRegistry registry, CodeEvent event, String channel) {
+        return Counter.builder("otp.codes")
+                .description("События жизненного цикла кодов")
+                .tag("event", event.name().toLowerCase())
+                .tag("channel", channel)
+                .register(registry);
+    }
+}
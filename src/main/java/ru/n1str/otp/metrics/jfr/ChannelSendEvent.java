@@ -0,0 +1,39 @@
+package ru.n1str.otp.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import ru.n1str.otp.models.OtpCode;
+
+//Событие JFR: доставка кода через канал. userId передаёт вызывающий ChannelDispatcher.send,
+//по нему событие связывается с OtpIssue того же пользователя
+
+@Name("ru.n1str.otp.ChannelSend")
+@Label("OTP Channel Send")
+@Category({"OTP"})
+@Description("Доставка OTP-кода через канал")
+@Enabled(false)
+@StackTrace(false)
+public class ChannelSendEvent extends OtpEvent {
+    @Label("User Id")
+    long userId;
+
+    @Label("Channel")
+    String channel;
+
+    @Label("Outcome")
+    String outcome;
+
+    public void complete(long userId, OtpCode.OtpChannel channel, boolean success) {
+        end();
+        if (shouldCommit()) {
+            this.userId = userId;
+            this.channel = channelName(channel);
+            this.outcome = success ? "success" : "failure";
+            commit();
+        }
+    }
+}
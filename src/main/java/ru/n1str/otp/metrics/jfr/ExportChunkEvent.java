@@ -0,0 +1,48 @@
+package ru.n1str.otp.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+//Событие JFR: часть экспорта. Для CSV — чтение и форматирование диапазона id параллельного экспорта,
+//для колоночного формата — сжатие и запись блока
+
+@Name("ru.n1str.otp.ExportChunk")
+@Label("OTP Export Chunk")
+@Category({"OTP", "Export"})
+@Description("Обработка части экспорта истории")
+@Enabled(false)
+@StackTrace(false)
+public class ExportChunkEvent extends OtpEvent {
+    @Label("Format")
+    String format;
+
+    @Label("First Id")
+    long firstId;
+
+    @Label("Last Id")
+    long lastId;
+
+    @Label("Rows")
+    long rows;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    public void complete(String format, long firstId, long lastId, long rows, long bytes) {
+        end();
+        if (shouldCommit()) {
+            this.format = format;
+            this.firstId = firstId;
+            this.lastId = lastId;
+            this.rows = rows;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
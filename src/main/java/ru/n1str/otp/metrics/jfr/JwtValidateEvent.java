@@ -0,0 +1,33 @@
+package ru.n1str.otp.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+//Событие JFR: разбор и проверка JWT в фильтре, включая загрузку пользователя
+
+@Name("ru.n1str.otp.JwtValidate")
+@Label("JWT Validate")
+@Category({"OTP", "Security"})
+@Description("Проверка JWT в JwtAuthenticationFilter")
+@Enabled(false)
+@StackTrace(false)
+public class JwtValidateEvent extends OtpEvent {
+    @Label("Username")
+    String username;
+
+    @Label("Outcome")
+    String outcome;
+
+    public void complete(String username, String outcome) {
+        end();
+        if (shouldCommit()) {
+            this.username = username;
+            this.outcome = outcome;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package ru.n1str.otp.metrics.jfr;
+
+import jdk.jfr.Event;
+import ru.n1str.otp.models.OtpCode;
+
+//Базовый класс событий JFR приложения. Все события по умолчанию выключены (@Enabled(false))
+//и включаются настройками jfr/otp.jfc. Поля заполняются только после shouldCommit(),
+//поэтому при выключенной записи остаются лишь begin/end, которые JIT сводит почти к нулю
+
+abstract class OtpEvent extends Event {
+    static final String NO_CHANNEL = "NONE";
+
+    static String channelName(OtpCode.OtpChannel channel) {
+        return channel != null ? channel.name() : NO_CHANNEL;
+    }
+}
@@ -0,0 +1,38 @@
+package ru.n1str.otp.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import ru.n1str.otp.models.OtpCode;
+
+//Событие JFR: генерация и сохранение кода. Длительность — от начала генерации до записи в БД
+
+@Name("ru.n1str.otp.Issue")
+@Label("OTP Issue")
+@Category({"OTP"})
+@Description("Генерация и сохранение OTP-кода")
+@Enabled(false)
+@StackTrace(false)
+public class OtpIssueEvent extends OtpEvent {
+    @Label("User Id")
+    long userId;
+
+    @Label("Channel")
+    String channel;
+
+    @Label("Operation Id")
+    String operationId;
+
+    public void complete(OtpCode otpCode) {
+        end();
+        if (shouldCommit()) {
+            userId = otpCode.getUser() != null ? otpCode.getUser().getId() : 0;
+            channel = channelName(otpCode.getChannel());
+            operationId = otpCode.getOperationId();
+            commit();
+        }
+    }
+}
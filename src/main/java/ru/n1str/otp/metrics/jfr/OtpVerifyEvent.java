@@ -0,0 +1,38 @@
+package ru.n1str.otp.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import ru.n1str.otp.models.OtpCode;
+
+//Событие JFR: проверка кода пользователя
+
+@Name("ru.n1str.otp.Verify")
+@Label("OTP Verify")
+@Category({"OTP"})
+@Description("Проверка OTP-кода")
+@Enabled(false)
+@StackTrace(false)
+public class OtpVerifyEvent extends OtpEvent {
+    @Label("User Id")
+    long userId;
+
+    @Label("Channel")
+    String channel;
+
+    @Label("Outcome")
+    String outcome;
+
+    public void complete(long userId, OtpCode.OtpChannel channel, String outcome) {
+        end();
+        if (shouldCommit()) {
+            this.userId = userId;
+            this.channel = channelName(channel);
+            this.outcome = outcome;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package ru.n1str.otp.models;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+//Курсор инкрементального экспорта: позиция (updated_at, id) последней выданной строки.
+//Клиенту отдаётся непрозрачной строкой, следующая выгрузка начинается строго после неё
+
+public record ExportCursor(LocalDateTime updatedAt, long id) {
+    private static final String VERSION = "v1";
+
+    //Начальная позиция: выгрузка с самого начала истории
+    public static final ExportCursor START = new ExportCursor(LocalDateTime.of(1970, 1, 1, 0, 0), 0);
+
+    public String encode() {
+        String raw = VERSION + '|' + updatedAt + '|' + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    //Пустой курсор означает выгрузку с начала. Некорректный — IllegalArgumentException
+
+    public static ExportCursor decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return START;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|");
+            if (parts.length != 3 || !VERSION.equals(parts[0])) {
+                throw new IllegalArgumentException("Некорректный курсор экспорта");
+            }
+            return new ExportCursor(LocalDateTime.parse(parts[1]), Long.parseLong(parts[2]));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Некорректный курсор экспорта", e);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package ru.n1str.otp.models;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+//Фоновая задача экспорта истории OTP в файл. Поля обновляются рабочим потоком
+//и читаются эндпоинтом статуса, поэтому изменяемое состояние объявлено volatile
+
+@Getter
+@Setter
+public class ExportJob {
+    private final String id;
+    private final String requestedBy;
+    private final OtpExportFilter filter;
+    private final LocalDateTime createdAt;
+
+    private volatile ExportJobStatus status = ExportJobStatus.QUEUED;
+    private volatile long totalRows = -1;
+    private volatile long rowsWritten;
+    private volatile long sizeBytes;
+    private volatile Path file;
+    private volatile String error;
+    private volatile LocalDateTime startedAt;
+    private volatile LocalDateTime finishedAt;
+    private volatile LocalDateTime expiresAt;
+
+    // Скачивания файла, которые ещё идут, и время окончания последнего: файл не удаляется, пока его отдают
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private int activeDownloads;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private LocalDateTime lastDownloadAt;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private boolean removed;
+
+    public ExportJob(String id, String requestedBy, OtpExportFilter filter) {
+        this.id = id;
+        this.requestedBy = requestedBy;
+        this.filter = filter;
+        this.createdAt = LocalDateTime.now();
+    }
+
+    //Процент выполнения; -1, пока общее число строк неизвестно
+
+    public int getProgressPercent() {
+        if (status == ExportJobStatus.COMPLETED) {
+            return 100;
+        }
+        long total = totalRows;
+        if (total < 0) {
+            return -1;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        return (int) Math.min(99, rowsWritten * 100 / total);
+    }
+
+    //Отмечает начало скачивания файла. false — задача уже удалена и файла нет
+
+    public synchronized boolean retainFile() {
+        if (removed) {
+            return false;
+        }
+        activeDownloads++;
+        return true;
+    }
+
+    public synchronized void releaseFile(LocalDateTime now) {
+        activeDownloads--;
+        lastDownloadAt = now;
+    }
+
+    //Помечает задачу удалённой, если срок хранения истёк, файл не скачивают и с конца последнего
+    //скачивания прошло не меньше grace (sendfile Tomcat открывает файл уже после выхода из контроллера)
+
+    public synchronized boolean tryRemove(LocalDateTime now, Duration grace) {
+        if (expiresAt == null || !now.isAfter(expiresAt) || activeDownloads > 0) {
+            return false;
+        }
+        if (lastDownloadAt != null && now.isBefore(lastDownloadAt.plus(grace))) {
+            return false;
+        }
+        removed = true;
+        return true;
+    }
+
+    public enum ExportJobStatus {
+        QUEUED, RUNNING, COMPLETED, FAILED
+    }
+}
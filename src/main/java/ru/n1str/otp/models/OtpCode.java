@@ -15,7 +15,8 @@ import java.time.LocalDateTime;
 public class OtpCode {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "otp_code_seq")
+    @SequenceGenerator(name = "otp_code_seq", sequenceName = "otp_code_seq", allocationSize = 50)
     private Long id;
 
     private String code;
@@ -29,6 +30,13 @@ public class OtpCode {
     private LocalDateTime createdAt;
     private LocalDateTime expiresAt;
 
+    //Время изменения ставит БД: при создании значение по умолчанию столбца, при смене статуса
+    //OtpCodeRepository.updateStatus и запросы OtpCodeJdbcDao. Hibernate его не пишет и не перечитывает,
+    //поэтому вставки кодов остаются пакетными. По нему работает инкрементальный экспорт
+
+    @Column(nullable = false, insertable = false, updatable = false)
+    private LocalDateTime updatedAt;
+
     @ManyToOne
     private User user;
 
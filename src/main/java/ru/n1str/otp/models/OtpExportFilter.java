@@ -0,0 +1,30 @@
+package ru.n1str.otp.models;
+
+import java.time.LocalDateTime;
+
+//Условия выборки для экспорта истории OTP.
+//afterId + limit дают постраничное чтение по ключу (keyset): следующая страница
+//начинается после ID последней полученной строки; createdFrom/createdTo ограничивают период.
+//limit, если задан, должен быть положительным: он попадает прямо в LIMIT запроса
+
+public record OtpExportFilter(
+        Long userId,
+        LocalDateTime createdFrom,
+        LocalDateTime createdTo,
+        Long afterId,
+        Integer limit
+) {
+    public OtpExportFilter {
+        if (limit != null && limit < 1) {
+            throw new IllegalArgumentException("limit должен быть положительным: " + limit);
+        }
+    }
+
+    public static OtpExportFilter all() {
+        return new OtpExportFilter(null, null, null, null, null);
+    }
+
+    public OtpExportFilter forUser(Long userId) {
+        return new OtpExportFilter(userId, createdFrom, createdTo, afterId, limit);
+    }
+}
@@ -0,0 +1,17 @@
+package ru.n1str.otp.models;
+
+import java.time.LocalDateTime;
+
+//Строка экспорта истории OTP: плоская проекция otp_code + username без загрузки сущностей
+
+public record OtpExportRow(
+        long id,
+        String username,
+        String code,
+        OtpStatus status,
+        OtpCode.OtpChannel channel,
+        LocalDateTime createdAt,
+        LocalDateTime expiresAt,
+        String operationId
+) {
+}
@@ -22,7 +22,7 @@ import java.util.stream.Collectors;
 public class User {
     @Id
     @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_table_seq")
-    @SequenceGenerator(name = "user_table_seq", sequenceName = "user_table_seq", allocationSize = 1)
+    @SequenceGenerator(name = "user_table_seq", sequenceName = "user_table_seq", allocationSize = 50)
     private Long id;
 
     @Column(unique = true)
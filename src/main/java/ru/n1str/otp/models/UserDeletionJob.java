@@ -0,0 +1,58 @@
+package ru.n1str.otp.models;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+//Фоновая задача массового удаления пользователей: по списку id или по префиксу логина.
+//Поля обновляются рабочим потоком и читаются эндпоинтом статуса, поэтому изменяемое состояние объявлено volatile
+
+@Getter
+@Setter
+public class UserDeletionJob {
+    private final String id;
+    private final String requestedBy;
+    private final List<Long> userIds;
+    private final String usernamePrefix;
+    private final LocalDateTime createdAt;
+
+    private volatile UserDeletionJobStatus status = UserDeletionJobStatus.QUEUED;
+    private volatile long totalUsers = -1;
+    private volatile long deletedUsers;
+    private volatile long skippedUsers;
+    private volatile long deletedOtpCodes;
+    private volatile String error;
+    private volatile LocalDateTime startedAt;
+    private volatile LocalDateTime finishedAt;
+    private volatile LocalDateTime expiresAt;
+
+    public UserDeletionJob(String id, String requestedBy, List<Long> userIds, String usernamePrefix) {
+        this.id = id;
+        this.requestedBy = requestedBy;
+        this.userIds = userIds;
+        this.usernamePrefix = usernamePrefix;
+        this.createdAt = LocalDateTime.now();
+    }
+
+    //Процент выполнения; -1, пока число пользователей неизвестно
+
+    public int getProgressPercent() {
+        if (status == UserDeletionJobStatus.COMPLETED) {
+            return 100;
+        }
+        long total = totalUsers;
+        if (total < 0) {
+            return -1;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        return (int) Math.min(99, (deletedUsers + skippedUsers) * 100 / total);
+    }
+
+    public enum UserDeletionJobStatus {
+        QUEUED, RUNNING, COMPLETED, FAILED
+    }
+}
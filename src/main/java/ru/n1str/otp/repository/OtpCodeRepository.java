@@ -1,11 +1,15 @@
 package ru.n1str.otp.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import ru.n1str.otp.models.OtpCode;
 import ru.n1str.otp.models.OtpStatus;
 import ru.n1str.otp.models.User;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -15,4 +19,10 @@ public interface OtpCodeRepository extends JpaRepository<OtpCode, Long> {
     List<OtpCode> findByStatusAndExpiresAtBefore(OtpStatus status, LocalDateTime time);
     Optional<OtpCode> findByUserAndCodeAndStatus(User user, String code, OtpStatus status);
     List<OtpCode> findByUser(User user);
+
+    //Смена статуса кодов вместе с updated_at по часам БД (сам updated_at сущность не записывает)
+
+    @Modifying
+    @Query("update OtpCode c set c.status = :status, c.updatedAt = CURRENT_TIMESTAMP where c.id in :ids")
+    int updateStatus(@Param("ids") Collection<Long> ids, @Param("status") OtpStatus status);
 }
\ No newline at end of file
@@ -1,5 +1,15 @@
 package ru.n1str.otp.repository;
 
+import ru.n1str.otp.models.OtpCode.OtpChannel;
+
+//Канал доставки кодов. Реализации регистрируются как бины и подхватываются ChannelDispatcher,
+//который выполняет sendCode на пуле канала с таймаутом и автоматическим выключателем
+
 public interface OtpNotificationService {
-    void sendCode(String destination, String code);
-}
\ No newline at end of file
+
+    OtpChannel getChannel();
+
+    //Блокирующая отправка кода; ошибка доставки сообщается исключением
+
+    void sendCode(String destination, String code) throws Exception;
+}
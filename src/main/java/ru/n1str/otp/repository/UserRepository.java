@@ -12,6 +12,14 @@ public interface UserRepository extends JpaRepository<User,Long> {
 
     Optional<User> findByUsername (String login);
 
+    //Проверка занятости логина по уникальному индексу без загрузки сущности
+
+    boolean existsByUsername(String username);
+
+    //Есть ли хотя бы один пользователь с ролью; идёт по первичному ключу m2m_role_table (roles_id, user_id)
+
+    boolean existsByRoleUsersId(Long roleId);
+
     Optional<User> findByTelegramLinkToken(String token);
 
     //Ищет пользователя по идентификатору Telegram чата.
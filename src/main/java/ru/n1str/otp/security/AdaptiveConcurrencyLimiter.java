@@ -0,0 +1,132 @@
+package ru.n1str.otp.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Адаптивный предел одновременных запросов к OTP (AIMD по наблюдаемой задержке).
+//Порог задержки свой у каждого приоритета: выдача кода включает отправку через SMTP/SMPP и в норме
+//намного дольше проверки. Пока ответы быстрее порога своего приоритета и предел используется хотя бы
+//наполовину, он растёт на 1 за каждые limit ответов; медленный ответ или ошибка 5xx уменьшают его
+//в backoffRatio раз, но не чаще раза за порог проверки, чтобы пачка ответов, застрявших в одном затыке,
+//не обрушила предел до минимума.
+//Выдача кодов занимает не больше issueShare предела, остаток держится для проверки кодов.
+//Запрос сверх предела отклоняется сразу, а не ждёт в очереди Tomcat
+
+@Component
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+
+    public enum Priority {
+        VERIFY, ISSUE
+    }
+
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double issueShare;
+    private final Map<Priority, Long> latencyThresholdNanos = new EnumMap<>(Priority.class);
+    private final long decreaseIntervalNanos;
+    private final Map<Priority, Counter> rejected = new EnumMap<>(Priority.class);
+    private final Counter decreases;
+    private volatile double limit;
+    private long lastDecreaseNanos;
+
+    public AdaptiveConcurrencyLimiter(@Value("${otp.concurrency.initial-limit:20}") int initialLimit,
+                                      @Value("${otp.concurrency.min-limit:2}") int minLimit,
+                                      @Value("${otp.concurrency.max-limit:200}") int maxLimit,
+                                      @Value("${otp.concurrency.latency-threshold-ms:500}") long latencyThresholdMs,
+                                      @Value("${otp.concurrency.issue-latency-threshold-ms:5000}") long issueLatencyThresholdMs,
+                                      @Value("${otp.concurrency.backoff-ratio:0.9}") double backoffRatio,
+                                      @Value("${otp.concurrency.issue-share:0.75}") double issueShare,
+                                      MeterRegistry meterRegistry) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.issueShare = issueShare;
+        this.latencyThresholdNanos.put(Priority.VERIFY, TimeUnit.MILLISECONDS.toNanos(latencyThresholdMs));
+        this.latencyThresholdNanos.put(Priority.ISSUE, TimeUnit.MILLISECONDS.toNanos(issueLatencyThresholdMs));
+        this.decreaseIntervalNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMs);
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.lastDecreaseNanos = System.nanoTime() - decreaseIntervalNanos;
+
+        for (Priority priority : Priority.values()) {
+            rejected.put(priority, Counter.builder("otp.concurrency.rejected")
+                    .description("Запросы к OTP, отклонённые адаптивным пределом")
+                    .tag("priority", priority.name().toLowerCase())
+                    .register(meterRegistry));
+        }
+        decreases = Counter.builder("otp.concurrency.decreases")
+                .description("Снижения предела из-за медленных ответов или ошибок")
+                .register(meterRegistry);
+        Gauge.builder("otp.concurrency.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+                .description("Текущий предел одновременных запросов к OTP")
+                .register(meterRegistry);
+        Gauge.builder("otp.concurrency.inflight", inflight, AtomicInteger::get)
+                .description("Выполняющиеся запросы к OTP")
+                .register(meterRegistry);
+    }
+
+    //Занимает место под запрос. false — предел для этого приоритета исчерпан, запрос нужно отклонить
+
+    public boolean tryAcquire(Priority priority) {
+        double current = limit;
+        int allowed = priority == Priority.VERIFY
+                ? (int) current
+                : Math.max(1, (int) (current * issueShare));
+        while (true) {
+            int running = inflight.get();
+            if (running >= allowed) {
+                rejected.get(priority).increment();
+                return false;
+            }
+            if (inflight.compareAndSet(running, running + 1)) {
+                return true;
+            }
+        }
+    }
+
+    //Освобождает место и учитывает задержку запроса с порогом его приоритета; failed — ответ 5xx или исключение
+
+    public void release(Priority priority, long latencyNanos, boolean failed) {
+        int running = inflight.getAndDecrement();
+        onSample(latencyNanos > latencyThresholdNanos.get(priority), latencyNanos, failed, running);
+    }
+
+    //Освобождает место, не учитывая запрос в оценке: ответ намеренно отброшен (503 с Retry-After
+    //от выключателя канала или заполненной очереди) и ничего не говорит о перегрузке самого сервиса
+
+    public void release(Priority priority) {
+        inflight.decrementAndGet();
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    private synchronized void onSample(boolean slow, long latencyNanos, boolean failed, int running) {
+        long now = System.nanoTime();
+        if (failed || slow) {
+            if (now - lastDecreaseNanos >= decreaseIntervalNanos) {
+                double previous = limit;
+                limit = Math.max(minLimit, previous * backoffRatio);
+                lastDecreaseNanos = now;
+                decreases.increment();
+                log.debug("OTP concurrency limit decreased {} -> {} (latency {} ms, failed {})",
+                        (int) previous, (int) limit, TimeUnit.NANOSECONDS.toMillis(latencyNanos), failed);
+            }
+        } else if (running * 2 >= limit) {
+            // Предел растёт, только когда он действительно используется
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package ru.n1str.otp.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+//Ограничение попыток проверки и отправки OTP по пользователю и по IP клиента в скользящем окне.
+//Проверка выполняется в памяти до обращения к БД, превышение отдаётся как 429 с Retry-After.
+//Неудачные проверки считаются отдельно по пользователю: после maxFailures активные коды пользователя
+//аннулируются, и перебор продолжать бессмысленно. Счётчики локальны для экземпляра приложения
+
+@Component
+@Slf4j
+public class AttemptLimiter {
+
+    public enum Action {
+        VERIFY, SEND
+    }
+
+    private final SlidingWindowCounter attempts;
+    private final SlidingWindowCounter failures;
+    private final Map<Action, Integer> perUserLimits = new EnumMap<>(Action.class);
+    private final Map<Action, Integer> perIpLimits = new EnumMap<>(Action.class);
+    private final Map<Action, Counter> rejectedByUser = new EnumMap<>(Action.class);
+    private final Map<Action, Counter> rejectedByIp = new EnumMap<>(Action.class);
+    private final Counter invalidations;
+    private final int maxFailures;
+    private final long retryAfterSeconds;
+
+    public AttemptLimiter(@Value("${otp.limiter.window-seconds:60}") long windowSeconds,
+                          @Value("${otp.limiter.verify.per-user:10}") int verifyPerUser,
+                          @Value("${otp.limiter.verify.per-ip:30}") int verifyPerIp,
+                          @Value("${otp.limiter.send.per-user:5}") int sendPerUser,
+                          @Value("${otp.limiter.send.per-ip:20}") int sendPerIp,
+                          @Value("${otp.limiter.max-failures:5}") int maxFailures,
+                          @Value("${otp.limiter.failure-window-seconds:900}") long failureWindowSeconds,
+                          @Value("${otp.limiter.max-keys:100000}") int maxKeys,
+                          @Value("${otp.limiter.stripes:64}") int stripes,
+                          @Value("${otp.limiter.sketch-width:16384}") int sketchWidth,
+                          MeterRegistry meterRegistry) {
+        this.attempts = new SlidingWindowCounter(TimeUnit.SECONDS.toMillis(windowSeconds), maxKeys, stripes, sketchWidth);
+        this.failures = new SlidingWindowCounter(TimeUnit.SECONDS.toMillis(failureWindowSeconds), maxKeys, stripes, sketchWidth);
+        this.maxFailures = maxFailures;
+        this.retryAfterSeconds = windowSeconds;
+
+        perUserLimits.put(Action.VERIFY, verifyPerUser);
+        perUserLimits.put(Action.SEND, sendPerUser);
+        perIpLimits.put(Action.VERIFY, verifyPerIp);
+        perIpLimits.put(Action.SEND, sendPerIp);
+        for (Action action : Action.values()) {
+            rejectedByUser.put(action, rejectedCounter(meterRegistry, action, "user"));
+            rejectedByIp.put(action, rejectedCounter(meterRegistry, action, "ip"));
+        }
+        invalidations = Counter.builder("otp.limiter.invalidations")
+                .description("Аннулирования активных кодов после серии неудачных проверок")
+                .register(meterRegistry);
+        Gauge.builder("otp.limiter.keys", attempts, SlidingWindowCounter::trackedKeys)
+                .description("Ключи с точными счётчиками попыток")
+                .register(meterRegistry);
+    }
+
+    //Учитывает попытку пользователя с адреса clientIp. false — лимит исчерпан, запрос нужно отклонить.
+    //Оба лимита проверяются до учёта попытки: отказ по IP не расходует попытки пользователя, и наоборот.
+    //Если лимит IP исчерпал параллельный запрос уже после учёта попытки пользователя, она возвращается
+
+    public boolean tryAcquire(Action action, String username, String clientIp) {
+        long now = System.currentTimeMillis();
+        String prefix = action.name().charAt(0) + ":";
+        String userKey = prefix + "u:" + username;
+        String ipKey = clientIp != null ? prefix + "ip:" + clientIp : null;
+        int userLimit = perUserLimits.get(action);
+        int ipLimit = perIpLimits.get(action);
+
+        if (attempts.estimate(userKey, now) >= userLimit) {
+            return rejectUser(action, username);
+        }
+        if (ipKey != null && attempts.estimate(ipKey, now) >= ipLimit) {
+            return rejectIp(action, clientIp);
+        }
+        // Между проверкой и учётом параллельный запрос мог исчерпать лимит: учёт проверяет его ещё раз
+        if (!attempts.tryAcquire(userKey, userLimit, now)) {
+            return rejectUser(action, username);
+        }
+        if (ipKey != null && !attempts.tryAcquire(ipKey, ipLimit, now)) {
+            attempts.release(userKey, now);
+            return rejectIp(action, clientIp);
+        }
+        return true;
+    }
+
+    //Учитывает неудачную проверку. true — достигнут maxFailures, активные коды пользователя нужно аннулировать
+
+    public boolean recordFailure(String username) {
+        long now = System.currentTimeMillis();
+        failures.tryAcquire(username, Integer.MAX_VALUE, now);
+        if (failures.estimate(username, now) < maxFailures) {
+            return false;
+        }
+        failures.reset(username, now);
+        invalidations.increment();
+        log.warn("User {} reached {} failed OTP checks, active codes will be invalidated", username, maxFailures);
+        return true;
+    }
+
+    public void recordSuccess(String username) {
+        failures.reset(username, System.currentTimeMillis());
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    private boolean rejectUser(Action action, String username) {
+        rejectedByUser.get(action).increment();
+        log.warn("Attempt limit exceeded for user {} ({})", username, action);
+        return false;
+    }
+
+    private boolean rejectIp(Action action, String clientIp) {
+        rejectedByIp.get(action).increment();
+        log.warn("Attempt limit exceeded for address {} ({})", clientIp, action);
+        return false;
+    }
+
+    private static Counter rejectedCounter(MeterRegistry registry, Action action, String scope) {
+        return Counter.builder("otp.limiter.rejected")
+                .description("Запросы, отклонённые ограничителем попыток")
+                .tag("action", action.name().toLowerCase())
+                .tag("scope", scope)
+                .register(registry);
+    }
+}
@@ -0,0 +1,21 @@
+package ru.n1str.otp.security;
+
+import lombok.Getter;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+
+import java.util.Collection;
+
+//Пользователь Spring Security с ID учётной записи: ID попадает в JWT и сверяется при проверке токена,
+//поэтому токены удалённого пользователя не подходят новой учётной записи с тем же именем
+
+@Getter
+public class AuthUserDetails extends User {
+    private final Long id;
+
+    public AuthUserDetails(Long id, String username, String password, boolean enabled,
+                           Collection<? extends GrantedAuthority> authorities) {
+        super(username, password, enabled, true, true, true, authorities);
+        this.id = id;
+    }
+}
@@ -0,0 +1,69 @@
+package ru.n1str.otp.security;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+//Фильтр перед Spring Security для эндпоинтов OTP: отклоняет запрос с 503 до проверки JWT и загрузки
+//пользователя, если исчерпан адаптивный предел. Проверка кодов идёт с приоритетом VERIFY, остальное — ISSUE.
+//Экспорт истории не ограничивается: у него свои пулы, а длинные выгрузки исказили бы оценку задержки.
+//Ошибкой для предела считаются 5xx и исключения, кроме 503: это намеренный быстрый отказ (открытый выключатель,
+//заполненная очередь канала), и при недоступном SMS он иначе снижал бы общий предел и для проверки кодов
+
+public class ConcurrencyLimitFilter extends OncePerRequestFilter {
+    private static final String EXPORT_PATH = "/api/otp/export/";
+    private static final String REJECTED_BODY =
+            "{\"success\":false,\"message\":\"Сервер перегружен, повторите запрос позже\"}";
+
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    public ConcurrencyLimitFilter(AdaptiveConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return path(request).startsWith(EXPORT_PATH);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        String path = path(request);
+        AdaptiveConcurrencyLimiter.Priority priority = path.equals("/api/otp/verify") || path.equals("/api/otp/validate")
+                ? AdaptiveConcurrencyLimiter.Priority.VERIFY
+                : AdaptiveConcurrencyLimiter.Priority.ISSUE;
+
+        if (!limiter.tryAcquire(priority)) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            response.setContentType("application/json;charset=UTF-8");
+            response.getWriter().write(REJECTED_BODY);
+            return;
+        }
+
+        long start = System.nanoTime();
+        boolean completed = false;
+        try {
+            filterChain.doFilter(request, response);
+            completed = true;
+        } finally {
+            int status = response.getStatus();
+            if (completed && status == HttpServletResponse.SC_SERVICE_UNAVAILABLE) {
+                limiter.release(priority);
+            } else {
+                limiter.release(priority, System.nanoTime() - start,
+                        !completed || status >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+        }
+    }
+
+    private static String path(HttpServletRequest request) {
+        return request.getRequestURI().substring(request.getContextPath().length());
+    }
+}
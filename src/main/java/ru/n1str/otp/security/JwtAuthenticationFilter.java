@@ -18,6 +18,7 @@ import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
 
+import ru.n1str.otp.metrics.jfr.JwtValidateEvent;
 import ru.n1str.otp.service.JwtService;
 import ru.n1str.otp.service.AuthUserService;
 
@@ -36,10 +37,11 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     private final AuthUserService authUserService;
     private final JwtAuthenticationProvider jwtAuthProvider;
     
-    // Публичные эндпоинты - только для логина и регистрации
+    // Публичные эндпоинты - логин, регистрация и проверка состояния
     private final List<String> publicEndpoints = Arrays.asList(
             "/api/jwt/auth",
-            "/api/auth/register"
+            "/api/auth/register",
+            "/actuator/health"
     );
 
     @Override
@@ -58,8 +60,12 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             String jwt = extractJwtFromRequest(request);
             
             if (jwt != null) {
+                JwtValidateEvent jwtEvent = new JwtValidateEvent();
+                jwtEvent.begin();
+                String username = null;
+                String outcome = "error";
                 try {
-                    String username = jwtService.extractUsername(jwt);
+                    username = jwtService.extractUsername(jwt);
                     log.debug("Извлечено имя пользователя из JWT: {}", username);
                     
                     Authentication existingAuth = SecurityContextHolder.getContext().getAuthentication();
@@ -77,32 +83,40 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
                             );
 
                             SecurityContextHolder.getContext().setAuthentication(authentication);
+                            outcome = "valid";
                             log.debug("JWT аутентификация успешна для пользователя: {}", username);
                         } else {
                             log.warn("Невалидный JWT токен для пользователя: {}", username);
+                            outcome = "invalid";
                             handleJwtError(response, "Невалидный JWT токен");
                             return;
                         }
                     } else {
                         log.debug("Пользователь уже аутентифицирован: {}, пропускаем JWT аутентификацию", 
                                 existingAuth.getName());
+                        outcome = "skipped";
                     }
                 } catch (ExpiredJwtException e) {
                     log.warn("JWT токен истек: {}", e.getMessage());
+                    outcome = "expired";
                     handleJwtError(response, "JWT токен истек");
                     return;
                 } catch (MalformedJwtException | SignatureException e) {
                     log.warn("Невалидный JWT формат/подпись: {}", e.getMessage());
+                    outcome = "malformed";
                     handleJwtError(response, "Невалидный JWT формат или подпись");
                     return;
                 } catch (UsernameNotFoundException e) {
                     log.warn("Пользователь из JWT не найден: {}", e.getMessage());
+                    outcome = "user_not_found";
                     handleJwtError(response, "Пользователь из JWT не найден");
                     return;
                 } catch (Exception e) {
                     log.error("Не удалось установить аутентификацию по JWT: {}", e.getMessage(), e);
                     handleJwtError(response, "Ошибка аутентификации JWT");
                     return;
+                } finally {
+                    jwtEvent.complete(username, outcome);
                 }
             } else {
                 log.debug("JWT токен не найден в запросе: {}", path);
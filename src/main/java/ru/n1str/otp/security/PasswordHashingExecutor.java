@@ -0,0 +1,141 @@
+package ru.n1str.otp.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Пул для bcrypt: хеширование и проверка пароля стоят ~100 мс процессора, поэтому выполняются на пуле
+//по числу ядер с ограниченной очередью, а не на потоках запросов. При заполненной очереди запрос
+//отклоняется сразу (PasswordHashingRejectedException -> 503), и волна подбора паролей не вытесняет
+//дешёвые запросы вроде проверки OTP. Метрики: ожидание в очереди и время хеширования по операциям
+
+@Component
+public class PasswordHashingExecutor {
+    private final ThreadPoolExecutor executor;
+    private final long retryAfterSeconds;
+    private final Timer encodeQueueWait;
+    private final Timer matchesQueueWait;
+    private final Timer encodeTime;
+    private final Timer matchesTime;
+    private final Counter rejected;
+
+    public PasswordHashingExecutor(@Value("${security.password-hashing.threads:0}") int threads,
+                                   @Value("${security.password-hashing.queue-capacity:64}") int queueCapacity,
+                                   @Value("${security.password-hashing.retry-after-seconds:1}") long retryAfterSeconds,
+                                   MeterRegistry meterRegistry) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.retryAfterSeconds = retryAfterSeconds;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-hash-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        encodeQueueWait = timer(meterRegistry, "password.hashing.queue.wait", "Ожидание в очереди пула bcrypt", "encode");
+        matchesQueueWait = timer(meterRegistry, "password.hashing.queue.wait", "Ожидание в очереди пула bcrypt", "matches");
+        encodeTime = timer(meterRegistry, "password.hashing.time", "Время вычисления bcrypt", "encode");
+        matchesTime = timer(meterRegistry, "password.hashing.time", "Время вычисления bcrypt", "matches");
+        rejected = Counter.builder("password.hashing.rejected")
+                .description("Запросы, отклонённые из-за заполненной очереди bcrypt")
+                .register(meterRegistry);
+        Gauge.builder("password.hashing.queued", executor, pool -> pool.getQueue().size())
+                .description("Операции bcrypt в очереди")
+                .register(meterRegistry);
+        Gauge.builder("password.hashing.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Выполняющиеся операции bcrypt")
+                .register(meterRegistry);
+    }
+
+    //PasswordEncoder, выполняющий encode и matches делегата на пуле
+
+    public PasswordEncoder wrap(PasswordEncoder delegate) {
+        return new BoundedPasswordEncoder(delegate);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private <T> T call(Timer queueWait, Timer time, Callable<T> operation) {
+        long submittedAt = System.nanoTime();
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                long startedAt = System.nanoTime();
+                queueWait.record(startedAt - submittedAt, TimeUnit.NANOSECONDS);
+                try {
+                    return operation.call();
+                } finally {
+                    time.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new PasswordHashingRejectedException(retryAfterSeconds);
+        }
+
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Прервано ожидание проверки пароля", e);
+        }
+    }
+
+    private static Timer timer(MeterRegistry registry, String name, String description, String operation) {
+        return Timer.builder(name)
+                .description(description)
+                .tag("operation", operation)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private final class BoundedPasswordEncoder implements PasswordEncoder {
+        private final PasswordEncoder delegate;
+
+        private BoundedPasswordEncoder(PasswordEncoder delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String encode(CharSequence rawPassword) {
+            return call(encodeQueueWait, encodeTime, () -> delegate.encode(rawPassword));
+        }
+
+        @Override
+        public boolean matches(CharSequence rawPassword, String encodedPassword) {
+            return call(matchesQueueWait, matchesTime, () -> delegate.matches(rawPassword, encodedPassword));
+        }
+
+        @Override
+        public boolean upgradeEncoding(String encodedPassword) {
+            return delegate.upgradeEncoding(encodedPassword);
+        }
+    }
+}
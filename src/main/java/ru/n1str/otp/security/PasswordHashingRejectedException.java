@@ -0,0 +1,15 @@
+package ru.n1str.otp.security;
+
+import lombok.Getter;
+
+//Очередь пула хеширования паролей заполнена: запрос отклоняется сразу, клиенту отдаётся 503 с Retry-After
+
+@Getter
+public class PasswordHashingRejectedException extends RuntimeException {
+    private final long retryAfterSeconds;
+
+    public PasswordHashingRejectedException(long retryAfterSeconds) {
+        super("Сервер перегружен проверкой паролей, повторите позже");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
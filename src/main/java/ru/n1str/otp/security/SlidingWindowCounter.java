@@ -0,0 +1,276 @@
+package ru.n1str.otp.security;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+//Счётчик попыток по ключу в скользящем окне: оценка = текущее окно + предыдущее с весом оставшейся доли.
+//Точные счётчики лежат в картах с блокировкой по полосам (stripe), у каждой полосы свой предел ключей.
+//Если полоса заполнена живыми ключами, новые ключи считаются приближённо в count-min sketch
+//фиксированного размера: оценка может быть только завышена, поэтому память ограничена,
+//а ключ из переполнения не проходит больше попыток, чем разрешено
+
+final class SlidingWindowCounter {
+    private static final int SKETCH_DEPTH = 4;
+
+    private final long windowMillis;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final int keysPerStripe;
+    private final int sketchMask;
+    private volatile Sketch currentSketch;
+    private volatile Sketch previousSketch;
+
+    SlidingWindowCounter(long windowMillis, int maxKeys, int stripeCount, int sketchWidth) {
+        this.windowMillis = windowMillis;
+        int stripesPow2 = Integer.highestOneBit(Math.max(1, stripeCount - 1) << 1);
+        this.stripes = new Stripe[stripesPow2];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.stripeMask = stripesPow2 - 1;
+        this.keysPerStripe = Math.max(1, maxKeys / stripesPow2);
+        this.sketchMask = Integer.highestOneBit(Math.max(1, sketchWidth - 1) << 1) - 1;
+        this.currentSketch = new Sketch(-1, sketchMask);
+        this.previousSketch = new Sketch(-2, sketchMask);
+    }
+
+    //Учитывает попытку, если оценка по ключу ниже limit. Возвращает false, если попытка превышает лимит
+
+    boolean tryAcquire(String key, int limit, long nowMillis) {
+        long window = nowMillis / windowMillis;
+        double previousWeight = 1.0 - (double) (nowMillis % windowMillis) / windowMillis;
+        int hash = spread(key.hashCode());
+
+        Stripe stripe = stripes[hash & stripeMask];
+        synchronized (stripe) {
+            Window counts = stripe.findOrCreate(key, window, keysPerStripe, hash);
+            if (counts != null) {
+                counts.roll(window);
+                if (counts.previous * previousWeight + counts.current >= limit) {
+                    return false;
+                }
+                counts.current++;
+                return true;
+            }
+        }
+
+        Sketch[] sketches = sketches(window);
+        if (sketches[1].estimate(hash) * previousWeight + sketches[0].estimate(hash) >= limit) {
+            return false;
+        }
+        sketches[0].add(hash);
+        return true;
+    }
+
+    //Возвращает попытку, учтённую tryAcquire в момент nowMillis. Если окно уже сменилось, попытка
+    //осталась в предыдущем окне и не возвращается: оценка может остаться завышенной, но не заниженной
+
+    void release(String key, long nowMillis) {
+        long window = nowMillis / windowMillis;
+        int hash = spread(key.hashCode());
+
+        Stripe stripe = stripes[hash & stripeMask];
+        synchronized (stripe) {
+            Window counts = stripe.windows.get(key);
+            if (counts != null) {
+                if (counts.window == window && counts.current > 0) {
+                    counts.current--;
+                }
+                return;
+            }
+        }
+        Sketch current = currentSketch;
+        if (current.window == window && current.estimate(hash) > 0) {
+            current.add(hash, -1);
+        }
+    }
+
+    //Оценка числа попыток по ключу в скользящем окне
+
+    double estimate(String key, long nowMillis) {
+        long window = nowMillis / windowMillis;
+        double previousWeight = 1.0 - (double) (nowMillis % windowMillis) / windowMillis;
+        int hash = spread(key.hashCode());
+
+        Stripe stripe = stripes[hash & stripeMask];
+        synchronized (stripe) {
+            Window counts = stripe.windows.get(key);
+            if (counts != null) {
+                counts.roll(window);
+                return counts.previous * previousWeight + counts.current;
+            }
+        }
+        Sketch[] sketches = sketches(window);
+        return sketches[1].estimate(hash) * previousWeight + sketches[0].estimate(hash);
+    }
+
+    //Обнуляет счётчик ключа. Sketch общий для ключей и не уменьшается, поэтому ключ получает точный
+    //нулевой счётчик, который закрывает оценку sketch; в заполненной полосе для него вытесняется
+    //самый давний ключ, а его попытки переносятся в sketch
+
+    void reset(String key, long nowMillis) {
+        long window = nowMillis / windowMillis;
+        int hash = spread(key.hashCode());
+        Stripe stripe = stripes[hash & stripeMask];
+        synchronized (stripe) {
+            Window counts = stripe.windows.get(key);
+            if (counts == null) {
+                stripe.makeRoom(window, keysPerStripe);
+                counts = new Window(window);
+                stripe.windows.put(key, counts);
+            }
+            counts.window = window;
+            counts.current = 0;
+            counts.previous = 0;
+        }
+    }
+
+    int trackedKeys() {
+        int total = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                total += stripe.windows.size();
+            }
+        }
+        return total;
+    }
+
+    // Sketch текущего и предыдущего окна; при смене окна текущий становится предыдущим
+    private Sketch[] sketches(long window) {
+        Sketch current = currentSketch;
+        Sketch previous = previousSketch;
+        if (current.window != window) {
+            synchronized (this) {
+                if (currentSketch.window != window) {
+                    previousSketch = currentSketch.window == window - 1
+                            ? currentSketch : new Sketch(window - 1, sketchMask);
+                    currentSketch = new Sketch(window, sketchMask);
+                }
+                current = currentSketch;
+                previous = previousSketch;
+            }
+        }
+        return new Sketch[]{current, previous};
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+
+    private static final class Sketch {
+        private final long window;
+        private final int mask;
+        private final AtomicIntegerArray cells;
+
+        private Sketch(long window, int mask) {
+            this.window = window;
+            this.mask = mask;
+            this.cells = new AtomicIntegerArray(SKETCH_DEPTH * (mask + 1));
+        }
+
+        private void add(int hash) {
+            add(hash, 1);
+        }
+
+        private void add(int hash, int count) {
+            for (int row = 0; row < SKETCH_DEPTH; row++) {
+                cells.addAndGet(cell(row, hash), count);
+            }
+        }
+
+        private int estimate(int hash) {
+            int min = Integer.MAX_VALUE;
+            for (int row = 0; row < SKETCH_DEPTH; row++) {
+                min = Math.min(min, cells.get(cell(row, hash)));
+            }
+            return min;
+        }
+
+        // Строки используют независимые хеши вида h1 + row * h2
+        private int cell(int row, int hash) {
+            int second = spread(hash ^ 0x9e3779b9) | 1;
+            return row * (mask + 1) + ((hash + row * second) & mask);
+        }
+    }
+
+    private final class Stripe {
+        // Порядок доступа: в начале — ключи, к которым дольше всего не обращались
+        private final LinkedHashMap<String, Window> windows = new LinkedHashMap<>(16, 0.75f, true);
+
+        // Новый точный счётчик начинается с оценки sketch: ключ мог считаться там, пока полоса была заполнена
+        private Window findOrCreate(String key, long window, int capacity, int hash) {
+            Window counts = windows.get(key);
+            if (counts != null) {
+                return counts;
+            }
+            if (windows.size() >= capacity) {
+                removeStale(window);
+                if (windows.size() >= capacity) {
+                    return null;
+                }
+            }
+            Sketch[] sketches = sketches(window);
+            counts = new Window(window);
+            counts.current = sketches[0].estimate(hash);
+            counts.previous = sketches[1].estimate(hash);
+            windows.put(key, counts);
+            return counts;
+        }
+
+        // Освобождает место под ключ: сначала удаляются устаревшие ключи, затем вытесняется самый давний,
+        // а его попытки переносятся в sketch — оценка по нему может только вырасти
+        private void makeRoom(long window, int capacity) {
+            if (windows.size() < capacity) {
+                return;
+            }
+            removeStale(window);
+            if (windows.size() < capacity) {
+                return;
+            }
+            Iterator<Map.Entry<String, Window>> eldest = windows.entrySet().iterator();
+            Map.Entry<String, Window> entry = eldest.next();
+            eldest.remove();
+            Window counts = entry.getValue();
+            counts.roll(window);
+            int hash = spread(entry.getKey().hashCode());
+            Sketch[] sketches = sketches(window);
+            sketches[0].add(hash, counts.current);
+            sketches[1].add(hash, counts.previous);
+        }
+
+        // Ключ устарел, если к нему не обращались два окна — его оценка уже нулевая
+        private void removeStale(long window) {
+            Iterator<Map.Entry<String, Window>> iterator = windows.entrySet().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().getValue().window >= window - 1) {
+                    break;
+                }
+                iterator.remove();
+            }
+        }
+    }
+
+    private static final class Window {
+        private long window;
+        private int current;
+        private int previous;
+
+        private Window(long window) {
+            this.window = window;
+        }
+
+        private void roll(long now) {
+            if (now == window) {
+                return;
+            }
+            previous = now == window + 1 ? current : 0;
+            current = 0;
+            window = now;
+        }
+    }
+}
@@ -2,12 +2,12 @@ package ru.n1str.otp.service;
 
 import lombok.AllArgsConstructor;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
-import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 import ru.n1str.otp.repository.UserRepository;
+import ru.n1str.otp.security.AuthUserDetails;
 
 
 //Интеграции с системой безопасности Spring.
@@ -22,19 +22,22 @@ public class AuthUserService implements UserDetailsService {
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
         return repository.findByUsername(username)
-                .map(user -> User.withUsername(user.getUsername())
-                        .password(user.getPassword())
-                        .authorities(user.getRoleUsers()
-                                        .stream()
-                                        .map(roleUser -> {
-                                            String roleName = roleUser.getNameRole();
-                                            String authorityName = roleName.startsWith("ROLE_") 
-                                                ? roleName 
-                                                : "ROLE_" + roleName;
-                                            return new SimpleGrantedAuthority(authorityName);
-                                        }).toList())
-                        .disabled(!user.isEnabled())
-                        .build())
+                .map(this::toUserDetails)
                 .orElseThrow(() -> new UsernameNotFoundException("Пользователь не был найден"));
     }
+
+    //Представление пользователя для Spring Security (роли приводятся к виду ROLE_*, ID сохраняется для JWT)
+
+    public UserDetails toUserDetails(ru.n1str.otp.models.User user) {
+        return new AuthUserDetails(user.getId(), user.getUsername(), user.getPassword(), user.isEnabled(),
+                user.getRoleUsers()
+                        .stream()
+                        .map(roleUser -> {
+                            String roleName = roleUser.getNameRole();
+                            String authorityName = roleName.startsWith("ROLE_")
+                                ? roleName
+                                : "ROLE_" + roleName;
+                            return new SimpleGrantedAuthority(authorityName);
+                        }).toList());
+    }
 }
@@ -0,0 +1,275 @@
+package ru.n1str.otp.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import ru.n1str.otp.metrics.OtpMetrics;
+import ru.n1str.otp.metrics.jfr.ChannelSendEvent;
+import ru.n1str.otp.models.OtpCode.OtpChannel;
+import ru.n1str.otp.repository.OtpNotificationService;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Доставка кодов через каналы. Каналы — бины OtpNotificationService; если один канал обслуживают несколько бинов,
+//берётся первый по @Order. У каждого канала свой ограниченный пул платформенных потоков (переборка: зависший
+//SMTP занимает только потоки email), таймаут отправки и автоматический выключатель: после failureThreshold
+//ошибок подряд канал размыкается на openMillis, и отправки через него сразу получают ChannelUnavailableException.
+//Затем одна пробная отправка решает, замкнуть канал или снова разомкнуть.
+//Пулы платформенные, потому что opensmpp и JavaMail держат synchronized во время сетевого ввода-вывода:
+//на виртуальном потоке это закрепило бы несущий поток, а поток запроса просто ждёт Future
+
+@Service
+@Slf4j
+public class ChannelDispatcher {
+    private final Map<OtpChannel, Channel> channels = new EnumMap<>(OtpChannel.class);
+    private final OtpMetrics otpMetrics;
+    private final long timeoutMillis;
+
+    public ChannelDispatcher(ObjectProvider<OtpNotificationService> notifiers,
+                             OtpMetrics otpMetrics,
+                             Environment environment,
+                             MeterRegistry meterRegistry,
+                             @Value("${otp.channel.threads:8}") int defaultThreads,
+                             @Value("${otp.channel.queue-capacity:1000}") int queueCapacity,
+                             @Value("${otp.channel.send-timeout-ms:30000}") long timeoutMillis,
+                             @Value("${otp.channel.circuit.failure-threshold:5}") int failureThreshold,
+                             @Value("${otp.channel.circuit.open-ms:30000}") long openMillis) {
+        this.otpMetrics = otpMetrics;
+        this.timeoutMillis = timeoutMillis;
+
+        notifiers.orderedStream().forEach(notifier -> {
+            OtpChannel channel = notifier.getChannel();
+            if (channels.containsKey(channel)) {
+                log.info("Channel {} is served by {}, ignoring {}", channel,
+                        channels.get(channel).notifier.getClass().getSimpleName(), notifier.getClass().getSimpleName());
+                return;
+            }
+            String name = channel.name().toLowerCase();
+            int threads = environment.getProperty("otp.channel." + name + ".threads", Integer.class, defaultThreads);
+            channels.put(channel, new Channel(channel, notifier, executor(name + "-send", threads, queueCapacity),
+                    new CircuitBreaker(channel, failureThreshold, openMillis), meterRegistry));
+            log.info("Registered OTP channel {} ({}, {} threads)", channel, notifier.getClass().getSimpleName(), threads);
+        });
+    }
+
+    public boolean supports(OtpChannel channel) {
+        return channels.containsKey(channel);
+    }
+
+    //Отправляет код пользователя userId через канал и ждёт результата. Разомкнутый выключатель или заполненная
+    //очередь — ChannelUnavailableException без ожидания; ошибка доставки или таймаут — RuntimeException.
+    //userId нужен только событию JFR: сервисы каналов получают адрес и код
+
+    public void send(OtpChannel channel, long userId, String destination, String code) {
+        Channel target = channels.get(channel);
+        if (target == null) {
+            throw new IllegalStateException("Канал " + channel + " не зарегистрирован");
+        }
+        if (!target.breaker.tryAcquire()) {
+            target.rejectedOpen.increment();
+            throw new ChannelUnavailableException(channel, "канал отключён после серии ошибок",
+                    target.breaker.retryAfterSeconds());
+        }
+
+        long start = System.nanoTime();
+        ChannelSendEvent sendEvent = new ChannelSendEvent();
+        sendEvent.begin();
+        Future<?> future;
+        try {
+            future = target.executor.submit(() -> {
+                target.notifier.sendCode(destination, code);
+                return null;
+            });
+        } catch (RejectedExecutionException e) {
+            // Заполненная очередь — перегрузка, а не отказ канала: выключатель не размыкается
+            target.breaker.release();
+            target.rejectedQueueFull.increment();
+            sendEvent.complete(userId, channel, false);
+            throw new ChannelUnavailableException(channel, "очередь отправки заполнена", 1);
+        }
+
+        try {
+            future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            target.breaker.onSuccess();
+            otpMetrics.recordSend(channel, start, true);
+            sendEvent.complete(userId, channel, true);
+        } catch (ExecutionException e) {
+            failed(target, start, userId, sendEvent);
+            throw new RuntimeException("Не удалось отправить код через " + channel + ": " + e.getCause().getMessage(),
+                    e.getCause());
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            failed(target, start, userId, sendEvent);
+            throw new RuntimeException("Отправка через " + channel + " не завершилась за " + timeoutMillis + " мс", e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            target.breaker.release();
+            otpMetrics.recordSend(channel, start, false);
+            sendEvent.complete(userId, channel, false);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Прервано ожидание отправки через " + channel, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        channels.values().forEach(channel -> channel.executor.shutdownNow());
+    }
+
+    private void failed(Channel target, long start, long userId, ChannelSendEvent sendEvent) {
+        target.breaker.onFailure();
+        otpMetrics.recordSend(target.channel, start, false);
+        sendEvent.complete(userId, target.channel, false);
+    }
+
+    private static ThreadPoolExecutor executor(String name, int threads, int queueCapacity) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, name + "-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    private static final class Channel {
+        private final OtpChannel channel;
+        private final OtpNotificationService notifier;
+        private final ThreadPoolExecutor executor;
+        private final CircuitBreaker breaker;
+        private final Counter rejectedOpen;
+        private final Counter rejectedQueueFull;
+
+        private Channel(OtpChannel channel, OtpNotificationService notifier, ThreadPoolExecutor executor,
+                        CircuitBreaker breaker, MeterRegistry meterRegistry) {
+            this.channel = channel;
+            this.notifier = notifier;
+            this.executor = executor;
+            this.breaker = breaker;
+            this.rejectedOpen = rejectedCounter(meterRegistry, channel, "circuit_open");
+            this.rejectedQueueFull = rejectedCounter(meterRegistry, channel, "queue_full");
+
+            Gauge.builder("otp.channel.executor.queued", executor, pool -> pool.getQueue().size())
+                    .description("Отправки в очереди пула канала")
+                    .tag("channel", channel.name())
+                    .register(meterRegistry);
+            Gauge.builder("otp.channel.executor.active", executor, ThreadPoolExecutor::getActiveCount)
+                    .description("Выполняющиеся отправки канала")
+                    .tag("channel", channel.name())
+                    .register(meterRegistry);
+            Gauge.builder("otp.channel.circuit.state", breaker, CircuitBreaker::stateCode)
+                    .description("Состояние выключателя канала: 0 — замкнут, 1 — пробная отправка, 2 — разомкнут")
+                    .tag("channel", channel.name())
+                    .register(meterRegistry);
+        }
+
+        private static Counter rejectedCounter(MeterRegistry registry, OtpChannel channel, String reason) {
+            return Counter.builder("otp.channel.rejected")
+                    .description("Отправки, отклонённые без обращения к каналу")
+                    .tag("channel", channel.name())
+                    .tag("reason", reason)
+                    .register(registry);
+        }
+    }
+
+    //Автоматический выключатель канала: CLOSED -> OPEN после failureThreshold ошибок подряд,
+    //OPEN -> HALF_OPEN через openMillis (пропускается одна пробная отправка), HALF_OPEN -> CLOSED или снова OPEN
+
+    private static final class CircuitBreaker {
+        private enum State {
+            CLOSED, HALF_OPEN, OPEN
+        }
+
+        private final OtpChannel channel;
+        private final int failureThreshold;
+        private final long openMillis;
+        private State state = State.CLOSED;
+        private int failures;
+        private long openedAt;
+        private boolean trialRunning;
+
+        private CircuitBreaker(OtpChannel channel, int failureThreshold, long openMillis) {
+            this.channel = channel;
+            this.failureThreshold = failureThreshold;
+            this.openMillis = openMillis;
+        }
+
+        private synchronized boolean tryAcquire() {
+            switch (state) {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if (System.currentTimeMillis() - openedAt < openMillis) {
+                        return false;
+                    }
+                    state = State.HALF_OPEN;
+                    trialRunning = true;
+                    log.info("Channel {} circuit half-open, sending a trial message", channel);
+                    return true;
+                default:
+                    if (trialRunning) {
+                        return false;
+                    }
+                    trialRunning = true;
+                    return true;
+            }
+        }
+
+        private synchronized void onSuccess() {
+            // Поздний успех отправки, начатой до размыкания, выключатель не замыкает
+            if (state == State.OPEN) {
+                return;
+            }
+            if (state == State.HALF_OPEN) {
+                log.info("Channel {} circuit closed", channel);
+            }
+            state = State.CLOSED;
+            failures = 0;
+            trialRunning = false;
+        }
+
+        private synchronized void onFailure() {
+            trialRunning = false;
+            if (state == State.OPEN) {
+                return;
+            }
+            if (state == State.HALF_OPEN || ++failures >= failureThreshold) {
+                log.warn("Channel {} circuit opened for {} ms", channel, openMillis);
+                state = State.OPEN;
+                openedAt = System.currentTimeMillis();
+                failures = 0;
+            }
+        }
+
+        // Отправка не состоялась по причине, не связанной с каналом: пробную попытку можно повторить
+        private synchronized void release() {
+            trialRunning = false;
+        }
+
+        private synchronized long retryAfterSeconds() {
+            long remaining = openMillis - (System.currentTimeMillis() - openedAt);
+            return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(remaining + 999));
+        }
+
+        private synchronized int stateCode() {
+            return state.ordinal();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package ru.n1str.otp.service;
+
+import lombok.Getter;
+import ru.n1str.otp.models.OtpCode.OtpChannel;
+
+//Канал доставки сейчас не принимает отправки (выключатель разомкнут или очередь пула заполнена):
+//запрос отклоняется сразу, клиенту отдаётся 503 с Retry-After
+
+@Getter
+public class ChannelUnavailableException extends RuntimeException {
+    private final OtpChannel channel;
+    private final long retryAfterSeconds;
+
+    public ChannelUnavailableException(OtpChannel channel, String reason, long retryAfterSeconds) {
+        super("Канал " + channel + " временно недоступен: " + reason);
+        this.channel = channel;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
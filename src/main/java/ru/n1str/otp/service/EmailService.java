@@ -5,13 +5,15 @@ import jakarta.mail.internet.InternetAddress;
 import jakarta.mail.internet.MimeMessage;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import ru.n1str.otp.models.OtpCode;
+import ru.n1str.otp.repository.OtpNotificationService;
 
 import java.io.IOException;
 import java.util.Properties;
 
 @Service
 @Slf4j
-public class EmailService {
+public class EmailService implements OtpNotificationService {
     private final String username;
     private final String password;
     private final String fromEmail;
@@ -50,56 +52,55 @@ public class EmailService {
         }
     }
 
-    public void sendOtpCode(String toEmail, String code) {
-        try {
-            Message message = new MimeMessage(session);
-            message.setFrom(new InternetAddress(fromEmail));
-            message.setRecipient(Message.RecipientType.TO, new InternetAddress(toEmail));
-            message.setSubject("Ваш код подтверждения");
+    @Override
+    public OtpCode.OtpChannel getChannel() {
+        return OtpCode.OtpChannel.EMAIL;
+    }
 
-            String htmlContent =
-                    "<html>" +
-                            "<head>" +
-                            "  <style>" +
-                            "    body { font-family: Arial, sans-serif; }" +
-                            "    .container { padding: 20px; max-width: 600px; margin: 0 auto; }" +
-                            "    .header { text-align: center; padding: 10px; }" +
-                            "    .code-box { text-align: center; padding: 20px; background-color: #f7f7f7; " +
-                            "              border-radius: 5px; margin: 20px 0; }" +
-                            "    .code { font-size: 30px; font-weight: bold; letter-spacing: 5px; color: #0d6efd; }" +
-                            "    .footer { font-size: 12px; color: #666; text-align: center; margin-top: 20px; }" +
-                            "  </style>" +
-                            "</head>" +
-                            "<body>" +
-                            "  <div class='container'>" +
-                            "    <div class='header'>" +
-                            "      <h2>Код подтверждения</h2>" +
-                            "    </div>" +
-                            "    <p>Здравствуйте!</p>" +
-                            "    <p>Для завершения процесса авторизации используйте следующий код:</p>" +
-                            "    <div class='code-box'>" +
-                            "      <div class='code'>" + code + "</div>" +
-                            "    </div>" +
-                            "    <p>Код действителен в течение 5 минут.</p>" +
-                            "    <p>Если вы не запрашивали этот код, просто проигнорируйте это сообщение.</p>" +
-                            "    <div class='footer'>" +
-                            "      Это автоматическое сообщение, пожалуйста, не отвечайте на него." +
-                            "    </div>" +
-                            "  </div>" +
-                            "</body>" +
-                            "</html>";
+    //Соединение с SMTP и отправка письма; выполняется на пуле канала в ChannelDispatcher
 
-            message.setContent(htmlContent, "text/html; charset=UTF-8");
+    @Override
+    public void sendCode(String toEmail, String code) throws Exception {
+        Message message = new MimeMessage(session);
+        message.setFrom(new InternetAddress(fromEmail));
+        message.setRecipient(Message.RecipientType.TO, new InternetAddress(toEmail));
+        message.setSubject("Ваш код подтверждения");
 
-            Transport.send(message);
-            log.info("OTP code sent to {}", toEmail);
-        } catch (MessagingException e) {
-            log.error("Failed to send email to {}: {}", toEmail, e.getMessage());
-            throw new RuntimeException("Failed to send email", e);
-        }
-    }
+        String htmlContent =
+                "<html>" +
+                        "<head>" +
+                        "  <style>" +
+                        "    body { font-family: Arial, sans-serif; }" +
+                        "    .container { padding: 20px; max-width: 600px; margin: 0 auto; }" +
+                        "    .header { text-align: center; padding: 10px; }" +
+                        "    .code-box { text-align: center; padding: 20px; background-color: #f7f7f7; " +
+                        "              border-radius: 5px; margin: 20px 0; }" +
+                        "    .code { font-size: 30px; font-weight: bold; letter-spacing: 5px; color: #0d6efd; }" +
+                        "    .footer { font-size: 12px; color: #666; text-align: center; margin-top: 20px; }" +
+                        "  </style>" +
+                        "</head>" +
+                        "<body>" +
+                        "  <div class='container'>" +
+                        "    <div class='header'>" +
+                        "      <h2>Код подтверждения</h2>" +
+                        "    </div>" +
+                        "    <p>Здравствуйте!</p>" +
+                        "    <p>Для завершения процесса авторизации используйте следующий код:</p>" +
+                        "    <div class='code-box'>" +
+                        "      <div class='code'>" + code + "</div>" +
+                        "    </div>" +
+                        "    <p>Код действителен в течение 5 минут.</p>" +
+                        "    <p>Если вы не запрашивали этот код, просто проигнорируйте это сообщение.</p>" +
+                        "    <div class='footer'>" +
+                        "      Это автоматическое сообщение, пожалуйста, не отвечайте на него." +
+                        "    </div>" +
+                        "  </div>" +
+                        "</body>" +
+                        "</html>";
+
+        message.setContent(htmlContent, "text/html; charset=UTF-8");
 
-    public void sendOtpEmail(String toEmail, String code) {
-        sendOtpCode(toEmail, code);
+        Transport.send(message);
+        log.info("OTP code sent to {}", toEmail);
     }
 }
\ No newline at end of file
@@ -0,0 +1,99 @@
+package ru.n1str.otp.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+//Кэш недавно сформированных CSV-экспортов пользователей.
+//Запись хранит версию истории, для которой она сформирована, и отдаётся только при совпадении версии.
+//Объём ограничен суммарным размером в байтах: при переполнении вытесняются давно не использованные записи
+
+@Service
+@Slf4j
+public class ExportCacheService {
+    private final long maxBytes;
+    private final int maxEntryBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    public ExportCacheService(@Value("${export.cache.max-bytes:67108864}") long maxBytes,
+                              @Value("${export.cache.max-entry-bytes:4194304}") int maxEntryBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    //Максимальный размер одной записи: экспорты больше него не кэшируются
+
+    public int getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    public byte[] get(String key, String version) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            return entry != null && entry.version().equals(version) ? entry.content() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(String key, String version, byte[] content) {
+        if (content.length > maxEntryBytes || content.length > maxBytes) {
+            return;
+        }
+        lock.lock();
+        try {
+            Entry previous = entries.put(key, new Entry(version, content));
+            if (previous != null) {
+                totalBytes -= previous.content().length;
+            }
+            totalBytes += content.length;
+
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                totalBytes -= eldest.next().content().length;
+                eldest.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Удаляет все записи пользователя (ключи начинаются с его id)
+
+    public void evictUser(Long userId) {
+        String prefix = userId + "|";
+        lock.lock();
+        try {
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Entry> entry = iterator.next();
+                if (entry.getKey().startsWith(prefix)) {
+                    totalBytes -= entry.getValue().content().length;
+                    iterator.remove();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getTotalBytes() {
+        lock.lock();
+        try {
+            return totalBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private record Entry(String version, byte[] content) {
+    }
+}
@@ -0,0 +1,276 @@
+package ru.n1str.otp.service;
+
+import jakarta.annotation.PostConstruct;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.n1str.otp.models.ExportJob;
+import ru.n1str.otp.models.ExportJob.ExportJobStatus;
+import ru.n1str.otp.models.OtpExportFilter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+//Фоновые задачи экспорта истории OTP: запрос ставит задачу в очередь и сразу получает её id,
+//ограниченный пул рабочих потоков пишет файл на локальный диск, готовый файл хранится TTL.
+//Повторный запрос с тем же фильтром получает задачу, которая ещё выполняется или завершилась
+//не раньше reuse-minutes назад, вместо новой выгрузки.
+//Задачи и файлы локальны для экземпляра приложения: каждый экземпляр пишет в свой подкаталог
+//export.jobs.dir и держит на нём блокировку файла, поэтому общий каталог можно делить между экземплярами
+
+@Service
+@Slf4j
+public class ExportJobService {
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final String INSTANCE_PREFIX = "instance-";
+    private static final String LOCK_FILE = ".lock";
+    // Пауза после скачивания до удаления файла и минимальный возраст чужой блокировки
+    private static final Duration DOWNLOAD_GRACE = Duration.ofMinutes(1);
+
+    private final OtpDownloadService otpDownloadService;
+    private final Path baseDirectory;
+    private final long ttlMinutes;
+    private final long reuseMinutes;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, ExportJob> jobs = new ConcurrentHashMap<>();
+    private Path directory;
+    private FileChannel lockChannel;
+
+    public ExportJobService(OtpDownloadService otpDownloadService,
+                            @Value("${export.jobs.dir:${java.io.tmpdir}/otp-exports}") String directory,
+                            @Value("${export.jobs.workers:2}") int workers,
+                            @Value("${export.jobs.queue-capacity:10}") int queueCapacity,
+                            @Value("${export.jobs.ttl-minutes:60}") long ttlMinutes,
+                            @Value("${export.jobs.reuse-minutes:5}") long reuseMinutes,
+                            MeterRegistry meterRegistry) {
+        this.otpDownloadService = otpDownloadService;
+        this.baseDirectory = Paths.get(directory);
+        this.ttlMinutes = ttlMinutes;
+        this.reuseMinutes = reuseMinutes;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "export-job-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        Gauge.builder("otp.export.jobs.queued", executor, pool -> pool.getQueue().size())
+                .description("Задачи экспорта в очереди")
+                .register(meterRegistry);
+        Gauge.builder("otp.export.jobs.running", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Выполняющиеся задачи экспорта")
+                .register(meterRegistry);
+    }
+
+    //Создаёт подкаталог экземпляра и блокирует его. Подкаталоги, блокировку которых удалось взять,
+    //остались от остановленных экземпляров и удаляются вместе с файлами
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(baseDirectory);
+        removeAbandonedDirectories();
+        directory = Files.createTempDirectory(baseDirectory, INSTANCE_PREFIX);
+        lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        lockChannel.lock();
+        log.info("Export jobs directory: {}", directory.toAbsolutePath());
+    }
+
+    //Ставит в очередь экспорт всей истории OTP в CSV или возвращает задачу с тем же фильтром,
+    //которая ещё выполняется или недавно завершилась. Если очередь заполнена, выбрасывает RejectedExecutionException
+
+    public synchronized ExportJob submitAllOtpHistoryCsv(OtpExportFilter filter, String requestedBy) {
+        Optional<ExportJob> existing = findReusableJob(filter);
+        if (existing.isPresent()) {
+            log.info("Export job {} reused for {}", existing.get().getId(), requestedBy);
+            return existing.get();
+        }
+
+        ExportJob job = new ExportJob(UUID.randomUUID().toString(), requestedBy, filter);
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(() -> run(job));
+        } catch (RuntimeException e) {
+            jobs.remove(job.getId());
+            throw e;
+        }
+        log.info("Export job {} queued by {}", job.getId(), requestedBy);
+        return job;
+    }
+
+    public Optional<ExportJob> findJob(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+
+    //Находит завершённую задачу и удерживает её файл до releaseFile: очистка его не удалит
+
+    public Optional<ExportJob> retainCompletedJob(String jobId) {
+        ExportJob job = jobs.get(jobId);
+        if (job == null || job.getStatus() != ExportJobStatus.COMPLETED || !job.retainFile()) {
+            return Optional.empty();
+        }
+        return Optional.of(job);
+    }
+
+    public void releaseFile(ExportJob job) {
+        job.releaseFile(LocalDateTime.now());
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    private void run(ExportJob job) {
+        job.setStatus(ExportJobStatus.RUNNING);
+        job.setStartedAt(LocalDateTime.now());
+
+        Path partFile = directory.resolve(job.getId() + ".csv.part");
+        Path file = directory.resolve(job.getId() + ".csv");
+        try {
+            job.setTotalRows(otpDownloadService.countRows(job.getFilter()));
+
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    Files.newOutputStream(partFile), StandardCharsets.UTF_8), WRITE_BUFFER_SIZE)) {
+                otpDownloadService.writeAllOtpHistoryCsv(job.getFilter(), writer, job::setRowsWritten);
+            }
+            Files.move(partFile, file, StandardCopyOption.ATOMIC_MOVE);
+
+            job.setFile(file);
+            job.setSizeBytes(Files.size(file));
+            job.setFinishedAt(LocalDateTime.now());
+            job.setExpiresAt(job.getFinishedAt().plusMinutes(ttlMinutes));
+            job.setStatus(ExportJobStatus.COMPLETED);
+            log.info("Export job {} completed: {} rows, {} bytes", job.getId(), job.getRowsWritten(), job.getSizeBytes());
+        } catch (Exception e) {
+            log.error("Export job {} failed: {}", job.getId(), e.getMessage(), e);
+            deleteQuietly(partFile);
+            job.setError(e.getMessage());
+            job.setFinishedAt(LocalDateTime.now());
+            job.setExpiresAt(job.getFinishedAt().plusMinutes(ttlMinutes));
+            job.setStatus(ExportJobStatus.FAILED);
+        }
+    }
+
+    private Optional<ExportJob> findReusableJob(OtpExportFilter filter) {
+        LocalDateTime reuseFrom = LocalDateTime.now().minusMinutes(reuseMinutes);
+        return jobs.values().stream()
+                .filter(job -> job.getFilter().equals(filter))
+                .filter(job -> job.getStatus() == ExportJobStatus.QUEUED
+                        || job.getStatus() == ExportJobStatus.RUNNING
+                        || job.getStatus() == ExportJobStatus.COMPLETED && job.getFinishedAt().isAfter(reuseFrom))
+                .findFirst();
+    }
+
+    //Удаляет задачи и файлы, срок хранения которых истёк. Файл, который сейчас скачивают,
+    //удаляется при следующей очистке после окончания скачивания
+
+    @Scheduled(fixedRateString = "${export.jobs.cleanup-ms:60000}")
+    public void removeExpiredJobs() {
+        LocalDateTime now = LocalDateTime.now();
+        for (ExportJob job : jobs.values()) {
+            if (job.tryRemove(now, DOWNLOAD_GRACE)) {
+                jobs.remove(job.getId());
+                if (job.getFile() != null) {
+                    deleteQuietly(job.getFile());
+                }
+                log.info("Export job {} expired and was removed", job.getId());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        if (directory == null) {
+            return;
+        }
+        try {
+            deleteDirectory(directory);
+        } catch (IOException e) {
+            log.warn("Failed to delete export jobs directory {}: {}", directory, e.getMessage());
+        } finally {
+            closeQuietly(lockChannel);
+        }
+    }
+
+    // Свежий файл блокировки пропускается: экземпляр мог создать его и ещё не успеть заблокировать
+    private void removeAbandonedDirectories() throws IOException {
+        FileTime startingBefore = FileTime.from(Instant.now().minus(DOWNLOAD_GRACE));
+        try (DirectoryStream<Path> instances = Files.newDirectoryStream(baseDirectory, INSTANCE_PREFIX + "*")) {
+            for (Path instance : instances) {
+                Path lockFile = instance.resolve(LOCK_FILE);
+                if (!Files.isRegularFile(lockFile)
+                        || Files.getLastModifiedTime(lockFile).compareTo(startingBefore) > 0) {
+                    continue;
+                }
+                try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE)) {
+                    FileLock lock = channel.tryLock();
+                    if (lock == null) {
+                        continue;
+                    }
+                    deleteDirectory(instance);
+                    log.info("Removed export files of a stopped instance: {}", instance);
+                } catch (OverlappingFileLockException e) {
+                    // Каталог другого контекста в этой же JVM
+                }
+            }
+        }
+    }
+
+    private static void deleteDirectory(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Failed to release export jobs directory lock: {}", e.getMessage());
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete export file {}: {}", file, e.getMessage());
+        }
+    }
+}
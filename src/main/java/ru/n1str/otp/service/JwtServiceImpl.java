@@ -3,12 +3,15 @@ package ru.n1str.otp.service;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
+import ru.n1str.otp.metrics.OtpMetrics;
+import ru.n1str.otp.security.AuthUserDetails;
 
 import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
@@ -22,8 +25,12 @@ import java.util.stream.Collectors;
 //Реализация сервиса для работы с JWT токенами.
 
 @Service
+@RequiredArgsConstructor
 @Slf4j
 public class JwtServiceImpl implements JwtService {
+    private static final String USER_ID_CLAIM = "uid";
+
+    private final OtpMetrics otpMetrics;
 
     @Value("${jwt.expiration:86400000}")
     private long jwtExpiration;
@@ -114,7 +121,10 @@ public class JwtServiceImpl implements JwtService {
                 .collect(Collectors.toList());
         
         claims.put("roles", roles);
-        
+        if (userDetails instanceof AuthUserDetails authUser && authUser.getId() != null) {
+            claims.put(USER_ID_CLAIM, authUser.getId());
+        }
+
         log.info("Генерация токена из Authentication для пользователя: {} с ролями: {}", 
                 userDetails.getUsername(), roles);
                 
@@ -144,19 +154,34 @@ public class JwtServiceImpl implements JwtService {
 
     @Override
     public boolean isTokenValid(String token, UserDetails userDetails) {
+        long start = System.nanoTime();
         try {
             final String username = extractUsername(token);
             boolean isUsernameValid = username.equals(userDetails.getUsername());
+            boolean isUserIdValid = isUserIdValid(token, userDetails);
             boolean isNotExpired = !isTokenExpired(token);
-            boolean isValid = isUsernameValid && isNotExpired;
-            
-            log.debug("Валидация токена для пользователя {}. Имя пользователя валидно: {}, Не истек: {}, Итог: {}", 
-                    username, isUsernameValid, isNotExpired, isValid);
+            boolean isValid = isUsernameValid && isUserIdValid && isNotExpired;
+
+            log.debug("Валидация токена для пользователя {}. Имя пользователя валидно: {}, ID совпадает: {}, Не истек: {}, Итог: {}",
+                    username, isUsernameValid, isUserIdValid, isNotExpired, isValid);
                     
+            otpMetrics.recordJwtValidation(isValid, start);
             return isValid;
         } catch (Exception e) {
+            otpMetrics.recordJwtValidation(false, start);
             log.error("Валидация токена не удалась: {}", e.getMessage());
             return false;
         }
     }
-} 
\ No newline at end of file
+
+    //Токен выдан этой учётной записи, а не удалённой с тем же именем. Токен без ID
+    //(выданный до появления проверки) не принимается: нужен повторный вход
+
+    private boolean isUserIdValid(String token, UserDetails userDetails) {
+        if (!(userDetails instanceof AuthUserDetails authUser)) {
+            return true;
+        }
+        Number tokenUserId = extractClaim(token, claims -> claims.get(USER_ID_CLAIM, Number.class));
+        return tokenUserId != null && authUser.getId() != null && tokenUserId.longValue() == authUser.getId();
+    }
+}
@@ -0,0 +1,128 @@
+package ru.n1str.otp.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+import ru.n1str.otp.dao.SchedulerLockDao;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+//Выбор лидера для фоновых задач при запуске нескольких экземпляров приложения.
+//Лидер держит аренду в таблице scheduler_lock и продлевает её heartbeat'ом;
+//если он перестаёт продлевать аренду, её забирает первый экземпляр, заметивший истечение.
+//Срок аренды в таблице считается по часам БД; локально экземпляр помнит только монотонный срок
+//(System.nanoTime от начала запроса), который заканчивается не позже срока в БД.
+//Аренда пишется в отдельной транзакции: вызов из транзакционного кода не должен держать блокировку
+//строки scheduler_lock до конца чужой транзакции или откатывать продление вместе с ней.
+
+@Service
+@Slf4j
+public class LeaderElectionService {
+    private final SchedulerLockDao lockDao;
+    private final TransactionTemplate leaseTransaction;
+    private final String instanceId;
+    private final Duration leaseDuration;
+
+    // Аренды, которыми владеет этот экземпляр: имя блокировки -> окончание аренды по System.nanoTime
+    private final Map<String, Long> heldLeases = new ConcurrentHashMap<>();
+
+    public LeaderElectionService(SchedulerLockDao lockDao,
+                                 PlatformTransactionManager transactionManager,
+                                 @Value("${scheduler.lock.instance-id:}") String instanceId,
+                                 @Value("${scheduler.lock.lease-seconds:30}") long leaseSeconds) {
+        this.lockDao = lockDao;
+        this.leaseTransaction = new TransactionTemplate(transactionManager);
+        this.leaseTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.instanceId = StringUtils.hasText(instanceId) ? instanceId : defaultInstanceId();
+        this.leaseDuration = Duration.ofSeconds(leaseSeconds);
+        log.info("Scheduler lock instance id: {}, lease: {}s", this.instanceId, leaseSeconds);
+    }
+
+    //Проверяет, является ли этот экземпляр лидером для задачи, при необходимости захватывая аренду
+
+    public boolean isLeader(String lockName) {
+        Long until = heldLeases.get(lockName);
+        if (until != null && System.nanoTime() - until < 0) {
+            return true;
+        }
+        return acquire(lockName);
+    }
+
+    //Выполняет задачу, только если этот экземпляр является лидером
+
+    public void runIfLeader(String lockName, Runnable task) {
+        if (isLeader(lockName)) {
+            task.run();
+        } else {
+            log.debug("Skipping {}: lock is held by another instance", lockName);
+        }
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    //Периодически продлевает все удерживаемые аренды
+
+    @Scheduled(fixedRateString = "${scheduler.lock.heartbeat-ms:10000}")
+    public void heartbeat() {
+        for (String lockName : heldLeases.keySet()) {
+            try {
+                acquire(lockName);
+            } catch (Exception e) {
+                log.error("Failed to renew scheduler lock {}: {}", lockName, e.getMessage());
+            }
+        }
+    }
+
+    //Отпускает аренды при остановке, чтобы другой экземпляр не ждал их истечения
+
+    @PreDestroy
+    public void releaseAll() {
+        for (String lockName : heldLeases.keySet()) {
+            try {
+                leaseTransaction.executeWithoutResult(status -> lockDao.release(lockName, instanceId));
+            } catch (Exception e) {
+                log.warn("Failed to release scheduler lock {}: {}", lockName, e.getMessage());
+            }
+        }
+        heldLeases.clear();
+    }
+
+    private boolean acquire(String lockName) {
+        // Отсчёт от момента до запроса: локальный срок не переживёт срок, записанный БД
+        long until = System.nanoTime() + leaseDuration.toNanos();
+        Boolean acquired = leaseTransaction.execute(status ->
+                lockDao.tryAcquire(lockName, instanceId, leaseDuration.toSeconds()));
+        if (Boolean.TRUE.equals(acquired)) {
+            if (heldLeases.put(lockName, until) == null) {
+                log.info("Instance {} became leader for {}", instanceId, lockName);
+            }
+            return true;
+        }
+        if (heldLeases.remove(lockName) != null) {
+            log.warn("Instance {} lost leadership for {}", instanceId, lockName);
+        }
+        return false;
+    }
+
+    private static String defaultInstanceId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "unknown";
+        }
+        return host + "-" + ProcessHandle.current().pid() + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
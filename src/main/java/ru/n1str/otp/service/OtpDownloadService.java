@@ -2,105 +2,231 @@ package ru.n1str.otp.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.ByteArrayResource;
-import org.springframework.core.io.Resource;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import ru.n1str.otp.models.OtpCode;
+import ru.n1str.otp.dao.OtpCodeJdbcDao;
+import ru.n1str.otp.metrics.OtpMetrics;
+import ru.n1str.otp.metrics.OtpMetrics.ExportFormat;
+import ru.n1str.otp.models.ExportCursor;
+import ru.n1str.otp.models.OtpExportFilter;
+import ru.n1str.otp.models.OtpExportRow;
 import ru.n1str.otp.models.User;
-import ru.n1str.otp.repository.OtpCodeRepository;
 import ru.n1str.otp.repository.UserRepository;
+import ru.n1str.otp.utils.OtpColumnarWriter;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.time.format.DateTimeFormatter;
-import java.util.List;
+import java.util.function.LongConsumer;
 
 
-//Сервис для экспорта истории OTP в формате CSV
+//Сервис для экспорта истории OTP в формате CSV.
+//Строки читаются курсором и сразу пишутся в Writer, поэтому память не зависит от объёма истории
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class OtpDownloadService {
-    private final OtpCodeRepository otpCodeRepository;
+    private static final String USER_CSV_HEADER = "ID,Код,Статус,Канал,Создан,Действителен до,ID операции\n";
+    private static final String ALL_CSV_HEADER = "ID,Пользователь,Код,Статус,Канал,Создан,Действителен до,ID операции\n";
+    private static final int PROGRESS_STEP = 1000;
+
+    private final OtpCodeJdbcDao otpCodeDao;
     private final UserRepository userRepository;
+    private final ParallelExportService parallelExportService;
+    private final OtpMetrics otpMetrics;
     private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-    
 
-    //Экспорт истории OTP в CSV для пользователя
+    @Value("${export.delta.safety-lag-seconds:5}")
+    private long deltaSafetyLagSeconds;
+
 
-    public Resource exportOtpHistoryToCsv(String username) {
-        log.info("Экспорт истории OTP в CSV для пользователя: {}", username);
-        
-        User user = userRepository.findByUsername(username)
+    //Находит пользователя для экспорта
+
+    public User findUser(String username) {
+        return userRepository.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
-        
-        return new ByteArrayResource(generateOtpHistoryCsv(user).getBytes());
+    }
+
+    //Версия экспорта пользователя: позиция последнего изменения в его истории.
+    //Меняется при создании кода и при любой смене статуса; стоит одного индексного поиска
+
+    public String exportVersion(User user) {
+        return otpCodeDao.findLastChange(user.getId())
+                .map(ExportCursor::encode)
+                .orElse("empty");
+    }
+
+    //Экспорт истории OTP в CSV для пользователя
+
+    public long writeOtpHistoryCsv(User user, OtpExportFilter filter, Writer writer) throws IOException {
+        log.info("Экспорт истории OTP в CSV для пользователя: {}", user.getUsername());
+        long start = System.nanoTime();
+
+        writer.write(USER_CSV_HEADER);
+        long count = writeRows(filter.forUser(user.getId()), writer, false, rows -> { });
+        otpMetrics.recordExport(ExportFormat.CSV, count, start);
+
+        log.info("Сгенерирована CSV история OTP для пользователя {}, найдено {} записей",
+                user.getUsername(), count);
+        return count;
     }
 
     //Экспорт всей истории OTP в CSV (для администраторов)
 
-    public Resource exportAllOtpHistoryToCsv() {
+    public long writeAllOtpHistoryCsv(OtpExportFilter filter, Writer writer) throws IOException {
+        return writeAllOtpHistoryCsv(filter, writer, rows -> { });
+    }
+
+    //Экспорт всей истории OTP в CSV с уведомлением о прогрессе каждые PROGRESS_STEP строк
+
+    public long writeAllOtpHistoryCsv(OtpExportFilter filter, Writer writer, LongConsumer progress) throws IOException {
         log.info("Экспорт всей истории OTP в CSV");
-        
-        StringBuilder csv = new StringBuilder();
-        csv.append("ID,Пользователь,Код,Статус,Канал,Создан,Действителен до,ID операции\n");
-        
-        List<User> allUsers = userRepository.findAll();
-        for (User user : allUsers) {
-            List<OtpCode> codes = otpCodeRepository.findByUser(user);
-            for (OtpCode code : codes) {
-                csv.append(code.getId())
-                   .append(",")
-                   .append(user.getUsername())
-                   .append(",")
-                   .append(code.getCode())
-                   .append(",")
-                   .append(code.getStatus())
-                   .append(",")
-                   .append(code.getChannel())
-                   .append(",")
-                   .append(code.getCreatedAt().format(formatter))
-                   .append(",")
-                   .append(code.getExpiresAt().format(formatter))
-                   .append(",")
-                   .append(code.getOperationId())
-                   .append("\n");
-            }
+        long start = System.nanoTime();
+
+        writer.write(ALL_CSV_HEADER);
+        long count = parallelExportService.supports(filter)
+                ? parallelExportService.export(filter, writer, (out, row) -> appendCsvRow(out, row, true), progress)
+                : writeRows(filter, writer, true, progress);
+        progress.accept(count);
+        otpMetrics.recordExport(ExportFormat.CSV, count, start);
+
+        log.info("Сгенерирована CSV история OTP всех пользователей, {} записей", count);
+        return count;
+    }
+
+    //Конец очередной дельта-выгрузки после курсора. Строки, изменённые за последние safety-lag секунд,
+    //откладываются до следующей выгрузки: их транзакции могли ещё не зафиксироваться, и курсор
+    //не должен их перескочить. Если новых строк нет, курсор остаётся прежним
+
+    public ExportCursor findDeltaEnd(OtpExportFilter filter, ExportCursor after) {
+        return otpCodeDao.findDeltaEnd(filter, after, deltaSafetyLagSeconds).orElse(after);
+    }
+
+    //Дельта-выгрузка в CSV: строки, созданные или изменённые в интервале (after, upTo].
+    //Для фильтра с userId формат совпадает с экспортом пользователя, иначе — с экспортом всех пользователей
+
+    public long writeOtpDeltaCsv(OtpExportFilter filter, ExportCursor after, ExportCursor upTo, Writer writer) throws IOException {
+        long start = System.nanoTime();
+        boolean withUsername = filter.userId() == null;
+        writer.write(withUsername ? ALL_CSV_HEADER : USER_CSV_HEADER);
+        if (upTo.equals(after)) {
+            otpMetrics.recordExport(ExportFormat.CSV_DELTA, 0, start);
+            return 0;
+        }
+
+        long[] count = {0};
+        try {
+            otpCodeDao.forEachDeltaRow(filter, after, upTo, row -> {
+                try {
+                    appendCsvRow(writer, row, withUsername);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                count[0]++;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        otpMetrics.recordExport(ExportFormat.CSV_DELTA, count[0], start);
+        log.info("Сгенерирована дельта истории OTP, {} записей", count[0]);
+        return count[0];
+    }
+
+    //Экспорт истории OTP пользователя в бинарном колоночном формате (OtpColumnarFormat)
+
+    public long writeOtpHistoryColumnar(User user, OtpExportFilter filter, OutputStream out) throws IOException {
+        long count = writeColumnar(filter.forUser(user.getId()), out);
+        log.info("Сгенерирована колоночная история OTP для пользователя {}, {} записей", user.getUsername(), count);
+        return count;
+    }
+
+    //Экспорт всей истории OTP в бинарном колоночном формате (для администраторов)
+
+    public long writeAllOtpHistoryColumnar(OtpExportFilter filter, OutputStream out) throws IOException {
+        long count = writeColumnar(filter, out);
+        log.info("Сгенерирована колоночная история OTP всех пользователей, {} записей", count);
+        return count;
+    }
+
+    private long writeColumnar(OtpExportFilter filter, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        OtpColumnarWriter writer = new OtpColumnarWriter(out);
+        try {
+            otpCodeDao.forEachExportRow(filter, row -> {
+                try {
+                    writer.write(row);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.finish();
+        otpMetrics.recordExport(ExportFormat.COLUMNAR, writer.getRowCount(), start);
+        return writer.getRowCount();
+    }
+
+    //Количество строк в экспорте (для прогресса фоновых задач)
+
+    public long countRows(OtpExportFilter filter) {
+        return otpCodeDao.countExportRows(filter);
+    }
+
+    private long writeRows(OtpExportFilter filter, Writer writer, boolean withUsername,
+                           LongConsumer progress) throws IOException {
+        long[] count = {0};
+        try {
+            otpCodeDao.forEachExportRow(filter, row -> {
+                try {
+                    appendCsvRow(writer, row, withUsername);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (++count[0] % PROGRESS_STEP == 0) {
+                    progress.accept(count[0]);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return count[0];
+    }
+
+    void appendCsvRow(Writer writer, OtpExportRow row, boolean withUsername) throws IOException {
+        writer.write(Long.toString(row.id()));
+        writer.write(',');
+        if (withUsername) {
+            writer.write(csvField(row.username()));
+            writer.write(',');
         }
-        
-        return new ByteArrayResource(csv.toString().getBytes());
+        writer.write(String.valueOf(row.code()));
+        writer.write(',');
+        writer.write(String.valueOf(row.status()));
+        writer.write(',');
+        writer.write(String.valueOf(row.channel()));
+        writer.write(',');
+        writer.write(row.createdAt().format(formatter));
+        writer.write(',');
+        writer.write(row.expiresAt().format(formatter));
+        writer.write(',');
+        writer.write(String.valueOf(row.operationId()));
+        writer.write('\n');
     }
 
-    //Генерирует CSV с историей OTP кодов для пользователя
+    //Экранирует значение, введённое пользователем, по правилам CSV
 
-    private String generateOtpHistoryCsv(User user) {
-        List<OtpCode> codes = otpCodeRepository.findByUser(user);
-        
-        StringBuilder csv = new StringBuilder();
-        csv.append("ID,Код,Статус,Канал,Создан,Действителен до,ID операции\n");
-        
-        if (codes.isEmpty()) {
-            return csv.toString();
+    private static String csvField(String value) {
+        if (value == null) {
+            return "null";
         }
-        
-        for (OtpCode code : codes) {
-            csv.append(code.getId())
-               .append(",")
-               .append(code.getCode())
-               .append(",")
-               .append(code.getStatus())
-               .append(",")
-               .append(code.getChannel())
-               .append(",")
-               .append(code.getCreatedAt().format(formatter))
-               .append(",")
-               .append(code.getExpiresAt().format(formatter))
-               .append(",")
-               .append(code.getOperationId())
-               .append("\n");
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
         }
-        
-        log.info("Сгенерирована CSV история OTP для пользователя {}, найдено {} записей", 
-                user.getUsername(), codes.size());
-        return csv.toString();
+        return '"' + value.replace("\"", "\"\"") + '"';
     }
-}
\ No newline at end of file
+}
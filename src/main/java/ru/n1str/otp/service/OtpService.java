@@ -5,6 +5,10 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import ru.n1str.otp.dao.OtpCodeJdbcDao;
+import ru.n1str.otp.metrics.OtpMetrics;
+import ru.n1str.otp.metrics.jfr.OtpIssueEvent;
+import ru.n1str.otp.metrics.jfr.OtpVerifyEvent;
 import ru.n1str.otp.models.OtpCode;
 import ru.n1str.otp.models.OtpConfiguration;
 import ru.n1str.otp.models.OtpStatus;
@@ -22,12 +26,16 @@ import java.util.UUID;
 @RequiredArgsConstructor
 @Slf4j
 public class OtpService {
+    static final String EXPIRE_SWEEP_LOCK = "otp-expire-sweep";
+    private static final int EXPIRE_BATCH_SIZE = 1000;
+
     private final OtpCodeRepository otpCodeRepository;
+    private final OtpCodeJdbcDao otpCodeJdbcDao;
     private final OtpConfigurationRepository configRepository;
     private final OTPGenerator otpGenerator;
-    private final SmsService smsService;
-    private final EmailService emailService;
-    private final TelegramBotService telegramService;
+    private final ChannelDispatcher channelDispatcher;
+    private final LeaderElectionService leaderElectionService;
+    private final OtpMetrics otpMetrics;
 
 
     //Получает или создает конфигурацию по умолчанию
@@ -71,22 +79,40 @@ public class OtpService {
         return generateAndSendOtp(user, OtpCode.OtpChannel.FILE, filename);
     }
 
-    //Генерирует OTP и отправляет через выбранный канал
+    //Генерирует OTP и отправляет через выбранный канал. Каналы без зарегистрированного
+    //OtpNotificationService (FILE) только сохраняют код
 
     @Transactional
     public OtpCode generateAndSendOtp(User user, OtpCode.OtpChannel channel, String destination) {
+        long start = System.nanoTime();
+        OtpIssueEvent issueEvent = new OtpIssueEvent();
+        issueEvent.begin();
+        OtpCode otpCode = createCode(user, channel);
+        String code = otpCode.getCode();
+        otpMetrics.recordIssue(channel, start);
+        issueEvent.complete(otpCode);
+
+        if (channelDispatcher.supports(channel)) {
+            channelDispatcher.send(channel, user.getId(), destination, code);
+            log.info("Generated and sent OTP {} via {} to {}", code, channel, destination);
+        }
+
+        return otpCode;
+    }
+
+    //Помечает прежние активные коды пользователя истёкшими и сохраняет новый код.
+    //Изменения сбрасываются в БД здесь, чтобы время записи попадало в метрику otp.persist
+
+    private OtpCode createCode(User user, OtpCode.OtpChannel channel) {
         List<OtpCode> activeCodes = otpCodeRepository.findByUserAndStatus(user, OtpStatus.ACTIVE);
-        for (OtpCode old : activeCodes) {
-            old.setStatus(OtpStatus.EXPIRED);
-            otpCodeRepository.save(old);
+        if (!activeCodes.isEmpty()) {
+            otpCodeRepository.updateStatus(activeCodes.stream().map(OtpCode::getId).toList(), OtpStatus.EXPIRED);
         }
 
         OtpConfiguration config = getOrCreateDefaultConfig();
 
-        String code = otpGenerator.generateOTP(config.getCodeLength());
-
         OtpCode otpCode = new OtpCode();
-        otpCode.setCode(code);
+        otpCode.setCode(otpGenerator.generateOTP(config.getCodeLength()));
         otpCode.setStatus(OtpStatus.ACTIVE);
         otpCode.setCreatedAt(LocalDateTime.now());
         otpCode.setExpiresAt(LocalDateTime.now().plusMinutes(config.getLifetimeMinutes()));
@@ -94,23 +120,9 @@ public class OtpService {
         otpCode.setOperationId(UUID.randomUUID().toString());
         otpCode.setChannel(channel);
 
-        otpCode = otpCodeRepository.save(otpCode);
-
-        switch (channel) {
-            case SMS:
-                smsService.sendOtpCode(destination, code);
-                log.info("Generated and sent OTP {} via SMS to {}", code, destination);
-                break;
-            case EMAIL:
-                emailService.sendOtpEmail(destination, code);
-                log.info("Generated and sent OTP {} via Email to {}", code, destination);
-                break;
-            case TELEGRAM:
-                telegramService.sendOtpCode(destination, code);
-                log.info("Generated and sent OTP {} via Telegram to chat {}", code, destination);
-                break;
-        }
-
+        long persistStart = System.nanoTime();
+        otpCode = otpCodeRepository.saveAndFlush(otpCode);
+        otpMetrics.recordPersist(channel, persistStart);
         return otpCode;
     }
 
@@ -118,6 +130,9 @@ public class OtpService {
 
     @Transactional
     public boolean verify(User user, String code) {
+        long start = System.nanoTime();
+        OtpVerifyEvent verifyEvent = new OtpVerifyEvent();
+        verifyEvent.begin();
         log.info("Попытка верификации кода для пользователя {}: код={}", user.getUsername(), code);
 
         List<OtpCode> activeCodes = otpCodeRepository.findByUserAndStatus(user, OtpStatus.ACTIVE);
@@ -132,6 +147,8 @@ public class OtpService {
 
         if (otpOpt.isEmpty()) {
             log.warn("No active OTP found for user {} with code {}", user.getUsername(), code);
+            otpMetrics.recordVerify(OtpMetrics.VerifyOutcome.NOT_FOUND, null, start);
+            verifyEvent.complete(user.getId(), null, "not_found");
             return false;
         }
 
@@ -140,34 +157,60 @@ public class OtpService {
                 otp.getCode(), otp.getCreatedAt(), otp.getExpiresAt());
 
         if (LocalDateTime.now().isAfter(otp.getExpiresAt())) {
-            otp.setStatus(OtpStatus.EXPIRED);
-            otpCodeRepository.save(otp);
+            otpCodeRepository.updateStatus(List.of(otp.getId()), OtpStatus.EXPIRED);
             log.warn("OTP expired for user {}. Expiry time: {}, Current time: {}", 
                     user.getUsername(), otp.getExpiresAt(), LocalDateTime.now());
+            otpMetrics.recordVerify(OtpMetrics.VerifyOutcome.EXPIRED, otp.getChannel(), start);
+            verifyEvent.complete(user.getId(), otp.getChannel(), "expired");
             return false;
         }
 
-        otp.setStatus(OtpStatus.USED);
-        otpCodeRepository.save(otp);
+        otpCodeRepository.updateStatus(List.of(otp.getId()), OtpStatus.USED);
         log.info("OTP verified successfully for user {}", user.getUsername());
+        otpMetrics.recordVerify(OtpMetrics.VerifyOutcome.SUCCESS, otp.getChannel(), start);
+        verifyEvent.complete(user.getId(), otp.getChannel(), "success");
 
         return true;
     }
 
-    //Периодически помечает просроченные коды как EXPIRED
+    //Аннулирует активные коды пользователя (после серии неудачных проверок, см. AttemptLimiter)
+
+    @Transactional
+    public int invalidateActiveCodes(User user) {
+        List<OtpCode> activeCodes = otpCodeRepository.findByUserAndStatus(user, OtpStatus.ACTIVE);
+        for (OtpCode code : activeCodes) {
+            otpMetrics.codeEvent(OtpMetrics.CodeEvent.EXPIRED, code.getChannel());
+        }
+        if (!activeCodes.isEmpty()) {
+            otpCodeRepository.updateStatus(activeCodes.stream().map(OtpCode::getId).toList(), OtpStatus.EXPIRED);
+        }
+        log.warn("Invalidated {} active OTP codes of user {}", activeCodes.size(), user.getUsername());
+        return activeCodes.size();
+    }
+
+    //Периодически помечает просроченные коды как EXPIRED.
+    //При нескольких экземплярах приложения задачу выполняет только лидер.
+    //Коды обновляются порциями по EXPIRE_BATCH_SIZE, каждая порция — своя транзакция в OtpCodeJdbcDao
 
     @Scheduled(fixedRate = 60_000) // Каждую минуту
     public void expireOldCodes() {
-        List<OtpCode> expired = otpCodeRepository.findByStatusAndExpiresAtBefore(
-                OtpStatus.ACTIVE, LocalDateTime.now());
-
-        for (OtpCode code : expired) {
-            code.setStatus(OtpStatus.EXPIRED);
-            otpCodeRepository.save(code);
+        if (!leaderElectionService.isLeader(EXPIRE_SWEEP_LOCK)) {
+            return;
         }
 
-        if (!expired.isEmpty()) {
-            log.info("Marked {} expired OTP codes", expired.size());
+        LocalDateTime now = LocalDateTime.now();
+        int total = 0;
+        List<OtpCode> expired;
+        do {
+            expired = otpCodeJdbcDao.expireActiveBatch(now, EXPIRE_BATCH_SIZE);
+            for (OtpCode code : expired) {
+                otpMetrics.codeEvent(OtpMetrics.CodeEvent.EXPIRED, code.getChannel());
+            }
+            total += expired.size();
+        } while (expired.size() == EXPIRE_BATCH_SIZE);
+
+        if (total > 0) {
+            log.info("Marked {} expired OTP codes", total);
         }
     }
 
@@ -175,26 +218,13 @@ public class OtpService {
 
     @Transactional
     public OtpCode generateTelegramOtpWithoutSending(User user, String chatId) {
-        List<OtpCode> activeCodes = otpCodeRepository.findByUserAndStatus(user, OtpStatus.ACTIVE);
-        for (OtpCode old : activeCodes) {
-            old.setStatus(OtpStatus.EXPIRED);
-            otpCodeRepository.save(old);
-        }
-
-        OtpConfiguration config = getOrCreateDefaultConfig();
-
-        String code = otpGenerator.generateOTP(config.getCodeLength());
-
-        OtpCode otpCode = new OtpCode();
-        otpCode.setCode(code);
-        otpCode.setStatus(OtpStatus.ACTIVE);
-        otpCode.setCreatedAt(LocalDateTime.now());
-        otpCode.setExpiresAt(LocalDateTime.now().plusMinutes(config.getLifetimeMinutes()));
-        otpCode.setUser(user);
-        otpCode.setOperationId(UUID.randomUUID().toString());
-        otpCode.setChannel(OtpCode.OtpChannel.TELEGRAM);
-
-        otpCode = otpCodeRepository.save(otpCode);
+        long start = System.nanoTime();
+        OtpIssueEvent issueEvent = new OtpIssueEvent();
+        issueEvent.begin();
+        OtpCode otpCode = createCode(user, OtpCode.OtpChannel.TELEGRAM);
+        String code = otpCode.getCode();
+        otpMetrics.recordIssue(OtpCode.OtpChannel.TELEGRAM, start);
+        issueEvent.complete(otpCode);
         log.info("Generated OTP {} for Telegram chat {}", code, chatId);
 
         return otpCode;
@@ -204,26 +234,13 @@ public class OtpService {
 
     @Transactional
     public OtpCode generateSmsOtpWithoutSending(User user, String phoneNumber) {
-        List<OtpCode> activeCodes = otpCodeRepository.findByUserAndStatus(user, OtpStatus.ACTIVE);
-        for (OtpCode old : activeCodes) {
-            old.setStatus(OtpStatus.EXPIRED);
-            otpCodeRepository.save(old);
-        }
-
-        OtpConfiguration config = getOrCreateDefaultConfig();
-
-        String code = otpGenerator.generateOTP(config.getCodeLength());
-
-        OtpCode otpCode = new OtpCode();
-        otpCode.setCode(code);
-        otpCode.setStatus(OtpStatus.ACTIVE);
-        otpCode.setCreatedAt(LocalDateTime.now());
-        otpCode.setExpiresAt(LocalDateTime.now().plusMinutes(config.getLifetimeMinutes()));
-        otpCode.setUser(user);
-        otpCode.setOperationId(UUID.randomUUID().toString());
-        otpCode.setChannel(OtpCode.OtpChannel.SMS);
-
-        otpCode = otpCodeRepository.save(otpCode);
+        long start = System.nanoTime();
+        OtpIssueEvent issueEvent = new OtpIssueEvent();
+        issueEvent.begin();
+        OtpCode otpCode = createCode(user, OtpCode.OtpChannel.SMS);
+        String code = otpCode.getCode();
+        otpMetrics.recordIssue(OtpCode.OtpChannel.SMS, start);
+        issueEvent.complete(otpCode);
         log.info("Generated OTP {} for SMS to phone number {}", code, phoneNumber);
 
         return otpCode;
@@ -233,27 +250,13 @@ public class OtpService {
 
     @Transactional
     public OtpCode generateEmailOtpWithoutSending(User user, String email) {
-        List<OtpCode> activeCodes = otpCodeRepository.findByUserAndStatus(user, OtpStatus.ACTIVE);
-        for (OtpCode old : activeCodes) {
-            old.setStatus(OtpStatus.EXPIRED);
-            otpCodeRepository.save(old);
-        }
-
-        OtpConfiguration config = getOrCreateDefaultConfig();
-
-        String code = otpGenerator.generateOTP(config.getCodeLength());
-
-        OtpCode otpCode = new OtpCode();
-        otpCode.setCode(code);
-        otpCode.setStatus(OtpStatus.ACTIVE);
-        otpCode.setCreatedAt(LocalDateTime.now());
-        otpCode.setExpiresAt(LocalDateTime.now().plusMinutes(config.getLifetimeMinutes()));
-        otpCode.setUser(user);
-        otpCode.setOperationId(UUID.randomUUID().toString());
-        otpCode.setChannel(OtpCode.OtpChannel.EMAIL);
-
-
-        otpCode = otpCodeRepository.save(otpCode);
+        long start = System.nanoTime();
+        OtpIssueEvent issueEvent = new OtpIssueEvent();
+        issueEvent.begin();
+        OtpCode otpCode = createCode(user, OtpCode.OtpChannel.EMAIL);
+        String code = otpCode.getCode();
+        otpMetrics.recordIssue(OtpCode.OtpChannel.EMAIL, start);
+        issueEvent.complete(otpCode);
         log.info("Generated OTP {} for EMAIL to {}", code, email);
 
         return otpCode;
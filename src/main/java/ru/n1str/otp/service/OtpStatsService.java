@@ -0,0 +1,241 @@
+package ru.n1str.otp.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.n1str.otp.dao.OtpStatsDao;
+import ru.n1str.otp.dao.OtpStatsDao.StatsDelta;
+import ru.n1str.otp.metrics.OtpMetrics;
+import ru.n1str.otp.metrics.OtpMetrics.CodeEvent;
+import ru.n1str.otp.models.OtpCode.OtpChannel;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+//Статистика событий OTP (выдача, проверка, истечение, неудачная проверка) по каналам в корзинах по минутам и часам.
+//События считаются в памяти (LongAdder на ячейку корзины, без запросов к БД на горячем пути) и раз в
+//otp.stats.flush-ms прибавляются к таблице otp_stats_rollup — каждый экземпляр сбрасывает свои приращения.
+//Чтение складывает сохранённые корзины и ещё не сброшенные счётчики этого экземпляра: O(корзин), а не O(строк otp_code)
+
+@Service
+@Slf4j
+public class OtpStatsService {
+    static final String RETENTION_LOCK = "otp-stats-retention";
+
+    private static final CodeEvent[] EVENTS = CodeEvent.values();
+    private static final OtpChannel[] CHANNELS = OtpChannel.values();
+    // Последний столбец — события без канала (проверка несуществующего кода)
+    private static final int COLUMNS = CHANNELS.length + 1;
+
+    public enum Granularity {
+        MINUTE(ChronoUnit.MINUTES), HOUR(ChronoUnit.HOURS);
+
+        private final ChronoUnit unit;
+
+        Granularity(ChronoUnit unit) {
+            this.unit = unit;
+        }
+
+        public ChronoUnit getUnit() {
+            return unit;
+        }
+    }
+
+    private final OtpStatsDao otpStatsDao;
+    private final LeaderElectionService leaderElectionService;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final BucketSeries minutes = new BucketSeries(Granularity.MINUTE);
+    private final BucketSeries hours = new BucketSeries(Granularity.HOUR);
+    private final long minuteRetentionHours;
+    private final long hourRetentionDays;
+
+    public OtpStatsService(OtpStatsDao otpStatsDao,
+                           LeaderElectionService leaderElectionService,
+                           @Value("${otp.stats.minute-retention-hours:48}") long minuteRetentionHours,
+                           @Value("${otp.stats.hour-retention-days:90}") long hourRetentionDays) {
+        this.otpStatsDao = otpStatsDao;
+        this.leaderElectionService = leaderElectionService;
+        this.minuteRetentionHours = minuteRetentionHours;
+        this.hourRetentionDays = hourRetentionDays;
+    }
+
+    //Учитывает событие в текущих корзинах; channel == null — событие без канала
+
+    public void record(CodeEvent event, OtpChannel channel) {
+        long now = System.currentTimeMillis();
+        int cell = event.ordinal() * COLUMNS + (channel != null ? channel.ordinal() : CHANNELS.length);
+        minutes.bucketAt(now).counts[cell].increment();
+        hours.bucketAt(now).counts[cell].increment();
+    }
+
+    //Корзины в [from, to): для каждой начала корзины — счётчики событий по каналам.
+    //Пустые корзины не возвращаются
+
+    public Map<LocalDateTime, Map<String, Map<String, Long>>> getStats(Granularity granularity,
+                                                                        LocalDateTime from, LocalDateTime to) {
+        Map<LocalDateTime, Map<String, Map<String, Long>>> result = new TreeMap<>();
+        for (StatsDelta row : otpStatsDao.findRange(granularity.name(), from, to)) {
+            add(result, row.bucketStart(), row.event(), row.channel(), row.count());
+        }
+        for (Bucket bucket : series(granularity).buckets.values()) {
+            if (bucket.start.isBefore(from) || !bucket.start.isBefore(to)) {
+                continue;
+            }
+            for (int cell = 0; cell < bucket.counts.length; cell++) {
+                long count = bucket.counts[cell].sum();
+                if (count > 0) {
+                    add(result, bucket.start, eventName(cell), channelName(cell), count);
+                }
+            }
+        }
+        return result;
+    }
+
+    //Прибавляет накопленные приращения к otp_stats_rollup. При ошибке они возвращаются в корзины
+    //и уйдут со следующим сбросом. Корзины, которые уже не могут получить событий, удаляются из памяти
+
+    @Scheduled(fixedRateString = "${otp.stats.flush-ms:15000}")
+    public void flush() {
+        long now = System.currentTimeMillis();
+        List<Drained> drained = new ArrayList<>();
+        List<StatsDelta> deltas = new ArrayList<>();
+        drain(minutes, drained, deltas);
+        drain(hours, drained, deltas);
+
+        try {
+            otpStatsDao.addCounts(deltas);
+        } catch (RuntimeException e) {
+            log.warn("Failed to flush {} OTP stats counters, will retry: {}", deltas.size(), e.getMessage());
+            for (Drained item : drained) {
+                item.bucket.counts[item.cell].add(item.count);
+            }
+            return;
+        }
+
+        minutes.evictClosed(now);
+        hours.evictClosed(now);
+    }
+
+    //Удаляет старые корзины из таблицы; при нескольких экземплярах это делает только лидер
+
+    @Scheduled(fixedRateString = "${otp.stats.retention-check-ms:3600000}")
+    public void removeExpiredRollups() {
+        leaderElectionService.runIfLeader(RETENTION_LOCK, () -> {
+            LocalDateTime now = LocalDateTime.now();
+            int removedMinutes = otpStatsDao.deleteBefore(Granularity.MINUTE.name(), now.minusHours(minuteRetentionHours));
+            int removedHours = otpStatsDao.deleteBefore(Granularity.HOUR.name(), now.minusDays(hourRetentionDays));
+            if (removedMinutes + removedHours > 0) {
+                log.info("Removed {} minute and {} hour OTP stats rows", removedMinutes, removedHours);
+            }
+        });
+    }
+
+    //Последний сброс при остановке, чтобы не потерять счётчики текущих корзин
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private BucketSeries series(Granularity granularity) {
+        return granularity == Granularity.MINUTE ? minutes : hours;
+    }
+
+    private static void drain(BucketSeries series, List<Drained> drained, List<StatsDelta> deltas) {
+        for (Bucket bucket : series.buckets.values()) {
+            for (int cell = 0; cell < bucket.counts.length; cell++) {
+                long count = bucket.counts[cell].sumThenReset();
+                if (count > 0) {
+                    drained.add(new Drained(bucket, cell, count));
+                    deltas.add(new StatsDelta(series.granularity.name(), bucket.start,
+                            eventName(cell), channelName(cell), count));
+                }
+            }
+        }
+    }
+
+    private static void add(Map<LocalDateTime, Map<String, Map<String, Long>>> result,
+                            LocalDateTime start, String event, String channel, long count) {
+        result.computeIfAbsent(start, s -> new TreeMap<>())
+                .computeIfAbsent(event, e -> new TreeMap<>())
+                .merge(channel, count, Long::sum);
+    }
+
+    private static String eventName(int cell) {
+        return EVENTS[cell / COLUMNS].name().toLowerCase();
+    }
+
+    private static String channelName(int cell) {
+        int column = cell % COLUMNS;
+        return column < CHANNELS.length ? CHANNELS[column].name() : OtpMetrics.NO_CHANNEL;
+    }
+
+    //Корзины одной гранулярности. Текущая корзина кэшируется, поэтому запись события —
+    //сравнение времени и инкремент, поиск в карте нужен только при смене корзины
+
+    private final class BucketSeries {
+        private final Granularity granularity;
+        private final Map<LocalDateTime, Bucket> buckets = new ConcurrentHashMap<>();
+        private volatile Bucket current;
+
+        private BucketSeries(Granularity granularity) {
+            this.granularity = granularity;
+        }
+
+        private Bucket bucketAt(long nowMillis) {
+            Bucket bucket = current;
+            if (bucket != null && nowMillis >= bucket.startMillis && nowMillis < bucket.endMillis) {
+                return bucket;
+            }
+            LocalDateTime start = LocalDateTime.ofInstant(Instant.ofEpochMilli(nowMillis), zone)
+                    .truncatedTo(granularity.getUnit());
+            bucket = buckets.computeIfAbsent(start, s -> new Bucket(s, granularity.getUnit(), zone));
+            current = bucket;
+            return bucket;
+        }
+
+        // Корзина закрыта, если её интервал кончился больше минуты назад: потоки, успевшие взять
+        // на неё ссылку, к этому времени уже записали событие. Непустая корзина возвращается до следующего сброса
+        private void evictClosed(long nowMillis) {
+            for (Bucket bucket : buckets.values()) {
+                if (bucket.endMillis + 60_000 < nowMillis && buckets.remove(bucket.start, bucket)) {
+                    for (LongAdder count : bucket.counts) {
+                        if (count.sum() != 0) {
+                            buckets.putIfAbsent(bucket.start, bucket);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Bucket {
+        private final LocalDateTime start;
+        private final long startMillis;
+        private final long endMillis;
+        private final LongAdder[] counts = new LongAdder[EVENTS.length * COLUMNS];
+
+        private Bucket(LocalDateTime start, ChronoUnit unit, ZoneId zone) {
+            this.start = start;
+            this.startMillis = start.atZone(zone).toInstant().toEpochMilli();
+            this.endMillis = start.plus(1, unit).atZone(zone).toInstant().toEpochMilli();
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+    }
+
+    private record Drained(Bucket bucket, int cell, long count) {
+    }
+}
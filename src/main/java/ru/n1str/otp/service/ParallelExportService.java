@@ -0,0 +1,172 @@
+package ru.n1str.otp.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.n1str.otp.dao.OtpCodeJdbcDao;
+import ru.n1str.otp.dao.OtpCodeJdbcDao.IdRange;
+import ru.n1str.otp.metrics.jfr.ExportChunkEvent;
+import ru.n1str.otp.models.OtpExportFilter;
+import ru.n1str.otp.models.OtpExportRow;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+//Параллельный экспорт: диапазон id делится на части по partitionSize, части читаются
+//и форматируются на отдельном ForkJoinPool, каждая в свой буфер. Буферы пишутся в выход
+//строго по порядку; одновременно в работе не больше maxInFlight частей, поэтому память
+//ограничена maxInFlight буферами независимо от объёма истории
+
+@Service
+@Slf4j
+public class ParallelExportService {
+    private final OtpCodeJdbcDao otpCodeDao;
+    private final boolean enabled;
+    private final long partitionSize;
+    private final int maxInFlight;
+    private final ForkJoinPool pool;
+
+    public ParallelExportService(OtpCodeJdbcDao otpCodeDao,
+                                 @Value("${export.parallel.enabled:true}") boolean enabled,
+                                 @Value("${export.parallel.threads:4}") int threads,
+                                 @Value("${export.parallel.partition-size:20000}") long partitionSize,
+                                 @Value("${export.parallel.max-in-flight:8}") int maxInFlight) {
+        this.otpCodeDao = otpCodeDao;
+        this.enabled = enabled;
+        this.partitionSize = partitionSize;
+        this.maxInFlight = Math.max(maxInFlight, threads);
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.pool = new ForkJoinPool(threads, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("export-part-" + threadNumber.incrementAndGet());
+            return thread;
+        }, null, false);
+    }
+
+    //Параллельный экспорт имеет смысл для полной выгрузки: постраничная (limit) читается последовательно
+
+    public boolean supports(OtpExportFilter filter) {
+        return enabled && filter.limit() == null;
+    }
+
+    //Пишет строки выборки в writer в порядке id. Возвращает количество строк
+
+    public long export(OtpExportFilter filter, Writer writer, RowFormatter formatter, LongConsumer progress) throws IOException {
+        Optional<IdRange> range = otpCodeDao.findExportIdRange(filter);
+        if (range.isEmpty()) {
+            return 0;
+        }
+
+        long min = range.get().min();
+        long max = range.get().max();
+        long partitions = (max - min) / partitionSize + 1;
+        log.debug("Parallel export of ids {}..{} in {} partitions", min, max, partitions);
+
+        Deque<ForkJoinTask<Partition>> inFlight = new ArrayDeque<>();
+        long nextFrom = min;
+        long count = 0;
+        try {
+            while (nextFrom <= max || !inFlight.isEmpty()) {
+                while (nextFrom <= max && inFlight.size() < maxInFlight) {
+                    long from = nextFrom;
+                    long to = Math.min(from + partitionSize, max + 1);
+                    inFlight.addLast(pool.submit(() -> render(filter, from, to, formatter)));
+                    nextFrom = to;
+                }
+
+                Partition partition = inFlight.removeFirst().join();
+                writer.append(partition.buffer());
+                count += partition.rows();
+                progress.accept(count);
+            }
+        } catch (UncheckedIOException e) {
+            cancel(inFlight);
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            cancel(inFlight);
+            throw e;
+        }
+        return count;
+    }
+
+    private Partition render(OtpExportFilter filter, long fromId, long toId, RowFormatter formatter) {
+        ExportChunkEvent chunkEvent = new ExportChunkEvent();
+        chunkEvent.begin();
+        StringBuilderWriter buffer = new StringBuilderWriter();
+        long[] rows = {0};
+        otpCodeDao.forEachExportRow(filter, fromId, toId, row -> {
+            try {
+                formatter.format(buffer, row);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            rows[0]++;
+        });
+        chunkEvent.complete("csv", fromId, toId - 1, rows[0], buffer.builder.length());
+        return new Partition(buffer.builder, rows[0]);
+    }
+
+    private static void cancel(Deque<ForkJoinTask<Partition>> inFlight) {
+        for (ForkJoinTask<Partition> task : inFlight) {
+            task.cancel(false);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @FunctionalInterface
+    public interface RowFormatter {
+        void format(Writer writer, OtpExportRow row) throws IOException;
+    }
+
+    private record Partition(StringBuilder buffer, long rows) {
+    }
+
+    //Writer поверх StringBuilder: буфер части используется одним потоком, синхронизация StringWriter не нужна
+
+    private static final class StringBuilderWriter extends Writer {
+        private final StringBuilder builder = new StringBuilder(8192);
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            builder.append(cbuf, off, len);
+        }
+
+        @Override
+        public void write(int c) {
+            builder.append((char) c);
+        }
+
+        @Override
+        public void write(String str) {
+            builder.append(str);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            builder.append(str, off, off + len);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -11,6 +11,9 @@ import ru.n1str.otp.repository.RoleRepository;
 
 import jakarta.annotation.PostConstruct;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 
 //Отвечает за работу с ролями пользователей
 
@@ -21,10 +24,23 @@ public class RoleService {
     @Autowired
     RoleRepository roleRepository;
 
+    //Роли создаются при старте и не меняются, поэтому найденные роли кэшируются по запрошенному названию
+    private final Map<String, RoleUser> roleCache = new ConcurrentHashMap<>();
+
     //Ищет роль по названию. Если не найдена — выбрасывает исключение.
 
     public RoleUser findRole(String nameRole){
+        RoleUser cached = roleCache.get(nameRole);
+        if (cached != null) {
+            return cached;
+        }
+
+        RoleUser role = loadRole(nameRole);
+        roleCache.put(nameRole, role);
+        return role;
+    }
 
+    private RoleUser loadRole(String nameRole) {
         String roleName = nameRole.startsWith("ROLE_") ? nameRole : "ROLE_" + nameRole;
         
         try {
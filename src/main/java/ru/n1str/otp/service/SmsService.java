@@ -9,13 +9,15 @@ import org.smpp.pdu.BindResponse;
 import org.smpp.pdu.BindTransmitter;
 import org.smpp.pdu.SubmitSM;
 import org.springframework.stereotype.Service;
+import ru.n1str.otp.models.OtpCode;
+import ru.n1str.otp.repository.OtpNotificationService;
 
 import java.io.IOException;
 import java.util.Properties;
 
 @Service
 @Slf4j
-public class SmsService {
+public class SmsService implements OtpNotificationService {
     private final String host;
     private final int port;
     private final String systemId;
@@ -44,7 +46,20 @@ public class SmsService {
         }
     }
 
-    public void sendOtpCode(String phoneNumber, String code) {
+    @Override
+    public OtpCode.OtpChannel getChannel() {
+        return OtpCode.OtpChannel.SMS;
+    }
+
+    //Соединение с SMSC и отправка одного сообщения; выполняется на пуле канала в ChannelDispatcher
+
+    @Override
+    public void sendCode(String phoneNumber, String code) throws Exception {
+        submit(phoneNumber, code);
+        log.info("SMS with OTP code sent to {}", phoneNumber);
+    }
+
+    private void submit(String phoneNumber, String code) throws Exception {
         Connection connection = null;
         Session session = null;
 
@@ -73,11 +88,6 @@ public class SmsService {
             submitSM.setShortMessage("Ваш код подтверждения: " + code);
 
             session.submit(submitSM);
-
-            log.info("SMS with OTP code sent to {}", phoneNumber);
-        } catch (Exception e) {
-            log.error("Failed to send SMS to {}: {}", phoneNumber, e.getMessage());
-            throw new RuntimeException("Failed to send SMS", e);
         } finally {
             try {
                 if (session != null) {
@@ -16,6 +16,7 @@ import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import ru.n1str.otp.utils.OTPGenerator;
 import ru.n1str.otp.models.User;
 import ru.n1str.otp.models.OtpCode;
+import ru.n1str.otp.repository.OtpNotificationService;
 import ru.n1str.otp.repository.UserRepository;
 import org.springframework.context.annotation.Lazy;
 
@@ -28,12 +29,13 @@ import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 @Slf4j
-public class TelegramBotService extends TelegramLongPollingBot {
+public class TelegramBotService extends TelegramLongPollingBot implements OtpNotificationService {
 
     private final TelegramLinkService telegramLinkService;
     private final UserRepository userRepository;
     private final @Lazy OtpService otpService;
     private final OTPGenerator otpGenerator;
+    private final @Lazy ChannelDispatcher channelDispatcher;
 
     private static final int OTP_EXPIRATION_MINUTES = 5;
     private final Map<Long, String> activeOtpCodes = new ConcurrentHashMap<>();
@@ -42,20 +44,28 @@ public class TelegramBotService extends TelegramLongPollingBot {
     @Value("${telegram.bot.username}")
     private String botUsername;
 
+    @Value("${telegram.bot.enabled:true}")
+    private boolean botEnabled;
+
     public TelegramBotService(TelegramLinkService telegramLinkService,
                              UserRepository userRepository,
                              @Lazy OtpService otpService,
                              OTPGenerator otpGenerator,
+                             @Lazy ChannelDispatcher channelDispatcher,
                              @Value("${telegram.bot.token}") String botToken) {
         super(botToken);
         this.telegramLinkService = telegramLinkService;
         this.userRepository = userRepository;
         this.otpService = otpService;
         this.otpGenerator = otpGenerator;
+        this.channelDispatcher = channelDispatcher;
     }
 
     @PostConstruct
     public void initCommands() {
+        if (!botEnabled) {
+            return;
+        }
         try {
             List<BotCommand> commandList = new ArrayList<>();
             commandList.add(new BotCommand("/start", "Запустить бота"));
@@ -220,7 +230,8 @@ public class TelegramBotService extends TelegramLongPollingBot {
         return message;
     }
 
-    // Метод для внешнего вызова, чтобы отправить код по chatId
+    // Метод для внешнего вызова, чтобы отправить код по chatId.
+    // Отправка идёт через ChannelDispatcher; разомкнутый канал пробрасывается как ChannelUnavailableException
     public boolean sendOtpForUser(long chatId) {
         try {
             User user = userRepository.findByTelegramChatId(chatId).orElse(null);
@@ -235,46 +246,38 @@ public class TelegramBotService extends TelegramLongPollingBot {
 
             activeOtpCodes.put(chatId, code);
 
-            SendMessage message = createMessageWithKeyboard(chatId,
-                    "🔐 Ваш код подтверждения: *" + code + "*\n\n" +
-                            "Код действителен в течение 5 минут. " +
-                            "Введите его на странице авторизации.");
-            
-            message.enableMarkdown(true);
-            
-            try {
-                execute(message);
-                log.info("OTP код {} успешно отправлен пользователю через Telegram", code);
-                return true;
-            } catch (TelegramApiException e) {
-                log.error("Ошибка при отправке сообщения с кодом: {}", e.getMessage(), e);
-                return false;
-            }
+            channelDispatcher.send(OtpCode.OtpChannel.TELEGRAM, user.getId(), String.valueOf(chatId), code);
+            log.info("OTP код успешно отправлен пользователю {} через Telegram", user.getUsername());
+            return true;
+        } catch (ChannelUnavailableException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Ошибка при отправке OTP-кода пользователю: {}", e.getMessage(), e);
             return false;
         }
     }
 
-    // Метод для приема chatId как String и кода
-    public void sendOtpCode(String chatIdStr, String code) {
-        try {
-            long chatId = Long.parseLong(chatIdStr);
-            SendMessage message = createMessageWithKeyboard(chatId,
-                    "🔐 Ваш код подтверждения: *" + code + "*\n\n" +
-                            "Код действителен в течение 5 минут. " +
-                            "Введите его на странице авторизации.");
-
-            message.enableMarkdown(true);
+    @Override
+    public OtpCode.OtpChannel getChannel() {
+        return OtpCode.OtpChannel.TELEGRAM;
+    }
 
-            try {
-                execute(message);
-            } catch (TelegramApiException e) {
-                log.error("Ошибка при отправке сообщения", e);
-            }
+    // Отправка кода по chatId в виде строки; выполняется на пуле канала в ChannelDispatcher
+    @Override
+    public void sendCode(String chatIdStr, String code) throws Exception {
+        long chatId;
+        try {
+            chatId = Long.parseLong(chatIdStr);
         } catch (NumberFormatException e) {
-            log.error("Невозможно преобразовать chatId в числовой формат: {}", chatIdStr, e);
+            throw new IllegalArgumentException("Невозможно преобразовать chatId в числовой формат: " + chatIdStr, e);
         }
+        SendMessage message = createMessageWithKeyboard(chatId,
+                "🔐 Ваш код подтверждения: *" + code + "*\n\n" +
+                        "Код действителен в течение 5 минут. " +
+                        "Введите его на странице авторизации.");
+
+        message.enableMarkdown(true);
+        execute(message);
     }
 
     // Метод для проверки кода
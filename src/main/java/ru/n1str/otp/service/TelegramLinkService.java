@@ -78,6 +78,12 @@ public class TelegramLinkService {
         return false;
     }
 
+    //Забывает выданные пользователю токены привязки (при удалении пользователя)
+
+    public void evictUser(String username) {
+        linkTokenStorage.values().removeIf(username::equals);
+    }
+
     //Получает идентификатор чата Telegram пользователя
 
     public Long getUserTelegramChatId(String username) {
@@ -0,0 +1,183 @@
+package ru.n1str.otp.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.n1str.otp.dao.OtpCodeJdbcDao;
+import ru.n1str.otp.dao.UserJdbcDao;
+import ru.n1str.otp.dao.UserJdbcDao.DeletedUsers;
+import ru.n1str.otp.dao.UserJdbcDao.UserRef;
+import ru.n1str.otp.models.UserDeletionJob;
+import ru.n1str.otp.models.UserDeletionJob.UserDeletionJobStatus;
+
+import jakarta.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Фоновое массовое удаление пользователей (по списку id или по префиксу логина, администраторы не удаляются).
+//Пользователи обрабатываются порциями по chunkSize: сначала коды OTP порции удаляются запросами
+//не больше otpBatchSize строк, каждый в своей короткой транзакции, затем в одной транзакции дочищаются
+//оставшиеся коды, связи с ролями и сами пользователи. После каждой порции её пользователи вытесняются
+//из кэша экспортов и хранилища токенов привязки Telegram. Выданные им JWT перестают приниматься сразу:
+//фильтр загружает пользователя на каждый запрос. Задачи локальны для экземпляра приложения
+
+@Service
+@Slf4j
+public class UserDeletionJobService {
+    private final UserJdbcDao userJdbcDao;
+    private final OtpCodeJdbcDao otpCodeDao;
+    private final RoleService roleService;
+    private final ExportCacheService exportCacheService;
+    private final TelegramLinkService telegramLinkService;
+    private final int chunkSize;
+    private final int otpBatchSize;
+    private final long ttlMinutes;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, UserDeletionJob> jobs = new ConcurrentHashMap<>();
+
+    public UserDeletionJobService(UserJdbcDao userJdbcDao,
+                                  OtpCodeJdbcDao otpCodeDao,
+                                  RoleService roleService,
+                                  ExportCacheService exportCacheService,
+                                  TelegramLinkService telegramLinkService,
+                                  @Value("${users.delete.chunk-size:100}") int chunkSize,
+                                  @Value("${users.delete.otp-batch-size:5000}") int otpBatchSize,
+                                  @Value("${users.delete.jobs.queue-capacity:10}") int queueCapacity,
+                                  @Value("${users.delete.jobs.ttl-minutes:60}") long ttlMinutes) {
+        this.userJdbcDao = userJdbcDao;
+        this.otpCodeDao = otpCodeDao;
+        this.roleService = roleService;
+        this.exportCacheService = exportCacheService;
+        this.telegramLinkService = telegramLinkService;
+        this.chunkSize = chunkSize;
+        this.otpBatchSize = otpBatchSize;
+        this.ttlMinutes = ttlMinutes;
+
+        // Один рабочий поток: задачи удаления не конкурируют между собой за блокировки otp_code
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "user-delete-job-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    //Ставит задачу в очередь: удаляются пользователи из userIds или, если список пуст, с логином на usernamePrefix.
+    //Если очередь заполнена, выбрасывает RejectedExecutionException
+
+    public UserDeletionJob submit(List<Long> userIds, String usernamePrefix, String requestedBy) {
+        UserDeletionJob job = new UserDeletionJob(UUID.randomUUID().toString(), requestedBy,
+                userIds != null ? userIds.stream().distinct().sorted().toList() : List.of(), usernamePrefix);
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(() -> run(job));
+        } catch (RuntimeException e) {
+            jobs.remove(job.getId());
+            throw e;
+        }
+        log.info("User deletion job {} queued by {}", job.getId(), requestedBy);
+        return job;
+    }
+
+    public Optional<UserDeletionJob> findJob(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+
+    private void run(UserDeletionJob job) {
+        job.setStatus(UserDeletionJobStatus.RUNNING);
+        job.setStartedAt(LocalDateTime.now());
+        try {
+            long adminRoleId = roleService.findRole("ADMIN").getId();
+            if (!job.getUserIds().isEmpty()) {
+                deleteByIds(job, adminRoleId);
+            } else {
+                deleteByPrefix(job, adminRoleId);
+            }
+
+            job.setFinishedAt(LocalDateTime.now());
+            job.setExpiresAt(job.getFinishedAt().plusMinutes(ttlMinutes));
+            job.setStatus(UserDeletionJobStatus.COMPLETED);
+            log.info("User deletion job {} completed: {} users, {} OTP codes deleted, {} skipped",
+                    job.getId(), job.getDeletedUsers(), job.getDeletedOtpCodes(), job.getSkippedUsers());
+        } catch (Exception e) {
+            log.error("User deletion job {} failed: {}", job.getId(), e.getMessage(), e);
+            job.setError(e.getMessage());
+            job.setFinishedAt(LocalDateTime.now());
+            job.setExpiresAt(job.getFinishedAt().plusMinutes(ttlMinutes));
+            job.setStatus(UserDeletionJobStatus.FAILED);
+        }
+    }
+
+    private void deleteByIds(UserDeletionJob job, long adminRoleId) {
+        List<Long> ids = job.getUserIds();
+        job.setTotalUsers(ids.size());
+        for (int from = 0; from < ids.size(); from += chunkSize) {
+            List<Long> chunk = ids.subList(from, Math.min(from + chunkSize, ids.size()));
+            List<UserRef> users = userJdbcDao.findDeletableByIds(chunk, adminRoleId);
+            // Несуществующие id и администраторы пропускаются
+            job.setSkippedUsers(job.getSkippedUsers() + chunk.size() - users.size());
+            deleteChunk(job, users);
+        }
+    }
+
+    private void deleteByPrefix(UserDeletionJob job, long adminRoleId) {
+        job.setTotalUsers(userJdbcDao.countDeletableByPrefix(job.getUsernamePrefix(), adminRoleId));
+        long afterId = 0;
+        List<UserRef> users;
+        while (!(users = userJdbcDao.findDeletableByPrefix(afterId, job.getUsernamePrefix(), adminRoleId, chunkSize)).isEmpty()) {
+            deleteChunk(job, users);
+            afterId = users.get(users.size() - 1).id();
+        }
+    }
+
+    private void deleteChunk(UserDeletionJob job, List<UserRef> users) {
+        if (users.isEmpty()) {
+            return;
+        }
+        List<Long> ids = users.stream().map(UserRef::id).toList();
+
+        int deleted;
+        while ((deleted = otpCodeDao.deleteBatchByUserIds(ids, otpBatchSize)) > 0) {
+            job.setDeletedOtpCodes(job.getDeletedOtpCodes() + deleted);
+        }
+        DeletedUsers result = userJdbcDao.deleteUsers(ids);
+        job.setDeletedOtpCodes(job.getDeletedOtpCodes() + result.otpCodes());
+        job.setDeletedUsers(job.getDeletedUsers() + result.users());
+        // Пользователь мог быть удалён параллельно (например, одиночным удалением) — считаем его пропущенным
+        job.setSkippedUsers(job.getSkippedUsers() + users.size() - result.users());
+
+        for (UserRef user : users) {
+            exportCacheService.evictUser(user.id());
+            telegramLinkService.evictUser(user.username());
+        }
+    }
+
+    //Удаляет задачи, срок хранения которых истёк
+
+    @Scheduled(fixedRateString = "${users.delete.jobs.cleanup-ms:60000}")
+    public void removeExpiredJobs() {
+        LocalDateTime now = LocalDateTime.now();
+        for (UserDeletionJob job : jobs.values()) {
+            if (job.getExpiresAt() != null && now.isAfter(job.getExpiresAt())) {
+                jobs.remove(job.getId());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
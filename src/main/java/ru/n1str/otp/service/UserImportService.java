@@ -0,0 +1,357 @@
+package ru.n1str.otp.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.MediaType;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+import ru.n1str.otp.dao.UserJdbcDao;
+import ru.n1str.otp.dao.UserJdbcDao.NewUser;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Массовый импорт пользователей из потока CSV (заголовок с колонками username и password) или JSON lines.
+//Строки читаются порциями по chunkSize: пароли порции хешируются параллельно на отдельном пуле,
+//занятые логины отсеиваются одним запросом, пользователи и связи с ролью USER вставляются
+//пакетами JDBC в своей транзакции на порцию. Ошибочные строки пропускаются и попадают в отчёт.
+//Ход импорта пишется в ответ построчно в NDJSON: ошибки строк, прогресс после каждой порции, итог
+
+@Service
+@Slf4j
+public class UserImportService {
+    public static final MediaType NDJSON_TYPE = MediaType.parseMediaType("application/x-ndjson");
+    private static final int MAX_FIELD_LENGTH = 255;
+
+    private final UserJdbcDao userJdbcDao;
+    private final RoleService roleService;
+    private final ObjectMapper objectMapper;
+    private final PasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
+    private final int chunkSize;
+    private final Semaphore importSlots;
+    private final ThreadPoolExecutor hashingPool;
+
+    public UserImportService(UserJdbcDao userJdbcDao,
+                             RoleService roleService,
+                             ObjectMapper objectMapper,
+                             @Value("${users.import.chunk-size:500}") int chunkSize,
+                             @Value("${users.import.max-concurrent:1}") int maxConcurrent,
+                             @Value("${users.import.hashing-threads:0}") int hashingThreads) {
+        this.userJdbcDao = userJdbcDao;
+        this.roleService = roleService;
+        this.objectMapper = objectMapper;
+        this.chunkSize = chunkSize;
+        this.importSlots = new Semaphore(maxConcurrent);
+
+        // По умолчанию половина ядер: вход и регистрация в это время продолжают работать на своём пуле
+        int threads = hashingThreads > 0 ? hashingThreads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.hashingPool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(chunkSize * maxConcurrent),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "user-import-hash-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    public enum Format {
+        CSV, NDJSON;
+
+        public static Format fromContentType(String contentType) {
+            MediaType mediaType = MediaType.parseMediaType(contentType);
+            if (NDJSON_TYPE.isCompatibleWith(mediaType)) {
+                return NDJSON;
+            }
+            if (new MediaType("text", "csv").isCompatibleWith(mediaType)) {
+                return CSV;
+            }
+            throw new IllegalArgumentException("Поддерживаются text/csv и application/x-ndjson");
+        }
+    }
+
+    //Занимает слот импорта и читает заголовок CSV. Если все слоты заняты — RejectedExecutionException,
+    //если заголовок некорректен — IllegalArgumentException. Слот освобождается в UserImport.close
+
+    public UserImport open(InputStream in, Format format) throws IOException {
+        if (!importSlots.tryAcquire()) {
+            throw new RejectedExecutionException("Импорт пользователей уже выполняется");
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            return new UserImport(reader, format == Format.CSV ? readCsvHeader(reader) : null);
+        } catch (IOException | RuntimeException e) {
+            importSlots.release();
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        hashingPool.shutdownNow();
+    }
+
+    private static int[] readCsvHeader(BufferedReader reader) throws IOException {
+        String header = reader.readLine();
+        if (header == null) {
+            throw new IllegalArgumentException("Пустой файл импорта");
+        }
+        List<String> columns = parseCsvLine(header.startsWith("\uFEFF") ? header.substring(1) : header);
+        int username = columns.indexOf("username");
+        int password = columns.indexOf("password");
+        if (username < 0 || password < 0) {
+            throw new IllegalArgumentException("В заголовке CSV должны быть колонки username и password");
+        }
+        return new int[]{username, password};
+    }
+
+    //Разбор строки CSV: поля через запятую, в кавычках допускаются запятые и удвоенные кавычки
+
+    private static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Незакрытая кавычка");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    //Один запуск импорта: читает строки из тела запроса и пишет отчёт в out
+
+    public final class UserImport implements Closeable {
+        private final BufferedReader reader;
+        private final int[] csvColumns;
+        private Writer out;
+        private long lineNumber;
+        private long processed;
+        private long imported;
+        private long failed;
+
+        private UserImport(BufferedReader reader, int[] csvColumns) {
+            this.reader = reader;
+            this.csvColumns = csvColumns;
+            this.lineNumber = csvColumns != null ? 1 : 0;
+        }
+
+        public void run(Writer out) throws IOException {
+            this.out = out;
+            long start = System.currentTimeMillis();
+            long roleId = roleService.findRole("USER").getId();
+
+            List<Row> chunk = new ArrayList<>(chunkSize);
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    processed++;
+                    Row row = parse(line);
+                    if (row != null) {
+                        chunk.add(row);
+                    }
+                    if (chunk.size() == chunkSize) {
+                        importChunk(chunk, roleId);
+                        chunk.clear();
+                    }
+                }
+                if (!chunk.isEmpty()) {
+                    importChunk(chunk, roleId);
+                }
+            } catch (RuntimeException e) {
+                // Уже импортированные порции остаются в БД; клиент узнаёт, на какой строке импорт остановился
+                log.error("Импорт пользователей прерван на строке {}: {}", lineNumber, e.getMessage(), e);
+                Map<String, Object> aborted = counters("aborted");
+                aborted.put("line", lineNumber);
+                aborted.put("error", e.getMessage());
+                write(aborted);
+                out.flush();
+                throw e;
+            }
+
+            Map<String, Object> summary = counters("done");
+            summary.put("durationMs", System.currentTimeMillis() - start);
+            write(summary);
+            out.flush();
+            log.info("Импорт пользователей завершён: обработано {}, импортировано {}, с ошибками {}",
+                    processed, imported, failed);
+        }
+
+        @Override
+        public void close() {
+            importSlots.release();
+        }
+
+        private Row parse(String line) throws IOException {
+            String username;
+            String password;
+            try {
+                if (csvColumns != null) {
+                    List<String> fields = parseCsvLine(line);
+                    username = field(fields, csvColumns[0]);
+                    password = field(fields, csvColumns[1]);
+                } else {
+                    JsonNode node = objectMapper.readTree(line);
+                    username = node.hasNonNull("username") ? node.get("username").asText() : null;
+                    password = node.hasNonNull("password") ? node.get("password").asText() : null;
+                }
+            } catch (JsonProcessingException e) {
+                rowFailed(lineNumber, null, "Некорректная строка: " + e.getOriginalMessage());
+                return null;
+            } catch (IllegalArgumentException e) {
+                rowFailed(lineNumber, null, "Некорректная строка: " + e.getMessage());
+                return null;
+            }
+
+            if (username == null || username.isBlank() || password == null || password.isEmpty()) {
+                rowFailed(lineNumber, username, "Имя пользователя и пароль обязательны");
+                return null;
+            }
+            username = username.trim();
+            if (username.length() > MAX_FIELD_LENGTH) {
+                rowFailed(lineNumber, username, "Имя пользователя длиннее " + MAX_FIELD_LENGTH + " символов");
+                return null;
+            }
+            // Логин admin зарезервирован за первым администратором, которого создаёт регистрация
+            if ("admin".equals(username.toLowerCase(Locale.ROOT))) {
+                rowFailed(lineNumber, username, "Логин admin нельзя импортировать");
+                return null;
+            }
+            return new Row(lineNumber, username, password);
+        }
+
+        private void importChunk(List<Row> chunk, long roleId) throws IOException {
+            Set<String> existing = userJdbcDao.findExistingUsernames(chunk.stream().map(Row::username).toList());
+            Set<String> seen = new HashSet<>();
+            List<Row> accepted = new ArrayList<>(chunk.size());
+            for (Row row : chunk) {
+                if (existing.contains(row.username()) || !seen.add(row.username())) {
+                    rowFailed(row.line(), row.username(), "Пользователь с таким именем уже существует");
+                } else {
+                    accepted.add(row);
+                }
+            }
+
+            List<NewUser> users = hash(accepted);
+            try {
+                userJdbcDao.insertAll(users, roleId);
+                imported += users.size();
+            } catch (DataIntegrityViolationException e) {
+                // Логин заняли параллельно (регистрация между проверкой и вставкой): порция откатилась,
+                // вставляем её по одному, чтобы отделить конфликтующие строки
+                for (int i = 0; i < users.size(); i++) {
+                    try {
+                        userJdbcDao.insertAll(List.of(users.get(i)), roleId);
+                        imported++;
+                    } catch (DataIntegrityViolationException rowError) {
+                        rowFailed(accepted.get(i).line(), users.get(i).username(), "Пользователь с таким именем уже существует");
+                    }
+                }
+            }
+
+            write(counters("progress"));
+            out.flush();
+        }
+
+        private List<NewUser> hash(List<Row> rows) {
+            List<Future<String>> hashes = new ArrayList<>(rows.size());
+            for (Row row : rows) {
+                hashes.add(hashingPool.submit(() -> passwordEncoder.encode(row.password())));
+            }
+            List<NewUser> users = new ArrayList<>(rows.size());
+            try {
+                for (int i = 0; i < rows.size(); i++) {
+                    users.add(new NewUser(rows.get(i).username(), hashes.get(i).get()));
+                }
+            } catch (InterruptedException e) {
+                hashes.forEach(hash -> hash.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Импорт прерван", e);
+            } catch (ExecutionException e) {
+                hashes.forEach(hash -> hash.cancel(true));
+                throw new RuntimeException("Ошибка хеширования пароля", e.getCause());
+            }
+            return users;
+        }
+
+        private void rowFailed(long line, String username, String error) throws IOException {
+            failed++;
+            Map<String, Object> event = new LinkedHashMap<>();
+            event.put("type", "error");
+            event.put("line", line);
+            event.put("username", username);
+            event.put("error", error);
+            write(event);
+        }
+
+        private Map<String, Object> counters(String type) {
+            Map<String, Object> event = new LinkedHashMap<>();
+            event.put("type", type);
+            event.put("processed", processed);
+            event.put("imported", imported);
+            event.put("failed", failed);
+            return event;
+        }
+
+        private void write(Map<String, Object> event) throws IOException {
+            out.write(objectMapper.writeValueAsString(event));
+            out.write('\n');
+        }
+
+        private static String field(List<String> fields, int index) {
+            return index < fields.size() ? fields.get(index) : null;
+        }
+    }
+
+    private record Row(long line, String username, String password) {
+    }
+}
@@ -43,14 +43,10 @@ public class UserRoleService {
         }
     }
 
-    //Проверяет, есть ли уже пользователи с правами администратора
+    //Проверяет, есть ли уже пользователи с правами администратора (запрос существования по индексу)
 
     public boolean hasAdminUsers() {
-        return userRepository.findAll().stream()
-                .anyMatch(user -> user.getRoleUsers().stream()
-                        .anyMatch(role -> 
-                            role.getNameRole().equals("ROLE_ADMIN") || 
-                            role.getNameRole().equals("ADMIN")));
+        return userRepository.existsByRoleUsersId(roleService.findRole("ADMIN").getId());
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+package ru.n1str.otp.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+//Пишет данные дальше без изменений и одновременно сохраняет копию, пока её размер не превысит limit.
+//Используется, чтобы положить потоковый ответ в кэш, не собирая его в памяти заранее
+
+public class CapturingOutputStream extends OutputStream {
+    private final OutputStream delegate;
+    private final int limit;
+    private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+    public CapturingOutputStream(OutputStream delegate, int limit) {
+        this.delegate = delegate;
+        this.limit = limit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        delegate.write(b);
+        capture(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        delegate.write(b, off, len);
+        capture(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        delegate.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    //Сохранённая копия или null, если данные превысили limit
+
+    public byte[] getCaptured() {
+        return copy != null ? copy.toByteArray() : null;
+    }
+
+    private void capture(byte[] b, int off, int len) {
+        if (copy == null) {
+            return;
+        }
+        if (copy.size() + len > limit) {
+            copy = null;
+            return;
+        }
+        copy.write(b, off, len);
+    }
+}
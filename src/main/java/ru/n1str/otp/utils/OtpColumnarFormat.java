@@ -0,0 +1,65 @@
+package ru.n1str.otp.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+//Бинарный колоночный формат экспорта истории OTP.
+//
+//Файл: заголовок, блоки, индекс, хвост.
+//  заголовок: "OTPC", версия (1 байт), словари статусов и каналов (имена enum в порядке кодов)
+//  блок:      сжатые Deflater колонки блока; в начале несжатый размер и сжатый размер (varint)
+//  индекс:    число блоков, для каждого: смещение, число строк, первый и последний id; затем всего строк
+//  хвост:     смещение индекса (8 байт) и "OTPC"
+//
+//Колонки блока (varint, знаковые значения в zigzag):
+//  id            — разность с предыдущим id (первый — с нулём), поэтому блок читается независимо
+//  username      — словарь блока и номер записи словаря на каждую строку (0 — null)
+//  status        — номер в словаре заголовка + 1, 0 — null (1 байт)
+//  channel       — номер в словаре заголовка + 1, 0 — null (1 байт)
+//  created_at    — epoch ms, разность с предыдущей строкой
+//  expires_at    — разность с created_at той же строки в мс
+//  code          — длина + 1 и UTF-8 (0 — null)
+//  operation_id  — длина + 1 и UTF-8 (0 — null)
+
+public final class OtpColumnarFormat {
+    public static final byte[] MAGIC = "OTPC".getBytes(StandardCharsets.US_ASCII);
+    public static final int VERSION = 1;
+    public static final String CONTENT_TYPE = "application/vnd.n1str.otp-columnar";
+
+    private OtpColumnarFormat() {
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long readVarLong(ByteBuffer buffer) {
+        long result = 0;
+        int shift = 0;
+        while (true) {
+            byte b = buffer.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+            shift += 7;
+            if (shift > 63) {
+                throw new IllegalStateException("Некорректный varint в колоночном файле");
+            }
+        }
+    }
+
+    static int readVarInt(ByteBuffer buffer) {
+        return Math.toIntExact(readVarLong(buffer));
+    }
+
+    static String readString(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,175 @@
+package ru.n1str.otp.utils;
+
+import ru.n1str.otp.models.OtpCode;
+import ru.n1str.otp.models.OtpExportRow;
+import ru.n1str.otp.models.OtpStatus;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+//Чтение колоночного экспорта OTP (см. OtpColumnarFormat). Индекс в конце файла позволяет
+//читать отдельные блоки, не разбирая предыдущие; подходит и для ByteBuffer из отображённого файла
+
+public class OtpColumnarReader {
+    private static final int TRAILER_SIZE = 8 + 4;
+
+    private final ByteBuffer data;
+    private final OtpStatus[] statuses;
+    private final OtpCode.OtpChannel[] channels;
+    private final long[] blockOffsets;
+    private final int[] blockRows;
+    private final long[] blockFirstIds;
+    private final long[] blockLastIds;
+    private final long rowCount;
+
+    public OtpColumnarReader(ByteBuffer data) {
+        this.data = data.duplicate().order(ByteOrder.BIG_ENDIAN);
+
+        ByteBuffer header = this.data.duplicate();
+        checkMagic(header, 0);
+        header.position(OtpColumnarFormat.MAGIC.length);
+        int version = header.get();
+        if (version != OtpColumnarFormat.VERSION) {
+            throw new IllegalStateException("Неподдерживаемая версия колоночного формата: " + version);
+        }
+        statuses = new OtpStatus[OtpColumnarFormat.readVarInt(header)];
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = OtpStatus.valueOf(OtpColumnarFormat.readString(header, OtpColumnarFormat.readVarInt(header)));
+        }
+        channels = new OtpCode.OtpChannel[OtpColumnarFormat.readVarInt(header)];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = OtpCode.OtpChannel.valueOf(OtpColumnarFormat.readString(header, OtpColumnarFormat.readVarInt(header)));
+        }
+
+        int end = this.data.limit();
+        checkMagic(this.data, end - OtpColumnarFormat.MAGIC.length);
+        long indexOffset = this.data.getLong(end - TRAILER_SIZE);
+
+        ByteBuffer index = this.data.duplicate();
+        index.position(Math.toIntExact(indexOffset));
+        int blocks = OtpColumnarFormat.readVarInt(index);
+        blockOffsets = new long[blocks];
+        blockRows = new int[blocks];
+        blockFirstIds = new long[blocks];
+        blockLastIds = new long[blocks];
+        for (int i = 0; i < blocks; i++) {
+            blockOffsets[i] = OtpColumnarFormat.readVarLong(index);
+            blockRows[i] = OtpColumnarFormat.readVarInt(index);
+            blockFirstIds[i] = OtpColumnarFormat.unZigZag(OtpColumnarFormat.readVarLong(index));
+            blockLastIds[i] = OtpColumnarFormat.unZigZag(OtpColumnarFormat.readVarLong(index));
+        }
+        rowCount = OtpColumnarFormat.readVarLong(index);
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public int getBlockCount() {
+        return blockOffsets.length;
+    }
+
+    public long getBlockFirstId(int block) {
+        return blockFirstIds[block];
+    }
+
+    public long getBlockLastId(int block) {
+        return blockLastIds[block];
+    }
+
+    public void forEach(Consumer<OtpExportRow> action) {
+        for (int i = 0; i < getBlockCount(); i++) {
+            readBlock(i).forEach(action);
+        }
+    }
+
+    public List<OtpExportRow> readBlock(int block) {
+        ByteBuffer buffer = data.duplicate();
+        buffer.position(Math.toIntExact(blockOffsets[block]));
+        int rawSize = OtpColumnarFormat.readVarInt(buffer);
+        int compressedSize = OtpColumnarFormat.readVarInt(buffer);
+
+        byte[] raw = new byte[rawSize];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(buffer.slice(buffer.position(), compressedSize));
+            int n = 0;
+            while (n < rawSize && !inflater.finished()) {
+                n += inflater.inflate(raw, n, rawSize - n);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Повреждённый блок " + block + " колоночного файла", e);
+        } finally {
+            inflater.end();
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(raw);
+        int rows = OtpColumnarFormat.readVarInt(in);
+        String[] dictionary = new String[OtpColumnarFormat.readVarInt(in) + 1];
+        for (int i = 1; i < dictionary.length; i++) {
+            dictionary[i] = OtpColumnarFormat.readString(in, OtpColumnarFormat.readVarInt(in));
+        }
+
+        ByteBuffer ids = column(in);
+        ByteBuffer usernames = column(in);
+        ByteBuffer statusCodes = column(in);
+        ByteBuffer channelCodes = column(in);
+        ByteBuffer createdAt = column(in);
+        ByteBuffer expiresAt = column(in);
+        ByteBuffer codes = column(in);
+        ByteBuffer operationIds = column(in);
+
+        List<OtpExportRow> result = new ArrayList<>(rows);
+        long id = 0;
+        long created = 0;
+        for (int i = 0; i < rows; i++) {
+            id += OtpColumnarFormat.unZigZag(OtpColumnarFormat.readVarLong(ids));
+            String username = dictionary[OtpColumnarFormat.readVarInt(usernames)];
+            int status = statusCodes.get();
+            int channel = channelCodes.get();
+            created += OtpColumnarFormat.unZigZag(OtpColumnarFormat.readVarLong(createdAt));
+            long expires = created + OtpColumnarFormat.unZigZag(OtpColumnarFormat.readVarLong(expiresAt));
+            String code = readNullableString(codes);
+            String operationId = readNullableString(operationIds);
+
+            result.add(new OtpExportRow(id, username, code,
+                    status == 0 ? null : statuses[status - 1],
+                    channel == 0 ? null : channels[channel - 1],
+                    toLocalDateTime(created), toLocalDateTime(expires), operationId));
+        }
+        return result;
+    }
+
+    private static String readNullableString(ByteBuffer column) {
+        int length = OtpColumnarFormat.readVarInt(column);
+        return length == 0 ? null : OtpColumnarFormat.readString(column, length - 1);
+    }
+
+    private static ByteBuffer column(ByteBuffer in) {
+        int length = OtpColumnarFormat.readVarInt(in);
+        ByteBuffer column = in.slice(in.position(), length);
+        in.position(in.position() + length);
+        return column;
+    }
+
+    private static void checkMagic(ByteBuffer buffer, int position) {
+        byte[] magic = new byte[OtpColumnarFormat.MAGIC.length];
+        buffer.get(position, magic);
+        if (!Arrays.equals(magic, OtpColumnarFormat.MAGIC)) {
+            throw new IllegalStateException("Файл не является колоночным экспортом OTP");
+        }
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochMillis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(epochMillis, 1000),
+                (int) Math.floorMod(epochMillis, 1000) * 1_000_000, ZoneOffset.UTC);
+    }
+}
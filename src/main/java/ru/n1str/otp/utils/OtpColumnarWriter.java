@@ -0,0 +1,263 @@
+package ru.n1str.otp.utils;
+
+import ru.n1str.otp.metrics.jfr.ExportChunkEvent;
+import ru.n1str.otp.models.OtpCode;
+import ru.n1str.otp.models.OtpExportRow;
+import ru.n1str.otp.models.OtpStatus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+//Потоковая запись истории OTP в колоночном формате (см. OtpColumnarFormat).
+//В памяти держится только текущий блок из blockRows строк и индекс блоков.
+//Время LocalDateTime сохраняется как epoch ms по UTC без учёта часового пояса (точность до миллисекунд)
+
+public class OtpColumnarWriter implements Closeable {
+    public static final int DEFAULT_BLOCK_ROWS = 8192;
+
+    private final OutputStream out;
+    private final int blockRows;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+
+    private final ByteSink ids = new ByteSink();
+    private final ByteSink usernames = new ByteSink();
+    private final ByteSink statuses = new ByteSink();
+    private final ByteSink channels = new ByteSink();
+    private final ByteSink createdAt = new ByteSink();
+    private final ByteSink expiresAt = new ByteSink();
+    private final ByteSink codes = new ByteSink();
+    private final ByteSink operationIds = new ByteSink();
+    private final ByteSink block = new ByteSink();
+    private final ByteSink compressed = new ByteSink();
+    private final byte[] deflateBuffer = new byte[64 * 1024];
+
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final List<String> dictionaryEntries = new ArrayList<>();
+    private final ByteSink index = new ByteSink();
+
+    private long offset;
+    private int blockCount;
+    private int rowsInBlock;
+    private long totalRows;
+    private long previousId;
+    private long previousCreatedAt;
+    private long firstIdInBlock;
+    private boolean headerWritten;
+    private boolean finished;
+
+    public OtpColumnarWriter(OutputStream out) {
+        this(out, DEFAULT_BLOCK_ROWS);
+    }
+
+    public OtpColumnarWriter(OutputStream out, int blockRows) {
+        this.out = out;
+        this.blockRows = blockRows;
+    }
+
+    public void write(OtpExportRow row) throws IOException {
+        if (!headerWritten) {
+            writeHeader();
+        }
+        if (rowsInBlock == 0) {
+            firstIdInBlock = row.id();
+            previousId = 0;
+            previousCreatedAt = 0;
+        }
+
+        ids.writeVarLong(OtpColumnarFormat.zigZag(row.id() - previousId));
+        previousId = row.id();
+
+        usernames.writeVarLong(dictionaryCode(row.username()));
+        statuses.write(row.status() != null ? row.status().ordinal() + 1 : 0);
+        channels.write(row.channel() != null ? row.channel().ordinal() + 1 : 0);
+
+        long created = epochMillis(row.createdAt());
+        createdAt.writeVarLong(OtpColumnarFormat.zigZag(created - previousCreatedAt));
+        previousCreatedAt = created;
+        expiresAt.writeVarLong(OtpColumnarFormat.zigZag(epochMillis(row.expiresAt()) - created));
+
+        writeString(codes, row.code(), true);
+        writeString(operationIds, row.operationId(), true);
+
+        totalRows++;
+        if (++rowsInBlock == blockRows) {
+            flushBlock();
+        }
+    }
+
+    public long getRowCount() {
+        return totalRows;
+    }
+
+    //Дописывает последний блок, индекс и хвост. Поток out не закрывается
+
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (!headerWritten) {
+            writeHeader();
+        }
+        if (rowsInBlock > 0) {
+            flushBlock();
+        }
+
+        long indexOffset = offset;
+        ByteSink footer = new ByteSink();
+        footer.writeVarLong(blockCount);
+        footer.writeBytes(index.buf, 0, index.size);
+        footer.writeVarLong(totalRows);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            footer.write((int) (indexOffset >>> shift));
+        }
+        footer.writeBytes(OtpColumnarFormat.MAGIC, 0, OtpColumnarFormat.MAGIC.length);
+        emit(footer);
+        out.flush();
+
+        deflater.end();
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+
+    private void writeHeader() throws IOException {
+        ByteSink header = new ByteSink();
+        header.writeBytes(OtpColumnarFormat.MAGIC, 0, OtpColumnarFormat.MAGIC.length);
+        header.write(OtpColumnarFormat.VERSION);
+        header.writeVarLong(OtpStatus.values().length);
+        for (OtpStatus status : OtpStatus.values()) {
+            writeString(header, status.name(), false);
+        }
+        header.writeVarLong(OtpCode.OtpChannel.values().length);
+        for (OtpCode.OtpChannel channel : OtpCode.OtpChannel.values()) {
+            writeString(header, channel.name(), false);
+        }
+        emit(header);
+        headerWritten = true;
+    }
+
+    private void flushBlock() throws IOException {
+        ExportChunkEvent chunkEvent = new ExportChunkEvent();
+        chunkEvent.begin();
+        block.reset();
+        block.writeVarLong(rowsInBlock);
+        block.writeVarLong(dictionaryEntries.size());
+        for (String entry : dictionaryEntries) {
+            writeString(block, entry, false);
+        }
+        for (ByteSink column : new ByteSink[]{ids, usernames, statuses, channels, createdAt, expiresAt, codes, operationIds}) {
+            block.writeVarLong(column.size);
+            block.writeBytes(column.buf, 0, column.size);
+            column.reset();
+        }
+
+        compressed.reset();
+        deflater.reset();
+        deflater.setInput(block.buf, 0, block.size);
+        deflater.finish();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(deflateBuffer);
+            compressed.writeBytes(deflateBuffer, 0, n);
+        }
+
+        index.writeVarLong(offset);
+        index.writeVarLong(rowsInBlock);
+        index.writeVarLong(OtpColumnarFormat.zigZag(firstIdInBlock));
+        index.writeVarLong(OtpColumnarFormat.zigZag(previousId));
+
+        ByteSink prefix = new ByteSink();
+        prefix.writeVarLong(block.size);
+        prefix.writeVarLong(compressed.size);
+        emit(prefix);
+        emit(compressed);
+        chunkEvent.complete("columnar", firstIdInBlock, previousId, rowsInBlock, prefix.size + compressed.size);
+
+        blockCount++;
+        rowsInBlock = 0;
+        dictionary.clear();
+        dictionaryEntries.clear();
+    }
+
+    private int dictionaryCode(String value) {
+        if (value == null) {
+            return 0;
+        }
+        Integer code = dictionary.get(value);
+        if (code == null) {
+            dictionaryEntries.add(value);
+            code = dictionaryEntries.size();
+            dictionary.put(value, code);
+        }
+        return code;
+    }
+
+    private void emit(ByteSink sink) throws IOException {
+        out.write(sink.buf, 0, sink.size);
+        offset += sink.size;
+    }
+
+    private static void writeString(ByteSink sink, String value, boolean nullable) {
+        if (value == null) {
+            sink.writeVarLong(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        sink.writeVarLong(nullable ? bytes.length + 1 : bytes.length);
+        sink.writeBytes(bytes, 0, bytes.length);
+    }
+
+    private static long epochMillis(LocalDateTime time) {
+        return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    //Растущий буфер байтов без синхронизации (в отличие от ByteArrayOutputStream)
+
+    private static final class ByteSink {
+        private byte[] buf = new byte[1024];
+        private int size;
+
+        void write(int b) {
+            ensure(1);
+            buf[size++] = (byte) b;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[size++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes, int off, int len) {
+            ensure(len);
+            System.arraycopy(bytes, off, buf, size, len);
+            size += len;
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buf.length) {
+                byte[] grown = new byte[Math.max(buf.length * 2, size + extra)];
+                System.arraycopy(buf, 0, grown, 0, size);
+                buf = grown;
+            }
+        }
+    }
+}
@@ -0,0 +1,2 @@
+-- updated_at заполняет БД: при вставке значением по умолчанию, при смене статуса запросом UPDATE
+alter table otp_code alter column updated_at set default current_timestamp;
@@ -0,0 +1,64 @@
+-- Базовая схема, ранее создававшаяся Hibernate (ddl-auto=create-drop)
+
+create sequence role_user_seq start with 1 increment by 50;
+create sequence user_table_seq start with 1 increment by 1;
+
+create table role_user (
+    id        bigint not null,
+    name_role varchar(255),
+    constraint pk_role_user primary key (id),
+    constraint uk_role_user_name_role unique (name_role)
+);
+
+create table user_table (
+    id                      bigint  not null,
+    username                varchar(255),
+    password                varchar(255),
+    enabled                 boolean not null,
+    account_non_expired     boolean not null,
+    account_non_locked      boolean not null,
+    credentials_non_expired boolean not null,
+    telegram_chat_id        bigint,
+    telegram_link_token     varchar(255),
+    constraint pk_user_table primary key (id),
+    constraint uk_user_table_username unique (username),
+    constraint uk_user_table_telegram_link_token unique (telegram_link_token)
+);
+
+create table m2m_role_table (
+    user_id  bigint not null,
+    roles_id bigint not null,
+    constraint pk_m2m_role_table primary key (roles_id, user_id),
+    constraint fk_m2m_role_table_user foreign key (user_id) references user_table (id),
+    constraint fk_m2m_role_table_role foreign key (roles_id) references role_user (id)
+);
+
+create table otp_code (
+    id           bigint generated by default as identity,
+    code         varchar(255),
+    status       varchar(255),
+    channel      varchar(255),
+    created_at   timestamp(6),
+    expires_at   timestamp(6),
+    user_id      bigint,
+    operation_id varchar(255),
+    constraint pk_otp_code primary key (id),
+    constraint fk_otp_code_user foreign key (user_id) references user_table (id),
+    constraint ck_otp_code_status check (status in ('ACTIVE', 'EXPIRED', 'USED')),
+    constraint ck_otp_code_channel check (channel in ('SMS', 'EMAIL', 'TELEGRAM', 'FILE'))
+);
+
+create table otp_configuration (
+    id               bigint not null,
+    code_length      integer,
+    lifetime_minutes integer,
+    constraint pk_otp_configuration primary key (id)
+);
+
+create table scheduler_lock (
+    name         varchar(255) not null,
+    owner        varchar(255),
+    locked_until timestamp(6),
+    heartbeat_at timestamp(6),
+    constraint pk_scheduler_lock primary key (name)
+);
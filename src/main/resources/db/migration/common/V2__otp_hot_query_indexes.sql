@@ -0,0 +1,16 @@
+-- Индексы под запросы OtpCodeRepository, OtpCodeJdbcDao и UserRepository
+
+-- findByUserAndStatus: активные коды пользователя
+create index idx_otp_code_user_status on otp_code (user_id, status);
+
+-- findByUserAndCodeAndStatus: верификация кода
+create index idx_otp_code_user_code_status on otp_code (user_id, code, status);
+
+-- поиск по идентификатору операции
+create index idx_otp_code_operation_id on otp_code (operation_id);
+
+-- findByTelegramChatId: отправка кода через Telegram
+create index idx_user_table_telegram_chat_id on user_table (telegram_chat_id);
+
+-- загрузка ролей пользователя (первичный ключ начинается с roles_id)
+create index idx_m2m_role_table_user_id on m2m_role_table (user_id);
@@ -0,0 +1,2 @@
+-- Экспорт истории пользователя: фильтр по user_id с упорядочиванием и keyset-пагинацией по id
+create index idx_otp_code_user_id_id on otp_code (user_id, id);
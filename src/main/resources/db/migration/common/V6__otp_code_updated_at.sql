@@ -0,0 +1,8 @@
+-- Время последнего изменения кода (создание или смена статуса) для инкрементального экспорта
+alter table otp_code add column updated_at timestamp(6);
+update otp_code set updated_at = created_at;
+alter table otp_code alter column updated_at set not null;
+
+-- Дельта-выгрузка идёт по (updated_at, id) после курсора: общая и по пользователю
+create index idx_otp_code_updated_at_id on otp_code (updated_at, id);
+create index idx_otp_code_user_updated_at_id on otp_code (user_id, updated_at, id);
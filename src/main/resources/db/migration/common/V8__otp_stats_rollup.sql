@@ -0,0 +1,10 @@
+-- Агрегаты событий OTP по минутам и часам: счётчики копятся в памяти и периодически прибавляются сюда,
+-- поэтому статистика для администратора читается по числу корзин, а не по строкам otp_code
+create table otp_stats_rollup (
+    granularity  varchar(8)   not null,
+    bucket_start timestamp(6) not null,
+    event        varchar(16)  not null,
+    channel      varchar(16)  not null,
+    event_count  bigint       not null,
+    primary key (granularity, bucket_start, event, channel)
+);
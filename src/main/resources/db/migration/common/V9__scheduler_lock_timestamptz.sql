@@ -0,0 +1,4 @@
+-- Время аренды задаётся часами БД (CURRENT_TIMESTAMP); с часовым поясом значения сравниваются одинаково
+-- независимо от часового пояса сессии экземпляра
+alter table scheduler_lock alter column locked_until set data type timestamp(6) with time zone;
+alter table scheduler_lock alter column heartbeat_at set data type timestamp(6) with time zone;
@@ -0,0 +1,2 @@
+-- H2 не поддерживает частичные индексы: используем составной индекс (status, expires_at)
+create index idx_otp_code_status_expires_at on otp_code (status, expires_at);
@@ -0,0 +1,7 @@
+-- Идентификаторы выдаются блоками по 50 (pooled-lo) вместо IDENTITY / шага 1,
+-- чтобы Hibernate и OtpCodeJdbcDao могли группировать вставки в пакеты
+
+create sequence otp_code_seq start with 1 increment by 50;
+alter table otp_code alter column id drop identity;
+
+alter sequence user_table_seq increment by 50;
@@ -0,0 +1,3 @@
+-- Частичный индекс для задачи expireOldCodes: в нём только ACTIVE коды,
+-- поэтому он остаётся маленьким независимо от объёма истории
+create index idx_otp_code_active_expires_at on otp_code (expires_at) where status = 'ACTIVE';
@@ -0,0 +1,9 @@
+-- Идентификаторы выдаются блоками по 50 (pooled-lo) вместо IDENTITY / шага 1,
+-- чтобы Hibernate и OtpCodeJdbcDao могли группировать вставки в пакеты
+
+create sequence otp_code_seq start with 1 increment by 50;
+select setval('otp_code_seq', coalesce((select max(id) from otp_code), 0) + 1, false);
+alter table otp_code alter column id drop identity if exists;
+
+-- Следующее значение окажется за пределами уже выданных идентификаторов
+alter sequence user_table_seq increment by 50;
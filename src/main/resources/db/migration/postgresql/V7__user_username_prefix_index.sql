@@ -0,0 +1,4 @@
+-- Поиск пользователей по префиксу логина (username LIKE 'abc%'): уникальный индекс с сопоставлением
+-- базы данных для LIKE не подходит, text_pattern_ops сравнивает строки побайтно.
+-- В H2 префиксный LIKE использует существующий уникальный индекс
+create index idx_user_table_username_pattern on user_table (username text_pattern_ops);
@@ -0,0 +1,49 @@
+package ru.n1str.otp;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.n1str.otp.models.User;
+import ru.n1str.otp.repository.UserRepository;
+import ru.n1str.otp.service.UserRoleService;
+
+//Контекст приложения для бенчмарков: H2 в памяти, без Telegram и журнала доступа
+//(уровни логирования — в src/perf/resources/logback-test.xml).
+//Настройки передаются как аргументы командной строки, чтобы перекрыть application.properties.
+//Каждый бенчмарк поднимает свой контекст с отдельной базой
+
+public final class BenchmarkContext {
+
+    private BenchmarkContext() {
+    }
+
+    public static ConfigurableApplicationContext start(String name) {
+        return new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.SERVLET)
+                .run(arguments(name));
+    }
+
+    public static String[] arguments(String name) {
+        return new String[]{
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1",
+                "--spring.datasource.driver-class-name=org.h2.Driver",
+                "--spring.datasource.username=sa",
+                "--spring.datasource.password=",
+                "--telegram.bot.enabled=false",
+                "--telegram.bot.username=benchmark",
+                "--telegram.bot.token=benchmark",
+                "--access-log.enabled=false",
+                "--spring.main.banner-mode=off"};
+    }
+
+    public static User createUser(ConfigurableApplicationContext context, String username) {
+        User user = User.builder()
+                .username(username)
+                .password("benchmark")
+                .enabled(true)
+                .build();
+        context.getBean(UserRoleService.class).assignRolesForNewUser(user);
+        return context.getBean(UserRepository.class).save(user);
+    }
+}
@@ -0,0 +1,156 @@
+package ru.n1str.otp.dao;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.n1str.otp.BenchmarkContext;
+import ru.n1str.otp.models.OtpCode;
+import ru.n1str.otp.models.OtpStatus;
+import ru.n1str.otp.models.User;
+import ru.n1str.otp.repository.OtpCodeRepository;
+import ru.n1str.otp.service.RoleService;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Массовая вставка кодов и пользователей: идентификаторы блоками из последовательности (pooled-lo)
+//с пакетной вставкой против прежней схемы — обращение к последовательности и отдельный INSERT на строку.
+//Коды: OtpCodeJdbcDao.saveAll (batchUpdate) и JPA saveAll (hibernate.jdbc.batch_size) против построчного INSERT.
+//Пользователи: UserJdbcDao.insertAll, как в импорте, против построчных INSERT пользователя и роли.
+//На H2 в памяти без сетевых задержек разница в пределах погрешности; на PostgreSQL по сети не измерялась
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulkInsertBenchmark {
+    private static final int ROWS = 1000;
+
+    private final AtomicLong usernames = new AtomicLong();
+    private ConfigurableApplicationContext context;
+    private OtpCodeJdbcDao otpCodeDao;
+    private OtpCodeRepository otpCodeRepository;
+    private UserJdbcDao userJdbcDao;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private User user;
+    private long roleId;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkContext.start("bulk-insert-benchmark");
+        otpCodeDao = context.getBean(OtpCodeJdbcDao.class);
+        otpCodeRepository = context.getBean(OtpCodeRepository.class);
+        userJdbcDao = context.getBean(UserJdbcDao.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+        transactionTemplate = context.getBean(TransactionTemplate.class);
+        user = BenchmarkContext.createUser(context, "benchmark");
+        roleId = context.getBean(RoleService.class).findRole("USER").getId();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<OtpCode> issueCodesBatched() {
+        return otpCodeDao.saveAll(newCodes());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<OtpCode> issueCodesJpaBatched() {
+        List<OtpCode> codes = newCodes();
+        return transactionTemplate.execute(status -> otpCodeRepository.saveAll(codes));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int issueCodesRowByRow() {
+        List<OtpCode> codes = newCodes();
+        return transactionTemplate.execute(status -> {
+            for (OtpCode otpCode : codes) {
+                long id = nextValue("otp_code_seq");
+                jdbcTemplate.update("INSERT INTO otp_code (id, code, status, created_at, expires_at, user_id, " +
+                                "operation_id, channel, updated_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)",
+                        id, otpCode.getCode(), otpCode.getStatus().name(), Timestamp.valueOf(otpCode.getCreatedAt()),
+                        Timestamp.valueOf(otpCode.getExpiresAt()), user.getId(), otpCode.getOperationId(),
+                        otpCode.getChannel().name());
+            }
+            return codes.size();
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<Long> importUsersBatched() {
+        return userJdbcDao.insertAll(newUsers(), roleId);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int importUsersRowByRow() {
+        List<UserJdbcDao.NewUser> users = newUsers();
+        return transactionTemplate.execute(status -> {
+            for (UserJdbcDao.NewUser newUser : users) {
+                long id = nextValue("user_table_seq");
+                jdbcTemplate.update("INSERT INTO user_table (id, username, password, enabled, account_non_expired, " +
+                                "account_non_locked, credentials_non_expired) VALUES (?, ?, ?, TRUE, TRUE, TRUE, TRUE)",
+                        id, newUser.username(), newUser.passwordHash());
+                jdbcTemplate.update("INSERT INTO m2m_role_table (user_id, roles_id) VALUES (?, ?)", id, roleId);
+            }
+            return users.size();
+        });
+    }
+
+    private long nextValue(String sequence) {
+        Long id = jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR " + sequence, Long.class);
+        return id != null ? id : 0;
+    }
+
+    private List<OtpCode> newCodes() {
+        LocalDateTime now = LocalDateTime.now();
+        List<OtpCode> codes = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            OtpCode otpCode = new OtpCode();
+            otpCode.setCode("123456");
+            otpCode.setStatus(OtpStatus.USED);
+            otpCode.setChannel(OtpCode.OtpChannel.SMS);
+            otpCode.setCreatedAt(now);
+            otpCode.setExpiresAt(now.plusMinutes(5));
+            otpCode.setUser(user);
+            otpCode.setOperationId(UUID.randomUUID().toString());
+            codes.add(otpCode);
+        }
+        return codes;
+    }
+
+    private List<UserJdbcDao.NewUser> newUsers() {
+        List<UserJdbcDao.NewUser> users = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            users.add(new UserJdbcDao.NewUser("bulk-" + usernames.incrementAndGet(), "{noop}benchmark"));
+        }
+        return users;
+    }
+}
@@ -0,0 +1,83 @@
+package ru.n1str.otp.dao;
+
+import org.h2.tools.SimpleResultSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.n1str.otp.models.User;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+//Разбор строк выборки без обращения к БД: ResultSet в памяти (H2 SimpleResultSet)
+//с теми же колонками, что возвращают запросы OtpCodeJdbcDao
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OtpCodeRowMapperBenchmark {
+    private static final int ROWS = 1000;
+
+    private SimpleResultSet resultSet;
+    private User user;
+
+    @Setup
+    public void setUp() {
+        resultSet = new SimpleResultSet();
+        resultSet.setAutoClose(false);
+        resultSet.addColumn("id", Types.BIGINT, 19, 0);
+        resultSet.addColumn("user_id", Types.BIGINT, 19, 0);
+        resultSet.addColumn("username", Types.VARCHAR, 255, 0);
+        resultSet.addColumn("code", Types.VARCHAR, 255, 0);
+        resultSet.addColumn("status", Types.VARCHAR, 255, 0);
+        resultSet.addColumn("channel", Types.VARCHAR, 255, 0);
+        resultSet.addColumn("created_at", Types.TIMESTAMP, 26, 6);
+        resultSet.addColumn("expires_at", Types.TIMESTAMP, 26, 6);
+        resultSet.addColumn("updated_at", Types.TIMESTAMP, 26, 6);
+        resultSet.addColumn("operation_id", Types.VARCHAR, 255, 0);
+
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < ROWS; i++) {
+            LocalDateTime created = now.minusSeconds(ROWS - i);
+            resultSet.addRow((long) i + 1, (long) (i % 50) + 1, "user" + (i % 50), "123456",
+                    i % 3 == 0 ? "USED" : "EXPIRED", i % 2 == 0 ? "SMS" : "EMAIL",
+                    Timestamp.valueOf(created), Timestamp.valueOf(created.plusMinutes(5)),
+                    Timestamp.valueOf(created), UUID.randomUUID().toString());
+        }
+        user = User.builder().id(1L).username("user0").build();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void mapExportRow(Blackhole blackhole) throws SQLException {
+        resultSet.beforeFirst();
+        while (resultSet.next()) {
+            blackhole.consume(OtpCodeJdbcDao.mapExportRow(resultSet));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void mapOtpCode(Blackhole blackhole) throws SQLException {
+        resultSet.beforeFirst();
+        while (resultSet.next()) {
+            blackhole.consume(OtpCodeJdbcDao.mapOtpCode(resultSet, user));
+        }
+    }
+}
@@ -0,0 +1,520 @@
+package ru.n1str.otp.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.n1str.otp.Application;
+import ru.n1str.otp.BenchmarkContext;
+import ru.n1str.otp.models.OtpCode;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+//Нагрузочный прогон одного узла. Приложение поднимается в этом же процессе на H2 с заглушками каналов
+//(StubChannels), сценарии отправляются HttpClient на виртуальных потоках с заданной интенсивностью
+//прихода (открытая модель: новый сценарий запускается по расписанию независимо от ответов).
+//
+//Сценарий: [регистрация] → вход (/api/jwt/auth) → отправка кода по email или SMS → проверка кода.
+//Интенсивность задаётся ступенями (--rates=10,20,40), по каждой ступени печатаются пропускная способность,
+//перцентили задержки и доля ошибок по эндпоинтам; полный отчёт пишется в JSON (--out).
+//Задержка "scenario" считается от запланированного момента старта, поэтому включает ожидание в очередях.
+//Ошибка со статусом 0 у "scenario" — сценарий дошёл до конца, но правильный код не принят.
+//
+//Режим --burst=N вместо ступеней отправляет N одновременных запросов на отправку SMS и снимает пики памяти
+//и потоков; запуск с --app.spring.threads.virtual.enabled=true и без него сравнивает модели выполнения
+
+public class LoadHarness {
+    private static final String PASSWORD = "load-test-password";
+    private static final String SCENARIO = "scenario";
+
+    private final Options options;
+    private final StubChannels stubs;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final BlockingQueue<Account> idleAccounts = new LinkedBlockingQueue<>();
+    private final AtomicLong accountSequence = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private HttpClient client;
+    private String baseUrl;
+
+    LoadHarness(Options options) {
+        this.options = options;
+        Map<OtpCode.OtpChannel, StubChannels.Latency> latencies = new EnumMap<>(OtpCode.OtpChannel.class);
+        latencies.put(OtpCode.OtpChannel.SMS, options.latency("sms-latency", "200:50:0"));
+        latencies.put(OtpCode.OtpChannel.EMAIL, options.latency("email-latency", "300:100:0"));
+        latencies.put(OtpCode.OtpChannel.TELEGRAM, options.latency("telegram-latency", "100:20:0"));
+        latencies.put(OtpCode.OtpChannel.FILE, new StubChannels.Latency(0, 0, 0));
+        this.stubs = new StubChannels(latencies);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadHarness(Options.parse(args)).run();
+        System.exit(0);
+    }
+
+    void run() throws Exception {
+        List<String> arguments = new ArrayList<>(Arrays.asList(BenchmarkContext.arguments("load")));
+        arguments.addAll(options.applicationArguments());
+
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+                .initializers(stubs)
+                .run(arguments.toArray(String[]::new));
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+
+            baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+            client = HttpClient.newBuilder()
+                    .executor(executor)
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .build();
+
+            preRegister(options.integer("users", 100));
+
+            int burst = options.integer("burst", 0);
+            if (burst > 0) {
+                Map<String, Object> result = runBurst(burst);
+                result.put("virtualThreads", context.getEnvironment()
+                        .getProperty("spring.threads.virtual.enabled", Boolean.class, false));
+                writeReport(List.of(result));
+                return;
+            }
+
+            List<Integer> rates = Arrays.stream(options.string("rates", "10,20,40").split(","))
+                    .map(rate -> Integer.parseInt(rate.trim()))
+                    .toList();
+            Duration warmup = options.duration("warmup", "10s");
+            if (!warmup.isZero()) {
+                System.out.printf("Прогрев: %d сценариев/с, %s%n", rates.get(0), warmup);
+                runStep(rates.get(0), warmup);
+            }
+
+            List<Map<String, Object>> report = new ArrayList<>();
+            Duration stepDuration = options.duration("step", "30s");
+            for (int rate : rates) {
+                report.add(runStep(rate, stepDuration));
+            }
+
+            printSaturation(report);
+            writeReport(report);
+        }
+    }
+
+    //Одна ступень: сценарии запускаются каждые 1/rate секунды в течение duration,
+    //затем ожидается завершение начатых сценариев
+
+    private Map<String, Object> runStep(int rate, Duration duration) throws InterruptedException {
+        LoadStats stats = new LoadStats();
+        long interval = 1_000_000_000L / rate;
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        int maxInFlight = options.integer("max-in-flight", 10_000);
+        long arrivals = 0;
+        long dropped = 0;
+
+        for (long next = start; next < end; next += interval) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            arrivals++;
+            if (inFlight.get() >= maxInFlight) {
+                dropped++;
+                continue;
+            }
+            inFlight.incrementAndGet();
+            long intendedStart = next;
+            Thread.ofVirtual().start(() -> {
+                try {
+                    scenario(stats, intendedStart);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+
+        long drainDeadline = System.nanoTime() + options.duration("drain-timeout", "60s").toNanos();
+        while (inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(50);
+        }
+
+        double seconds = duration.toNanos() / 1e9;
+        Map<String, LoadStats.Summary> endpoints = stats.summarize(seconds);
+        print(rate, arrivals, dropped, endpoints);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("targetRate", rate);
+        result.put("durationSeconds", seconds);
+        result.put("arrivals", arrivals);
+        result.put("dropped", dropped);
+        result.put("unfinished", inFlight.get());
+        result.put("endpoints", endpoints);
+        return result;
+    }
+
+    //Пачка из concurrency одновременных отправок SMS (закрытая модель): все запросы стартуют вместе,
+    //пропускная способность — число завершённых запросов за время до последнего ответа.
+    //Параллельно раз в 50 мс снимаются занятая куча, число платформенных потоков и RSS процесса
+
+    private Map<String, Object> runBurst(int concurrency) throws InterruptedException {
+        List<String> tokens = new ArrayList<>();
+        LoadStats ignored = new LoadStats();
+        for (Account account : idleAccounts) {
+            try {
+                Response login = post(ignored, "login", "/api/jwt/auth", null,
+                        Map.of("username", account.username(), "password", PASSWORD));
+                if (login.status() == 200) {
+                    tokens.add(login.json().path("token").asText());
+                }
+            } catch (IOException e) {
+                System.err.println("Не удалось войти: " + e.getMessage());
+            }
+        }
+        if (tokens.isEmpty()) {
+            throw new IllegalStateException("Нет ни одного пользователя для отправки");
+        }
+
+        System.out.printf("Пачка из %d одновременных отправок SMS от %d пользователей...%n", concurrency, tokens.size());
+        LoadStats stats = new LoadStats();
+        MemorySampler sampler = new MemorySampler();
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            String token = tokens.get(i % tokens.size());
+            String phone = "+7901" + i;
+            threads.add(Thread.ofVirtual().start(() -> {
+                try {
+                    go.await();
+                    post(stats, "POST /api/otp/send-sms", "/api/otp/send-sms", token, Map.of("phone", phone));
+                } catch (IOException e) {
+                    // Ошибка уже учтена в статистике со статусом -1
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+
+        Thread samplerThread = Thread.ofPlatform().daemon().start(sampler);
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        sampler.stop();
+        samplerThread.join();
+
+        Map<String, LoadStats.Summary> endpoints = stats.summarize(seconds);
+        print(concurrency, concurrency, 0, endpoints);
+        System.out.printf("Время: %.1f с; пик кучи: %d МБ; пик платформенных потоков: %d; пик RSS: %d МБ%n",
+                seconds, sampler.peakHeapBytes >> 20, sampler.peakThreads, sampler.peakRssBytes >> 20);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("burst", concurrency);
+        result.put("durationSeconds", seconds);
+        result.put("peakHeapBytes", sampler.peakHeapBytes);
+        result.put("peakPlatformThreads", sampler.peakThreads);
+        result.put("peakRssBytes", sampler.peakRssBytes);
+        result.put("endpoints", endpoints);
+        return result;
+    }
+
+    private void scenario(LoadStats stats, long intendedStart) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        boolean ok = false;
+        Account account = null;
+        try {
+            account = random.nextDouble() < options.decimal("register-ratio", 0.1) ? null : idleAccounts.poll();
+            if (account == null) {
+                account = register(stats);
+                if (account == null) {
+                    return;
+                }
+            }
+
+            Response login = post(stats, "POST /api/jwt/auth", "/api/jwt/auth", null,
+                    Map.of("username", account.username(), "password", PASSWORD));
+            if (login.status() != 200) {
+                return;
+            }
+            String token = login.json().path("token").asText();
+
+            boolean sms = random.nextDouble() < options.decimal("sms-ratio", 0.5);
+            String destination = (sms ? "+7900" : "mail-") + account.username() + "-" + random.nextInt(1_000_000)
+                    + (sms ? "" : "@load.test");
+            Response send = sms
+                    ? post(stats, "POST /api/otp/send-sms", "/api/otp/send-sms", token, Map.of("phone", destination))
+                    : post(stats, "POST /api/otp/send-email", "/api/otp/send-email", token, Map.of("email", destination));
+            String code = stubs.takeCode(destination);
+            if (send.status() != 200 || code == null) {
+                return;
+            }
+
+            boolean wrongCode = random.nextDouble() < options.decimal("wrong-code-ratio", 0.05);
+            Response verify = post(stats, "POST /api/otp/verify", "/api/otp/verify", token,
+                    Map.of("code", wrongCode ? "wrong" : code));
+            ok = verify.status() == 200 && verify.json().path("success").asBoolean() != wrongCode;
+        } catch (IOException e) {
+            ok = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stats.record(SCENARIO, System.nanoTime() - intendedStart, ok ? 200 : 0);
+            if (account != null) {
+                idleAccounts.offer(account);
+            }
+        }
+    }
+
+    private Account register(LoadStats stats) throws IOException, InterruptedException {
+        String username = "load" + accountSequence.incrementAndGet();
+        Response response = post(stats, "POST /api/auth/register", "/api/auth/register", null,
+                Map.of("username", username, "password", PASSWORD));
+        return response.status() == 200 ? new Account(username) : null;
+    }
+
+    private void preRegister(int users) throws InterruptedException {
+        System.out.printf("Регистрация %d пользователей...%n", users);
+        LoadStats ignored = new LoadStats();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            threads.add(Thread.ofVirtual().start(() -> {
+                try {
+                    Account account = register(ignored);
+                    if (account != null) {
+                        idleAccounts.offer(account);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Не удалось зарегистрировать пользователя: " + e.getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private Response post(LoadStats stats, String endpoint, String path, String token, Map<String, String> body)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .timeout(options.duration("request-timeout", "30s"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(body)));
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+
+        long start = System.nanoTime();
+        try {
+            HttpResponse<String> response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+            stats.record(endpoint, System.nanoTime() - start, response.statusCode());
+            return new Response(response.statusCode(), response.body());
+        } catch (IOException e) {
+            stats.record(endpoint, System.nanoTime() - start, -1);
+            throw e;
+        }
+    }
+
+    private void print(int rate, long arrivals, long dropped, Map<String, LoadStats.Summary> endpoints) {
+        System.out.printf("%nСтупень %d сценариев/с: запущено %d, отброшено %d%n", rate, arrivals, dropped);
+        System.out.printf("%-28s %8s %9s %7s %9s %9s %9s %9s %9s%n",
+                "endpoint", "requests", "req/s", "err%", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        endpoints.forEach((name, s) -> System.out.printf("%-28s %8d %9.1f %7.2f %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+                name, s.requests(), s.throughput(), s.errorRate() * 100,
+                s.p50Millis(), s.p90Millis(), s.p99Millis(), s.p999Millis(), s.maxMillis()));
+    }
+
+    //Точка насыщения: первая ступень, где сценарии не успевают за заданной интенсивностью,
+    //p99 сценария выше --slo-p99-ms или доля ошибок выше --slo-error-rate
+
+    @SuppressWarnings("unchecked")
+    private void printSaturation(List<Map<String, Object>> report) {
+        double sloP99 = options.decimal("slo-p99-ms", 1000);
+        double sloErrors = options.decimal("slo-error-rate", 0.01);
+        for (Map<String, Object> step : report) {
+            LoadStats.Summary scenario = ((Map<String, LoadStats.Summary>) step.get("endpoints")).get(SCENARIO);
+            int rate = (int) step.get("targetRate");
+            boolean saturated = scenario == null
+                    || (long) step.get("dropped") > 0
+                    || (int) step.get("unfinished") > 0
+                    || scenario.throughput() < rate * 0.95
+                    || scenario.p99Millis() > sloP99
+                    || scenario.errorRate() > sloErrors;
+            if (saturated) {
+                System.out.printf("%nНасыщение на %d сценариях/с (p99 ≤ %.0f мс, ошибок ≤ %.1f%%)%n",
+                        rate, sloP99, sloErrors * 100);
+                return;
+            }
+        }
+        System.out.printf("%nНасыщение не достигнуто: все ступени уложились в p99 ≤ %.0f мс и ошибки ≤ %.1f%%%n",
+                sloP99, sloErrors * 100);
+    }
+
+    private void writeReport(List<Map<String, Object>> steps) throws IOException {
+        Path out = Path.of(options.string("out", "target/load-report.json"));
+        if (out.getParent() != null) {
+            Files.createDirectories(out.getParent());
+        }
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("options", options.values());
+        report.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        report.put("steps", steps);
+        mapper.writerWithDefaultPrettyPrinter().writeValue(out.toFile(), report);
+        System.out.println("Отчёт сохранён в " + out.toAbsolutePath());
+    }
+
+    private record Account(String username) {
+    }
+
+    //Пиковые значения памяти и потоков процесса. RSS читается из /proc/self/status (только Linux, иначе 0)
+
+    private static final class MemorySampler implements Runnable {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private volatile boolean running = true;
+        private long peakHeapBytes;
+        private int peakThreads;
+        private long peakRssBytes;
+
+        @Override
+        public void run() {
+            while (running) {
+                peakHeapBytes = Math.max(peakHeapBytes, memory.getHeapMemoryUsage().getUsed());
+                peakThreads = Math.max(peakThreads, threads.getThreadCount());
+                peakRssBytes = Math.max(peakRssBytes, rssBytes());
+                LockSupport.parkNanos(50_000_000L);
+            }
+        }
+
+        void stop() {
+            running = false;
+        }
+
+        private static long rssBytes() {
+            try {
+                for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                    if (line.startsWith("VmRSS:")) {
+                        return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                return 0;
+            }
+            return 0;
+        }
+    }
+
+    private final class Response {
+        private final int status;
+        private final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        int status() {
+            return status;
+        }
+
+        JsonNode json() throws IOException {
+            return mapper.readTree(body);
+        }
+    }
+
+    //Параметры вида --name=value. Параметры с префиксом app. передаются приложению без префикса
+    //(например, --app.server.tomcat.threads.max=400)
+
+    static final class Options {
+        private final Map<String, String> values;
+
+        private Options(Map<String, String> values) {
+            this.values = values;
+        }
+
+        static Options parse(String[] args) {
+            Map<String, String> values = new LinkedHashMap<>();
+            for (String arg : args) {
+                if (!arg.startsWith("--") || !arg.contains("=")) {
+                    throw new IllegalArgumentException("Ожидается --name=value: " + arg);
+                }
+                int eq = arg.indexOf('=');
+                values.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+            return new Options(values);
+        }
+
+        Map<String, String> values() {
+            return values;
+        }
+
+        String string(String name, String defaultValue) {
+            return values.getOrDefault(name, defaultValue);
+        }
+
+        int integer(String name, int defaultValue) {
+            return values.containsKey(name) ? Integer.parseInt(values.get(name)) : defaultValue;
+        }
+
+        double decimal(String name, double defaultValue) {
+            return values.containsKey(name) ? Double.parseDouble(values.get(name)) : defaultValue;
+        }
+
+        Duration duration(String name, String defaultValue) {
+            String value = string(name, defaultValue).trim().toLowerCase();
+            if (value.endsWith("ms")) {
+                return Duration.ofMillis(Long.parseLong(value.substring(0, value.length() - 2)));
+            }
+            if (value.endsWith("m")) {
+                return Duration.ofMinutes(Long.parseLong(value.substring(0, value.length() - 1)));
+            }
+            if (value.endsWith("s")) {
+                return Duration.ofSeconds(Long.parseLong(value.substring(0, value.length() - 1)));
+            }
+            return Duration.ofSeconds(Long.parseLong(value));
+        }
+
+        //Задержка канала в формате mean:jitter:failureRate, миллисекунды
+
+        StubChannels.Latency latency(String name, String defaultValue) {
+            String[] parts = string(name, defaultValue).split(":");
+            return new StubChannels.Latency(Long.parseLong(parts[0]),
+                    parts.length > 1 ? Long.parseLong(parts[1]) : 0,
+                    parts.length > 2 ? Double.parseDouble(parts[2]) : 0);
+        }
+
+        List<String> applicationArguments() {
+            List<String> arguments = new ArrayList<>();
+            values.forEach((name, value) -> {
+                if (name.startsWith("app.")) {
+                    arguments.add("--" + name.substring(4) + "=" + value);
+                }
+            });
+            return arguments;
+        }
+    }
+}
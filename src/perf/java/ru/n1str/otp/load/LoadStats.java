@@ -0,0 +1,73 @@
+package ru.n1str.otp.load;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+//Статистика одной ступени нагрузки по эндпоинтам: число запросов, ошибки по статусам и задержки.
+//Задержки хранятся целиком (в микросекундах), перцентили считаются по отсортированному массиву в конце ступени
+
+class LoadStats {
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    void record(String endpoint, long latencyNanos, int status) {
+        endpoints.computeIfAbsent(endpoint, name -> new Endpoint()).record(latencyNanos, status);
+    }
+
+    Map<String, Summary> summarize(double seconds) {
+        Map<String, Summary> result = new LinkedHashMap<>();
+        endpoints.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> result.put(entry.getKey(), entry.getValue().summarize(seconds)));
+        return result;
+    }
+
+    record Summary(long requests, long errors, double throughput, double errorRate,
+                   double p50Millis, double p90Millis, double p99Millis, double p999Millis, double maxMillis,
+                   Map<Integer, Long> errorsByStatus) {
+    }
+
+    private static final class Endpoint {
+        private final LongAdder errors = new LongAdder();
+        private final Map<Integer, LongAdder> errorsByStatus = new ConcurrentHashMap<>();
+        private long[] latencies = new long[4096];
+        private int size;
+
+        void record(long latencyNanos, int status) {
+            if (status < 200 || status >= 300) {
+                errors.increment();
+                errorsByStatus.computeIfAbsent(status, code -> new LongAdder()).increment();
+            }
+            synchronized (this) {
+                if (size == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, size * 2);
+                }
+                latencies[size++] = latencyNanos / 1000;
+            }
+        }
+
+        synchronized Summary summarize(double seconds) {
+            long[] sorted = Arrays.copyOf(latencies, size);
+            Arrays.sort(sorted);
+            long errorCount = errors.sum();
+            Map<Integer, Long> byStatus = new LinkedHashMap<>();
+            errorsByStatus.entrySet().stream()
+                    .sorted(Map.Entry.comparingByKey())
+                    .forEach(entry -> byStatus.put(entry.getKey(), entry.getValue().sum()));
+            return new Summary(size, errorCount, size / seconds, size > 0 ? (double) errorCount / size : 0,
+                    percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                    percentile(sorted, 0.999), sorted.length > 0 ? sorted[sorted.length - 1] / 1000.0 : 0,
+                    byStatus);
+        }
+
+        private static double percentile(long[] sorted, double quantile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(quantile * sorted.length) - 1;
+            return sorted[Math.max(index, 0)] / 1000.0;
+        }
+    }
+}
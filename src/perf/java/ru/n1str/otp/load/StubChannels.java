@@ -0,0 +1,137 @@
+package ru.n1str.otp.load;
+
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.core.Ordered;
+import ru.n1str.otp.models.OtpCode;
+import ru.n1str.otp.repository.UserRepository;
+import ru.n1str.otp.service.EmailService;
+import ru.n1str.otp.service.SmsService;
+import ru.n1str.otp.service.TelegramBotService;
+import ru.n1str.otp.service.TelegramLinkService;
+import ru.n1str.otp.utils.OTPGenerator;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+//Заглушки каналов доставки для нагрузочного прогона. Регистрируются как @Primary-бины поверх настоящих
+//сервисов, вместо отправки ждут заданную задержку (с разбросом) и с заданной вероятностью падают.
+//Заглушки идут первыми по порядку, поэтому ChannelDispatcher выбирает их для своих каналов: ожидание
+//идёт на пулах каналов, и прогон учитывает их размер, очередь, таймаут и выключатель.
+//Доставленный код запоминается по адресу, чтобы сценарий мог его проверить
+
+public class StubChannels implements ApplicationContextInitializer<GenericApplicationContext> {
+    private final Map<OtpCode.OtpChannel, Latency> latencies;
+    private final Map<String, String> delivered = new ConcurrentHashMap<>();
+
+    public StubChannels(Map<OtpCode.OtpChannel, Latency> latencies) {
+        this.latencies = latencies;
+    }
+
+    @Override
+    public void initialize(GenericApplicationContext context) {
+        context.registerBean("stubSmsService", SmsService.class,
+                () -> new StubSmsService(this),
+                definition -> definition.setPrimary(true));
+        context.registerBean("stubEmailService", EmailService.class,
+                () -> new StubEmailService(this),
+                definition -> definition.setPrimary(true));
+        context.registerBean("stubTelegramBotService", TelegramBotService.class,
+                () -> new StubTelegramBotService(context, this),
+                definition -> definition.setPrimary(true));
+    }
+
+    //Забирает код, доставленный на адрес; null — если код не доставлен
+
+    public String takeCode(String destination) {
+        return delivered.remove(destination);
+    }
+
+    //Отправка заглушкой; вызывается на пуле канала в ChannelDispatcher, как у настоящих сервисов
+
+    void deliver(OtpCode.OtpChannel channel, String destination, String code) throws InterruptedException {
+        pause(channel);
+        delivered.put(destination, code);
+    }
+
+    private void pause(OtpCode.OtpChannel channel) throws InterruptedException {
+        Latency latency = latencies.get(channel);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = latency.meanMillis() + (latency.jitterMillis() > 0
+                ? random.nextLong(-latency.jitterMillis(), latency.jitterMillis() + 1) : 0);
+        Thread.sleep(Math.max(delay, 0));
+        if (random.nextDouble() < latency.failureRate()) {
+            throw new IllegalStateException("Канал " + channel + " недоступен (заглушка)");
+        }
+    }
+
+    //Задержка канала: среднее, равномерный разброс ± jitter и доля отказов
+
+    public record Latency(long meanMillis, long jitterMillis, double failureRate) {
+    }
+
+    static class StubSmsService extends SmsService implements Ordered {
+        private final StubChannels channels;
+
+        StubSmsService(StubChannels channels) {
+            this.channels = channels;
+        }
+
+        @Override
+        public void sendCode(String phoneNumber, String code) throws InterruptedException {
+            channels.deliver(OtpCode.OtpChannel.SMS, phoneNumber, code);
+        }
+
+        @Override
+        public int getOrder() {
+            return Ordered.HIGHEST_PRECEDENCE;
+        }
+    }
+
+    static class StubEmailService extends EmailService implements Ordered {
+        private final StubChannels channels;
+
+        StubEmailService(StubChannels channels) {
+            this.channels = channels;
+        }
+
+        @Override
+        public void sendCode(String toEmail, String code) throws InterruptedException {
+            channels.deliver(OtpCode.OtpChannel.EMAIL, toEmail, code);
+        }
+
+        @Override
+        public int getOrder() {
+            return Ordered.HIGHEST_PRECEDENCE;
+        }
+    }
+
+    //Привязка Telegram идёт через бота, поэтому в сценарии Telegram не участвует;
+    //заглушка только перехватывает отправку, чтобы прогон не обращался к сети
+
+    static class StubTelegramBotService extends TelegramBotService implements Ordered {
+        private final StubChannels channels;
+
+        StubTelegramBotService(GenericApplicationContext context, StubChannels channels) {
+            super(context.getBean(TelegramLinkService.class), context.getBean(UserRepository.class), null,
+                    context.getBean(OTPGenerator.class), null, "load-test");
+            this.channels = channels;
+        }
+
+        @Override
+        public void sendCode(String chatIdStr, String code) throws InterruptedException {
+            channels.deliver(OtpCode.OtpChannel.TELEGRAM, chatIdStr, code);
+        }
+
+        @Override
+        public boolean sendOtpForUser(long chatId) {
+            return false;
+        }
+
+        @Override
+        public int getOrder() {
+            return Ordered.HIGHEST_PRECEDENCE;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package ru.n1str.otp.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.n1str.otp.models.OtpCode;
+import ru.n1str.otp.models.OtpExportRow;
+import ru.n1str.otp.models.OtpStatus;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+//Форматирование строк CSV-экспорта в Writer, который отбрасывает вывод
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CsvFormatBenchmark {
+    private static final int ROWS = 1000;
+
+    private final Writer writer = Writer.nullWriter();
+    private OtpDownloadService downloadService;
+    private OtpExportRow[] rows;
+
+    @Setup
+    public void setUp() {
+        downloadService = new OtpDownloadService(null, null, null, null);
+        rows = new OtpExportRow[ROWS];
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < ROWS; i++) {
+            LocalDateTime created = now.minusSeconds(ROWS - i);
+            rows[i] = new OtpExportRow(i + 1, i % 10 == 0 ? "user, \"quoted\"" : "user" + i, "123456",
+                    OtpStatus.USED, OtpCode.OtpChannel.SMS, created, created.plusMinutes(5),
+                    UUID.randomUUID().toString());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void userRows() throws IOException {
+        for (OtpExportRow row : rows) {
+            downloadService.appendCsvRow(writer, row, false);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void allUsersRows() throws IOException {
+        for (OtpExportRow row : rows) {
+            downloadService.appendCsvRow(writer, row, true);
+        }
+    }
+}
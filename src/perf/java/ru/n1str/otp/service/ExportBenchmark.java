@@ -0,0 +1,107 @@
+package ru.n1str.otp.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.n1str.otp.Application;
+import ru.n1str.otp.BenchmarkContext;
+import ru.n1str.otp.models.OtpExportFilter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//Полная CSV-выгрузка истории: ParallelExportService против последовательного чтения одним курсором.
+//База заполняется одним INSERT ... SELECT по SYSTEM_RANGE (миллионы строк за секунды, без JPA),
+//коды распределены по users пользователям. Вывод отбрасывается: измеряются чтение и форматирование.
+//Встроенный H2 по умолчанию собирает весь результат запроса в памяти до первой строки; lazyQueries=true
+//включает построчное чтение, как у курсора PostgreSQL, иначе последовательная выгрузка упирается в GC
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 3, jvmArgsAppend = "-Xmx3g")
+public class ExportBenchmark {
+    private static final int SEED_CHUNK = 250_000;
+
+    @Param({"2000000"})
+    public int rows;
+
+    @Param({"1000"})
+    public int users;
+
+    @Param({"true", "false"})
+    public boolean parallel;
+
+    @Param({"4"})
+    public int threads;
+
+    @Param({"true"})
+    public boolean lazyQueries;
+
+    private final Writer writer = Writer.nullWriter();
+    private ConfigurableApplicationContext context;
+    private OtpDownloadService downloadService;
+
+    @Setup
+    public void setUp() {
+        List<String> arguments = new ArrayList<>(Arrays.asList(BenchmarkContext.arguments("export-benchmark")));
+        arguments.removeIf(argument -> argument.startsWith("--spring.datasource.url="));
+        arguments.add("--spring.datasource.url=jdbc:h2:mem:export-benchmark;DB_CLOSE_DELAY=-1;LAZY_QUERY_EXECUTION="
+                + (lazyQueries ? 1 : 0));
+        arguments.add("--export.parallel.enabled=" + parallel);
+        arguments.add("--export.parallel.threads=" + threads);
+        context = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .run(arguments.toArray(String[]::new));
+        downloadService = context.getBean(OtpDownloadService.class);
+        seed(context.getBean(JdbcTemplate.class));
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public long exportAll() throws IOException {
+        return downloadService.writeAllOtpHistoryCsv(OtpExportFilter.all(), writer);
+    }
+
+    private void seed(JdbcTemplate jdbcTemplate) {
+        jdbcTemplate.update("INSERT INTO user_table (id, username, password, enabled, account_non_expired, "
+                + "account_non_locked, credentials_non_expired) "
+                + "SELECT x, 'user' || x, 'benchmark', TRUE, TRUE, TRUE, TRUE FROM SYSTEM_RANGE(1, ?)", users);
+        for (long from = 1; from <= rows; from += SEED_CHUNK) {
+            long to = Math.min(from + SEED_CHUNK - 1, rows);
+            jdbcTemplate.update("INSERT INTO otp_code (id, code, status, channel, created_at, expires_at, updated_at, "
+                    + "user_id, operation_id) "
+                    + "SELECT x, LPAD(CAST(MOD(x * 7919, 1000000) AS VARCHAR), 6, '0'), "
+                    + "CASE MOD(x, 3) WHEN 0 THEN 'ACTIVE' WHEN 1 THEN 'USED' ELSE 'EXPIRED' END, "
+                    + "CASE MOD(x, 4) WHEN 0 THEN 'SMS' WHEN 1 THEN 'EMAIL' WHEN 2 THEN 'TELEGRAM' ELSE 'FILE' END, "
+                    + "DATEADD(SECOND, x, TIMESTAMP '2025-01-01 00:00:00'), "
+                    + "DATEADD(SECOND, x + 300, TIMESTAMP '2025-01-01 00:00:00'), "
+                    + "DATEADD(SECOND, x, TIMESTAMP '2025-01-01 00:00:00'), "
+                    + "MOD(x, ?) + 1, 'op-' || x "
+                    + "FROM SYSTEM_RANGE(?, ?)", users, from, to);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package ru.n1str.otp.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.n1str.otp.BenchmarkContext;
+import ru.n1str.otp.models.OtpCode;
+import ru.n1str.otp.models.User;
+
+import java.util.concurrent.TimeUnit;
+
+//Выдача и проверка кода через OtpService на H2 в памяти (транзакции, JPA, метрики).
+//Канал FILE ничего не отправляет, поэтому измеряется только работа сервиса и БД
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OtpServiceBenchmark {
+    private ConfigurableApplicationContext context;
+    private OtpService otpService;
+    private User user;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkContext.start("otp-service-benchmark");
+        otpService = context.getBean(OtpService.class);
+        user = BenchmarkContext.createUser(context, "benchmark");
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public OtpCode issue() {
+        return otpService.generateAndSendOtp(user, OtpCode.OtpChannel.FILE, null);
+    }
+
+    @Benchmark
+    public boolean issueAndVerify() {
+        OtpCode otpCode = otpService.generateAndSendOtp(user, OtpCode.OtpChannel.FILE, null);
+        return otpService.verify(user, otpCode.getCode());
+    }
+
+    @Benchmark
+    public boolean verifyWrongCode() {
+        return otpService.verify(user, "-");
+    }
+}
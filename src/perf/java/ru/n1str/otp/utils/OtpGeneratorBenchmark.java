@@ -0,0 +1,41 @@
+package ru.n1str.otp.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+//Генерация кода: SecureRandom общий для всех потоков, поэтому есть вариант с 4 потоками
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OtpGeneratorBenchmark {
+    @Param({"6", "8"})
+    int length;
+
+    private final OTPGenerator generator = new OTPGenerator();
+
+    @Benchmark
+    public String generate() {
+        return generator.generateOTP(length);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String generateContended() {
+        return generator.generateOTP(length);
+    }
+}
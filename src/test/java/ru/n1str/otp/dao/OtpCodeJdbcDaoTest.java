@@ -0,0 +1,104 @@
+package ru.n1str.otp.dao;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import ru.n1str.otp.models.ExportCursor;
+import ru.n1str.otp.models.OtpCode;
+import ru.n1str.otp.models.OtpExportFilter;
+import ru.n1str.otp.models.OtpStatus;
+import ru.n1str.otp.models.User;
+import ru.n1str.otp.repository.UserRepository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//updated_at и граница дельта-выгрузки считаются по часам БД, а не экземпляра приложения;
+//пакетная вставка кодов берёт идентификаторы из пула
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = "spring.datasource.url=jdbc:h2:mem:otp-code-dao;DB_CLOSE_DELAY=-1")
+@ActiveProfiles("test")
+class OtpCodeJdbcDaoTest {
+    @Autowired
+    private OtpCodeJdbcDao otpCodeDao;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void statusChangeTakesTimestampFromDatabase() {
+        OtpCode code = otpCodeDao.save(newCode(newUser("dao-status")));
+        LocalDateTime past = LocalDateTime.of(2020, 1, 1, 0, 0);
+        jdbcTemplate.update("UPDATE otp_code SET updated_at = ? WHERE id = ?", Timestamp.valueOf(past), code.getId());
+
+        code.setStatus(OtpStatus.USED);
+        otpCodeDao.save(code);
+
+        assertTrue(updatedAt(code).isAfter(past));
+    }
+
+    @Test
+    void deltaEndSkipsChangesInsideSafetyLag() throws InterruptedException {
+        User user = newUser("dao-delta");
+        OtpCode code = otpCodeDao.save(newCode(user));
+        OtpExportFilter filter = new OtpExportFilter(user.getId(), null, null, null, null);
+        Thread.sleep(20);
+
+        assertTrue(otpCodeDao.findDeltaEnd(filter, ExportCursor.START, 3600).isEmpty());
+        Optional<ExportCursor> end = otpCodeDao.findDeltaEnd(filter, ExportCursor.START, 0);
+        assertEquals(code.getId(), end.map(ExportCursor::id).orElseThrow());
+        assertEquals(updatedAt(code), end.get().updatedAt());
+    }
+
+    @Test
+    void saveAllInsertsCodesWithPooledIds() {
+        User user = newUser("dao-batch");
+        List<OtpCode> codes = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            codes.add(newCode(user));
+        }
+
+        otpCodeDao.saveAll(codes);
+
+        assertEquals(120, codes.stream().map(OtpCode::getId).distinct().count());
+        assertEquals(120, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM otp_code WHERE user_id = ? AND updated_at IS NOT NULL", Long.class, user.getId()));
+    }
+
+    @Test
+    void nonPositiveLimitIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new OtpExportFilter(null, null, null, null, 0));
+        assertThrows(IllegalArgumentException.class, () -> new OtpExportFilter(null, null, null, null, -5));
+    }
+
+    private User newUser(String username) {
+        return userRepository.save(User.builder().username(username).password("x").enabled(true).build());
+    }
+
+    private static OtpCode newCode(User user) {
+        OtpCode code = new OtpCode();
+        code.setCode("123456");
+        code.setStatus(OtpStatus.ACTIVE);
+        code.setChannel(OtpCode.OtpChannel.SMS);
+        code.setCreatedAt(LocalDateTime.now());
+        code.setExpiresAt(LocalDateTime.now().plusMinutes(5));
+        code.setUser(user);
+        return code;
+    }
+
+    private LocalDateTime updatedAt(OtpCode code) {
+        return jdbcTemplate.queryForObject("SELECT updated_at FROM otp_code WHERE id = ?", Timestamp.class, code.getId())
+                .toLocalDateTime();
+    }
+}
@@ -0,0 +1,260 @@
+package ru.n1str.otp.dao;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.n1str.otp.models.ExportCursor;
+import ru.n1str.otp.models.OtpCode;
+import ru.n1str.otp.models.OtpExportFilter;
+import ru.n1str.otp.models.OtpStatus;
+import ru.n1str.otp.models.User;
+import ru.n1str.otp.repository.OtpCodeRepository;
+import ru.n1str.otp.repository.OtpConfigurationRepository;
+import ru.n1str.otp.repository.RoleRepository;
+import ru.n1str.otp.repository.UserRepository;
+import ru.n1str.otp.service.RoleService;
+import ru.n1str.otp.service.UserRoleService;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//Планы запросов, которые реально выполняют OtpCodeJdbcDao, UserJdbcDao и репозитории JPA, на H2 после миграций Flyway.
+//SQL перехватывается на уровне JDBC (обёртка над DataSource), поэтому проверяются и собранные динамически запросы
+//экспорта, и запросы, которые Hibernate строит по именам методов. Любой полный просмотр таблицы — падение теста.
+//Не вызываются только полная выгрузка всех пользователей без фильтра и её подсчёт: они читают всю таблицу по смыслу
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = "spring.datasource.url=jdbc:h2:mem:query-plan;DB_CLOSE_DELAY=-1")
+@ActiveProfiles("test")
+@Import(QueryPlanTest.RecordingConfiguration.class)
+class QueryPlanTest {
+    private static final List<String> RECORDED = new CopyOnWriteArrayList<>();
+    private static volatile boolean recording;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private OtpCodeJdbcDao otpCodeDao;
+
+    @Autowired
+    private UserJdbcDao userJdbcDao;
+
+    @Autowired
+    private OtpCodeRepository otpCodeRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private RoleRepository roleRepository;
+
+    @Autowired
+    private OtpConfigurationRepository otpConfigurationRepository;
+
+    @Autowired
+    private RoleService roleService;
+
+    @Autowired
+    private UserRoleService userRoleService;
+
+    private User user;
+    private OtpCode code;
+
+    @BeforeEach
+    void setUp() {
+        User newUser = User.builder().username("plan-" + System.nanoTime()).password("x").enabled(true).build();
+        userRoleService.assignRolesForNewUser(newUser);
+        user = userRepository.save(newUser);
+        code = otpCodeDao.save(newCode(user));
+        RECORDED.clear();
+    }
+
+    @Test
+    void otpCodeDaoQueries() {
+        OtpExportFilter userFilter = new OtpExportFilter(user.getId(), LocalDateTime.of(2020, 1, 1, 0, 0),
+                LocalDateTime.of(2100, 1, 1, 0, 0), null, null);
+        OtpExportFilter userPage = new OtpExportFilter(user.getId(), null, null, 0L, 10);
+        OtpExportFilter allPage = new OtpExportFilter(null, null, null, 0L, 10);
+        ExportCursor upTo = new ExportCursor(LocalDateTime.of(2100, 1, 1, 0, 0), Long.MAX_VALUE);
+
+        List<String> sql = record(() -> {
+            code.setStatus(OtpStatus.USED);
+            otpCodeDao.save(code);
+            otpCodeDao.findByUserAndCodeAndStatus(user, "123456", OtpStatus.ACTIVE);
+            otpCodeDao.findByUserAndStatus(user, OtpStatus.ACTIVE);
+            otpCodeDao.findExpiredActiveCodes();
+            otpCodeDao.expireActiveBatch(LocalDateTime.now(), 10);
+            otpCodeDao.forEachExportRow(userFilter, row -> { });
+            otpCodeDao.forEachExportRow(userPage, row -> { });
+            otpCodeDao.forEachExportRow(allPage, row -> { });
+            otpCodeDao.forEachExportRow(OtpExportFilter.all(), 0, 1000, row -> { });
+            otpCodeDao.findDeltaEnd(userPage, ExportCursor.START, 0);
+            otpCodeDao.findDeltaEnd(OtpExportFilter.all(), ExportCursor.START, 0);
+            otpCodeDao.forEachDeltaRow(userFilter, ExportCursor.START, upTo, row -> { });
+            otpCodeDao.forEachDeltaRow(OtpExportFilter.all(), ExportCursor.START, upTo, row -> { });
+            otpCodeDao.findLastChange(user.getId());
+            otpCodeDao.findExportIdRange(userFilter);
+            otpCodeDao.findExportIdRange(OtpExportFilter.all());
+            otpCodeDao.countExportRows(userFilter);
+            otpCodeDao.countActiveCodes();
+            otpCodeDao.deleteBatchByUserIds(List.of(user.getId()), 10);
+            otpCodeDao.deleteByUser(user);
+        });
+
+        assertTrue(sql.size() >= 15, () -> "Перехвачено слишком мало запросов: " + sql);
+        sql.forEach(this::assertNoTableScan);
+    }
+
+    @Test
+    void userDaoQueries() {
+        long userRoleId = roleService.findRole("USER").getId();
+        long adminRoleId = roleService.findRole("ADMIN").getId();
+
+        List<String> sql = record(() -> {
+            userJdbcDao.findExistingUsernames(List.of(user.getUsername(), "missing"));
+            userJdbcDao.findUserPage(0, null, adminRoleId, 10);
+            userJdbcDao.findUserPage(0, "plan-", adminRoleId, 10);
+            userJdbcDao.findDeletableByPrefix(0, "plan-", adminRoleId, 10);
+            userJdbcDao.countDeletableByPrefix("plan-", adminRoleId);
+            userJdbcDao.findDeletableByIds(List.of(user.getId()), adminRoleId);
+            userJdbcDao.deleteUsers(List.of(user.getId()));
+        });
+
+        assertTrue(userRoleId > 0);
+        assertTrue(sql.size() >= 7, () -> "Перехвачено слишком мало запросов: " + sql);
+        sql.forEach(this::assertNoTableScan);
+    }
+
+    @Test
+    void repositoryQueries() {
+        List<String> sql = record(() -> transactionTemplate.executeWithoutResult(status -> {
+            otpCodeRepository.findByUserAndStatus(user, OtpStatus.ACTIVE);
+            otpCodeRepository.findByUserAndCodeAndStatus(user, "123456", OtpStatus.ACTIVE);
+            otpCodeRepository.updateStatus(List.of(code.getId()), OtpStatus.EXPIRED);
+            otpCodeRepository.findById(code.getId());
+            userRepository.findByUsername(user.getUsername());
+            userRepository.existsByUsername(user.getUsername());
+            userRepository.existsByRoleUsersId(roleService.findRole("ADMIN").getId());
+            userRepository.findByTelegramLinkToken("token");
+            userRepository.findByTelegramChatId(42L);
+            roleRepository.findByNameRole("USER");
+            otpConfigurationRepository.findById(1L);
+        }));
+
+        assertTrue(sql.size() >= 10, () -> "Перехвачено слишком мало запросов: " + sql);
+        sql.forEach(this::assertNoTableScan);
+    }
+
+    // Уникальные SELECT, UPDATE и DELETE, выполненные за время action (вставки и последовательности не проверяются)
+    private static List<String> record(Runnable action) {
+        RECORDED.clear();
+        recording = true;
+        try {
+            action.run();
+        } finally {
+            recording = false;
+        }
+        Set<String> statements = new LinkedHashSet<>();
+        for (String sql : RECORDED) {
+            String head = sql.stripLeading().toUpperCase(Locale.ROOT);
+            if ((head.startsWith("SELECT") || head.startsWith("UPDATE") || head.startsWith("DELETE"))
+                    && !head.contains("NEXT VALUE FOR")) {
+                statements.add(sql);
+            }
+        }
+        return new ArrayList<>(statements);
+    }
+
+    private void assertNoTableScan(String sql) {
+        String plan = jdbcTemplate.queryForObject("EXPLAIN " + sql, String.class);
+        assertNotNull(plan);
+        assertFalse(plan.contains("tableScan"), () -> "Полный просмотр таблицы:\n" + sql + "\nплан:\n" + plan);
+    }
+
+    private static OtpCode newCode(User user) {
+        OtpCode otpCode = new OtpCode();
+        otpCode.setCode("123456");
+        otpCode.setStatus(OtpStatus.ACTIVE);
+        otpCode.setChannel(OtpCode.OtpChannel.SMS);
+        otpCode.setCreatedAt(LocalDateTime.now());
+        otpCode.setExpiresAt(LocalDateTime.now().plusMinutes(5));
+        otpCode.setUser(user);
+        otpCode.setOperationId("op-" + System.nanoTime());
+        return otpCode;
+    }
+
+    //Обёртка над DataSource: запоминает SQL, переданный в prepareStatement и Statement.execute*
+
+    @TestConfiguration
+    static class RecordingConfiguration {
+
+        @Bean
+        static BeanPostProcessor recordingDataSource() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    return bean instanceof DataSource dataSource
+                            ? proxy(DataSource.class, dataSource, RecordingConfiguration::connection)
+                            : bean;
+                }
+            };
+        }
+
+        private static Object connection(Object result) {
+            if (result instanceof Connection connection) {
+                return proxy(Connection.class, connection, RecordingConfiguration::statement);
+            }
+            return result;
+        }
+
+        private static Object statement(Object result) {
+            if (result instanceof Statement statement && !(result instanceof java.sql.PreparedStatement)) {
+                return proxy(Statement.class, statement, value -> value);
+            }
+            return result;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> T proxy(Class<T> type, T target, java.util.function.UnaryOperator<Object> wrapResult) {
+            return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+                String name = method.getName();
+                if (recording && args != null && args.length > 0 && args[0] instanceof String sql
+                        && (name.equals("prepareStatement") || name.startsWith("execute"))) {
+                    RECORDED.add(sql);
+                }
+                if (name.equals("unwrap") && args != null && args[0] instanceof Class<?> iface && iface.isInstance(target)) {
+                    return target;
+                }
+                try {
+                    return wrapResult.apply(method.invoke(target, args));
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            });
+        }
+    }
+}
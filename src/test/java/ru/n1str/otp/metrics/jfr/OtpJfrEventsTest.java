@@ -0,0 +1,112 @@
+package ru.n1str.otp.metrics.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import ru.n1str.otp.models.OtpCode;
+import ru.n1str.otp.models.OtpExportFilter;
+import ru.n1str.otp.models.User;
+import ru.n1str.otp.repository.UserRepository;
+import ru.n1str.otp.service.OtpDownloadService;
+import ru.n1str.otp.service.OtpService;
+import ru.n1str.otp.service.UserRoleService;
+
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//Запись JFR с настройками jfr/otp.jfc: события приложения должны попадать в файл записи
+//с заполненными полями
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {
+                "spring.datasource.url=jdbc:h2:mem:jfr-events;DB_CLOSE_DELAY=-1",
+                "otp.channel.send-timeout-ms=2000"
+        })
+@ActiveProfiles("test")
+class OtpJfrEventsTest {
+    @Autowired
+    private OtpService otpService;
+
+    @Autowired
+    private OtpDownloadService otpDownloadService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserRoleService userRoleService;
+
+    @TempDir
+    private Path tempDir;
+
+    @Test
+    void recordsApplicationEvents() throws Exception {
+        User newUser = User.builder().username("jfr-user").password("x").enabled(true).build();
+        userRoleService.assignRolesForNewUser(newUser);
+        User user = userRepository.save(newUser);
+        long userId = user.getId();
+
+        Path file = tempDir.resolve("otp.jfr");
+        try (Recording recording = new Recording(otpConfiguration())) {
+            recording.start();
+            OtpCode code = otpService.generateSmsOtpWithoutSending(user, "+70000000000");
+            otpService.verify(user, code.getCode());
+            otpService.verify(user, "000000");
+            try {
+                // SMPP-сервера в тестах нет: отправка завершается ошибкой, но событие доставки записывается
+                otpService.generateAndSendOtp(user, OtpCode.OtpChannel.SMS, "+70000000000");
+            } catch (RuntimeException ignored) {
+            }
+            otpDownloadService.writeAllOtpHistoryColumnar(OtpExportFilter.all(), OutputStream.nullOutputStream());
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+
+        List<RecordedEvent> issues = events(events, "ru.n1str.otp.Issue");
+        assertEquals(2, issues.size());
+        issues.forEach(event -> {
+            assertEquals(userId, event.getLong("userId"));
+            assertEquals("SMS", event.getString("channel"));
+        });
+
+        List<RecordedEvent> verifies = events(events, "ru.n1str.otp.Verify");
+        assertEquals(List.of("success", "not_found"), verifies.stream().map(event -> event.getString("outcome")).toList());
+        verifies.forEach(event -> assertEquals(userId, event.getLong("userId")));
+
+        List<RecordedEvent> sends = events(events, "ru.n1str.otp.ChannelSend");
+        assertEquals(1, sends.size());
+        assertEquals(userId, sends.get(0).getLong("userId"));
+        assertEquals("SMS", sends.get(0).getString("channel"));
+        assertEquals("failure", sends.get(0).getString("outcome"));
+
+        List<RecordedEvent> chunks = events(events, "ru.n1str.otp.ExportChunk");
+        assertEquals(1, chunks.size());
+        // Код с неудачной отправкой откатывается вместе с транзакцией generateAndSendOtp
+        assertEquals(1, chunks.get(0).getLong("rows"));
+    }
+
+    private Configuration otpConfiguration() throws Exception {
+        try (Reader reader = new InputStreamReader(getClass().getResourceAsStream("/jfr/otp.jfc"), StandardCharsets.UTF_8)) {
+            return Configuration.create(reader);
+        }
+    }
+
+    private static List<RecordedEvent> events(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals(name))
+                .toList();
+    }
+}
@@ -0,0 +1,101 @@
+package ru.n1str.otp.repository;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.n1str.otp.models.OtpCode;
+import ru.n1str.otp.models.OtpStatus;
+import ru.n1str.otp.models.User;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//Вставка кодов через JPA идёт пакетами (hibernate.jdbc.batch_size), а updated_at заполняет БД
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {"spring.datasource.url=jdbc:h2:mem:otp-code-repository;DB_CLOSE_DELAY=-1",
+                "spring.jpa.properties.hibernate.generate_statistics=true"})
+@ActiveProfiles("test")
+class OtpCodeRepositoryTest {
+    private static final int CODES = 20;
+
+    @Autowired
+    private OtpCodeRepository otpCodeRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void saveAllInsertsInOneBatch() {
+        User user = newUser("repository-batch");
+        List<OtpCode> codes = new ArrayList<>();
+        for (int i = 0; i < CODES; i++) {
+            codes.add(newCode(user));
+        }
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        transactionTemplate.executeWithoutResult(status -> otpCodeRepository.saveAll(codes));
+
+        assertEquals(CODES, statistics.getEntityInsertCount());
+        // Один INSERT на пакет и не больше одного обращения к последовательности (pooled-lo)
+        assertTrue(statistics.getPrepareStatementCount() <= 2,
+                "prepared statements: " + statistics.getPrepareStatementCount());
+        for (OtpCode code : codes) {
+            assertNotNull(updatedAt(code.getId()));
+        }
+    }
+
+    @Test
+    void updateStatusTakesTimestampFromDatabase() {
+        OtpCode code = otpCodeRepository.save(newCode(newUser("repository-status")));
+        LocalDateTime past = LocalDateTime.of(2020, 1, 1, 0, 0);
+        jdbcTemplate.update("UPDATE otp_code SET updated_at = ? WHERE id = ?", Timestamp.valueOf(past), code.getId());
+
+        transactionTemplate.executeWithoutResult(status ->
+                otpCodeRepository.updateStatus(List.of(code.getId()), OtpStatus.USED));
+
+        assertEquals(OtpStatus.USED.name(),
+                jdbcTemplate.queryForObject("SELECT status FROM otp_code WHERE id = ?", String.class, code.getId()));
+        assertTrue(updatedAt(code.getId()).isAfter(past));
+    }
+
+    private User newUser(String username) {
+        return userRepository.save(User.builder().username(username).password("x").enabled(true).build());
+    }
+
+    private static OtpCode newCode(User user) {
+        OtpCode code = new OtpCode();
+        code.setCode("123456");
+        code.setStatus(OtpStatus.ACTIVE);
+        code.setChannel(OtpCode.OtpChannel.SMS);
+        code.setCreatedAt(LocalDateTime.now());
+        code.setExpiresAt(LocalDateTime.now().plusMinutes(5));
+        code.setUser(user);
+        return code;
+    }
+
+    private LocalDateTime updatedAt(long id) {
+        return jdbcTemplate.queryForObject("SELECT updated_at FROM otp_code WHERE id = ?", Timestamp.class, id)
+                .toLocalDateTime();
+    }
+}
@@ -0,0 +1,73 @@
+package ru.n1str.otp.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import ru.n1str.otp.security.AdaptiveConcurrencyLimiter.Priority;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//AIMD-предел: порог задержки у проверки и выдачи кодов свой, выдача не может занять весь предел
+
+class AdaptiveConcurrencyLimiterTest {
+    private static final long VERIFY_THRESHOLD_MS = 100;
+    private static final long ISSUE_THRESHOLD_MS = 2000;
+
+    @Test
+    void slowVerifyDecreasesLimit() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10);
+
+        assertTrue(limiter.tryAcquire(Priority.VERIFY));
+        limiter.release(Priority.VERIFY, millis(VERIFY_THRESHOLD_MS + 50), false);
+
+        assertEquals(9, limiter.getLimit());
+    }
+
+    @Test
+    void issueIsJudgedByItsOwnThreshold() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10);
+
+        // Выдача с отправкой дольше порога проверки, но в пределах своего
+        assertTrue(limiter.tryAcquire(Priority.ISSUE));
+        limiter.release(Priority.ISSUE, millis(VERIFY_THRESHOLD_MS * 5), false);
+        assertEquals(10, limiter.getLimit());
+
+        assertTrue(limiter.tryAcquire(Priority.ISSUE));
+        limiter.release(Priority.ISSUE, millis(ISSUE_THRESHOLD_MS + 1), false);
+        assertEquals(9, limiter.getLimit());
+    }
+
+    @Test
+    void failureDecreasesAtMostOncePerInterval() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10);
+
+        assertTrue(limiter.tryAcquire(Priority.VERIFY));
+        assertTrue(limiter.tryAcquire(Priority.VERIFY));
+        limiter.release(Priority.VERIFY, millis(1), true);
+        limiter.release(Priority.VERIFY, millis(1), true);
+
+        assertEquals(9, limiter.getLimit());
+    }
+
+    @Test
+    void issueLeavesRoomForVerify() {
+        AdaptiveConcurrencyLimiter limiter = limiter(4);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire(Priority.ISSUE));
+        }
+        assertFalse(limiter.tryAcquire(Priority.ISSUE));
+        assertTrue(limiter.tryAcquire(Priority.VERIFY));
+        assertFalse(limiter.tryAcquire(Priority.VERIFY));
+    }
+
+    private static AdaptiveConcurrencyLimiter limiter(int initialLimit) {
+        return new AdaptiveConcurrencyLimiter(initialLimit, 2, 100, VERIFY_THRESHOLD_MS, ISSUE_THRESHOLD_MS,
+                0.9, 0.75, new SimpleMeterRegistry());
+    }
+
+    private static long millis(long value) {
+        return TimeUnit.MILLISECONDS.toNanos(value);
+    }
+}
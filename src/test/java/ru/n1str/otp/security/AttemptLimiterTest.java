@@ -0,0 +1,62 @@
+package ru.n1str.otp.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//Лимиты попыток по пользователю и IP и аннулирование после серии неудачных проверок
+
+class AttemptLimiterTest {
+
+    @Test
+    void ipRejectionDoesNotChargeUser() {
+        AttemptLimiter limiter = limiter(1, 1, 5, 64);
+
+        assertTrue(limiter.tryAcquire(AttemptLimiter.Action.VERIFY, "alice", "10.0.0.1"));
+        assertFalse(limiter.tryAcquire(AttemptLimiter.Action.VERIFY, "bob", "10.0.0.1"));
+        assertTrue(limiter.tryAcquire(AttemptLimiter.Action.VERIFY, "bob", "10.0.0.2"));
+    }
+
+    @Test
+    void userRejectionDoesNotChargeIp() {
+        AttemptLimiter limiter = limiter(1, 2, 5, 64);
+
+        assertTrue(limiter.tryAcquire(AttemptLimiter.Action.VERIFY, "alice", "10.0.0.1"));
+        assertFalse(limiter.tryAcquire(AttemptLimiter.Action.VERIFY, "alice", "10.0.0.1"));
+        assertTrue(limiter.tryAcquire(AttemptLimiter.Action.VERIFY, "bob", "10.0.0.1"));
+    }
+
+    @Test
+    void failuresTriggerInvalidationAndSuccessResets() {
+        AttemptLimiter limiter = limiter(10, 30, 3, 64);
+
+        assertFalse(limiter.recordFailure("alice"));
+        assertFalse(limiter.recordFailure("alice"));
+        limiter.recordSuccess("alice");
+        assertFalse(limiter.recordFailure("alice"));
+        assertFalse(limiter.recordFailure("alice"));
+        assertTrue(limiter.recordFailure("alice"));
+        assertFalse(limiter.recordFailure("alice"));
+    }
+
+    @Test
+    void successResetsUserCountedInSketch() {
+        // Один точный счётчик на экземпляр: второй пользователь считается в sketch
+        AttemptLimiter limiter = limiter(10, 30, 3, 1);
+
+        limiter.recordFailure("alice");
+        limiter.recordFailure("bob");
+        limiter.recordFailure("bob");
+        limiter.recordSuccess("bob");
+
+        assertFalse(limiter.recordFailure("bob"));
+        assertFalse(limiter.recordFailure("bob"));
+        assertTrue(limiter.recordFailure("bob"));
+    }
+
+    private static AttemptLimiter limiter(int verifyPerUser, int verifyPerIp, int maxFailures, int maxKeys) {
+        return new AttemptLimiter(60, verifyPerUser, verifyPerIp, 5, 20, maxFailures, 900,
+                maxKeys, 1, 1024, new SimpleMeterRegistry());
+    }
+}
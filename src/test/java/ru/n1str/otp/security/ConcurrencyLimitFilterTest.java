@@ -0,0 +1,62 @@
+package ru.n1str.otp.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import ru.n1str.otp.security.AdaptiveConcurrencyLimiter.Priority;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//Намеренные отказы 503 (выключатель канала, заполненная очередь) не снижают общий предел, ошибки 500 снижают
+
+class ConcurrencyLimitFilterTest {
+    private final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 2, 100, 100, 2000,
+            0.9, 0.75, new SimpleMeterRegistry());
+    private final ConcurrencyLimitFilter filter = new ConcurrencyLimitFilter(limiter);
+
+    @Test
+    void sheddingResponseIsNotAFailure() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            send(response -> response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE));
+        }
+
+        assertEquals(10, limiter.getLimit());
+        assertAllSlotsFree();
+    }
+
+    @Test
+    void serverErrorDecreasesLimit() throws Exception {
+        send(response -> response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR));
+
+        assertEquals(9, limiter.getLimit());
+    }
+
+    @Test
+    void exceptionDecreasesLimit() {
+        assertThrows(IllegalStateException.class, () -> send(response -> {
+            throw new IllegalStateException("boom");
+        }));
+
+        assertEquals(9, limiter.getLimit());
+    }
+
+    private void send(ResponseWriter writer) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/otp/send-sms");
+        FilterChain chain = (req, res) -> writer.write((HttpServletResponse) res);
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+    }
+
+    private void assertAllSlotsFree() {
+        for (int i = 0; i < limiter.getLimit(); i++) {
+            assertTrue(limiter.tryAcquire(Priority.VERIFY));
+        }
+    }
+
+    @FunctionalInterface
+    private interface ResponseWriter {
+        void write(HttpServletResponse response);
+    }
+}
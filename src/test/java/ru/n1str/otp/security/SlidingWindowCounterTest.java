@@ -0,0 +1,76 @@
+package ru.n1str.otp.security;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//Скользящее окно и переполнение точных счётчиков: сброс должен обнулять и ключи, которые считаются в sketch,
+//а вытесненный ключ не должен терять попытки
+
+class SlidingWindowCounterTest {
+    private static final long WINDOW = 60_000;
+    private static final long NOW = 1_000_000L * WINDOW;
+
+    @Test
+    void limitsAttemptsInSlidingWindow() {
+        SlidingWindowCounter counter = new SlidingWindowCounter(WINDOW, 64, 4, 1024);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(counter.tryAcquire("a", 5, NOW));
+        }
+        assertFalse(counter.tryAcquire("a", 5, NOW));
+
+        // Середина следующего окна: предыдущее окно весит половину, 5 * 0.5 = 2.5
+        int allowed = 0;
+        for (int i = 0; i < 10; i++) {
+            if (counter.tryAcquire("a", 5, NOW + WINDOW * 3 / 2)) {
+                allowed++;
+            }
+        }
+        assertEquals(3, allowed);
+    }
+
+    @Test
+    void resetClearsKeyCountedInSketch() {
+        SlidingWindowCounter counter = new SlidingWindowCounter(WINDOW, 1, 1, 1024);
+        assertTrue(counter.tryAcquire("exact", 3, NOW));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(counter.tryAcquire("overflow", 3, NOW));
+        }
+        assertEquals(1, counter.trackedKeys());
+        assertFalse(counter.tryAcquire("overflow", 3, NOW));
+
+        counter.reset("overflow", NOW);
+
+        assertEquals(0, counter.estimate("overflow", NOW));
+        assertTrue(counter.tryAcquire("overflow", 3, NOW));
+        // Вытесненный ключ сохранил свою попытку в sketch
+        assertTrue(counter.estimate("exact", NOW) >= 1);
+    }
+
+    @Test
+    void resetClearsExactKey() {
+        SlidingWindowCounter counter = new SlidingWindowCounter(WINDOW, 64, 4, 1024);
+        for (int i = 0; i < 3; i++) {
+            counter.tryAcquire("a", 3, NOW);
+        }
+        counter.tryAcquire("a", 3, NOW + WINDOW);
+
+        counter.reset("a", NOW + WINDOW);
+
+        assertEquals(0, counter.estimate("a", NOW + WINDOW));
+    }
+
+    @Test
+    void releaseReturnsAttempt() {
+        SlidingWindowCounter counter = new SlidingWindowCounter(WINDOW, 1, 1, 1024);
+        assertTrue(counter.tryAcquire("exact", 2, NOW));
+        assertTrue(counter.tryAcquire("exact", 2, NOW));
+        assertTrue(counter.tryAcquire("overflow", 1, NOW));
+
+        counter.release("exact", NOW);
+        counter.release("overflow", NOW);
+
+        assertTrue(counter.tryAcquire("exact", 2, NOW));
+        assertTrue(counter.tryAcquire("overflow", 1, NOW));
+    }
+}
@@ -0,0 +1,148 @@
+package ru.n1str.otp.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.n1str.otp.models.ExportJob;
+import ru.n1str.otp.models.ExportJob.ExportJobStatus;
+import ru.n1str.otp.models.OtpExportFilter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+//Фоновые задачи экспорта: подкаталог на экземпляр, повторное использование задач с тем же фильтром
+//и удаление файла по TTL только после окончания скачивания
+
+class ExportJobServiceTest {
+    private static final OtpExportFilter FILTER = new OtpExportFilter(null, null, null, null, null);
+
+    @TempDir
+    private Path baseDirectory;
+
+    private final List<ExportJobService> services = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        services.forEach(ExportJobService::shutdown);
+    }
+
+    @Test
+    void instancesDoNotRemoveEachOtherFiles() throws Exception {
+        ExportJobService first = start(downloadService(null));
+        ExportJob job = awaitCompleted(first, first.submitAllOtpHistoryCsv(FILTER, "admin"));
+
+        start(downloadService(null));
+
+        assertTrue(Files.exists(job.getFile()));
+    }
+
+    @Test
+    void removesDirectoryOfStoppedInstance() throws Exception {
+        Path abandoned = Files.createDirectory(baseDirectory.resolve("instance-stopped"));
+        Files.writeString(abandoned.resolve("job.csv"), "id\n");
+        Path lockFile = Files.createFile(abandoned.resolve(".lock"));
+        Files.setLastModifiedTime(lockFile, FileTime.from(Instant.now().minus(10, ChronoUnit.MINUTES)));
+
+        start(downloadService(null));
+
+        assertFalse(Files.exists(abandoned));
+    }
+
+    @Test
+    void identicalRequestReusesJob() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        OtpDownloadService downloadService = downloadService(release);
+        ExportJobService service = start(downloadService);
+
+        ExportJob running = service.submitAllOtpHistoryCsv(FILTER, "admin");
+        assertSame(running, service.submitAllOtpHistoryCsv(FILTER, "other-admin"));
+        ExportJob otherFilter = service.submitAllOtpHistoryCsv(
+                new OtpExportFilter(null, LocalDateTime.of(2025, 1, 1, 0, 0), null, null, null), "admin");
+        assertNotSame(running, otherFilter);
+
+        release.countDown();
+        awaitCompleted(service, running);
+        assertSame(running, service.submitAllOtpHistoryCsv(FILTER, "admin"));
+        verify(downloadService, times(2)).writeAllOtpHistoryCsv(any(), any(), any());
+    }
+
+    @Test
+    void expiredFileIsKeptWhileDownloading() throws Exception {
+        ExportJobService service = start(downloadService(null));
+        ExportJob job = awaitCompleted(service, service.submitAllOtpHistoryCsv(FILTER, "admin"));
+        job.setExpiresAt(LocalDateTime.now().minusMinutes(1));
+
+        ExportJob retained = service.retainCompletedJob(job.getId()).orElseThrow();
+        service.removeExpiredJobs();
+        assertTrue(Files.exists(retained.getFile()));
+        assertTrue(service.findJob(job.getId()).isPresent());
+
+        service.releaseFile(retained);
+        service.removeExpiredJobs();
+        // Сразу после скачивания файл ещё нужен sendfile
+        assertTrue(Files.exists(retained.getFile()));
+    }
+
+    @Test
+    void expiredFileIsRemovedWithoutDownloads() throws Exception {
+        ExportJobService service = start(downloadService(null));
+        ExportJob job = awaitCompleted(service, service.submitAllOtpHistoryCsv(FILTER, "admin"));
+        job.setExpiresAt(LocalDateTime.now().minusMinutes(1));
+
+        service.removeExpiredJobs();
+
+        assertFalse(Files.exists(job.getFile()));
+        assertTrue(service.findJob(job.getId()).isEmpty());
+        assertTrue(service.retainCompletedJob(job.getId()).isEmpty());
+    }
+
+    private ExportJobService start(OtpDownloadService downloadService) throws IOException {
+        ExportJobService service = new ExportJobService(downloadService, baseDirectory.toString(),
+                1, 10, 60, 5, new SimpleMeterRegistry());
+        service.init();
+        services.add(service);
+        return service;
+    }
+
+    // Экспорт пишет одну строку; если release задан, ждёт его перед записью
+    private static OtpDownloadService downloadService(CountDownLatch release) throws IOException {
+        OtpDownloadService downloadService = mock(OtpDownloadService.class);
+        when(downloadService.countRows(any())).thenReturn(1L);
+        when(downloadService.writeAllOtpHistoryCsv(any(), any(), any())).thenAnswer(invocation -> {
+            if (release != null) {
+                release.await(10, TimeUnit.SECONDS);
+            }
+            Writer writer = invocation.getArgument(1);
+            writer.write("id\n1\n");
+            invocation.<LongConsumer>getArgument(2).accept(1);
+            return 1L;
+        });
+        return downloadService;
+    }
+
+    private static ExportJob awaitCompleted(ExportJobService service, ExportJob job) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (job.getStatus() != ExportJobStatus.COMPLETED) {
+            assertNotEquals(ExportJobStatus.FAILED, job.getStatus(), job.getError());
+            assertTrue(System.nanoTime() < deadline, "export job did not complete");
+            Thread.sleep(10);
+        }
+        return service.findJob(job.getId()).orElseThrow();
+    }
+}
@@ -0,0 +1,58 @@
+package ru.n1str.otp.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.n1str.otp.metrics.OtpMetrics;
+import ru.n1str.otp.security.AuthUserDetails;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+//Токен привязан к ID учётной записи: после удаления и повторной регистрации имени старый токен не принимается
+
+class JwtServiceImplTest {
+    private final JwtServiceImpl jwtService = new JwtServiceImpl(mock(OtpMetrics.class));
+
+    JwtServiceImplTest() {
+        ReflectionTestUtils.setField(jwtService, "jwtExpiration", 60_000L);
+        ReflectionTestUtils.setField(jwtService, "secretString",
+                "testSecretKeyThatIsLongEnoughForHS512SignatureAlgorithmInUnitTests");
+    }
+
+    @Test
+    void tokenIsValidForSameAccount() {
+        String token = token(user(1L));
+
+        assertTrue(jwtService.isTokenValid(token, user(1L)));
+    }
+
+    @Test
+    void tokenIsRejectedForRecreatedAccountWithSameName() {
+        String token = token(user(1L));
+
+        assertFalse(jwtService.isTokenValid(token, user(2L)));
+    }
+
+    @Test
+    void tokenWithoutUserIdIsRejected() {
+        UserDetails legacy = User.withUsername("alice").password("hash").authorities("ROLE_USER").build();
+        String token = token(legacy);
+
+        assertFalse(jwtService.isTokenValid(token, user(1L)));
+    }
+
+    private String token(UserDetails userDetails) {
+        return jwtService.generateToken(UsernamePasswordAuthenticationToken.authenticated(
+                userDetails, null, userDetails.getAuthorities()));
+    }
+
+    private static AuthUserDetails user(long id) {
+        return new AuthUserDetails(id, "alice", "hash", true, List.of(new SimpleGrantedAuthority("ROLE_USER")));
+    }
+}
@@ -0,0 +1,85 @@
+package ru.n1str.otp.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.n1str.otp.Application;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//Два контекста приложения на одной базе H2, как два экземпляра сервиса
+
+class LeaderElectionServiceTest {
+    private static final String LOCK = "test-lock";
+
+    // Своя база на каждый тест: в памяти она живёт до конца JVM
+    private final String database = "leader-" + UUID.randomUUID();
+    private ConfigurableApplicationContext first;
+    private ConfigurableApplicationContext second;
+
+    @AfterEach
+    void closeContexts() {
+        if (first != null) {
+            first.close();
+        }
+        if (second != null) {
+            second.close();
+        }
+    }
+
+    @Test
+    void onlyOneInstanceIsLeader() {
+        first = start("node-1");
+        second = start("node-2");
+        LeaderElectionService firstNode = first.getBean(LeaderElectionService.class);
+        LeaderElectionService secondNode = second.getBean(LeaderElectionService.class);
+
+        assertTrue(firstNode.isLeader(LOCK));
+        assertFalse(secondNode.isLeader(LOCK));
+        assertTrue(firstNode.isLeader(LOCK));
+    }
+
+    @Test
+    void leaseIsReleasedOnShutdown() {
+        first = start("node-1");
+        second = start("node-2");
+        LeaderElectionService secondNode = second.getBean(LeaderElectionService.class);
+
+        assertTrue(first.getBean(LeaderElectionService.class).isLeader(LOCK));
+        assertFalse(secondNode.isLeader(LOCK));
+
+        first.close();
+        first = null;
+        assertTrue(secondNode.isLeader(LOCK));
+    }
+
+    @Test
+    void expiredLeaseIsTakenOver() {
+        first = start("node-1");
+        second = start("node-2");
+        LeaderElectionService secondNode = second.getBean(LeaderElectionService.class);
+        assertTrue(first.getBean(LeaderElectionService.class).isLeader(LOCK));
+
+        // Лидер перестал продлевать аренду: срок в БД уже в прошлом по часам БД
+        first.getBean(JdbcTemplate.class).update(
+                "UPDATE scheduler_lock SET locked_until = CURRENT_TIMESTAMP - INTERVAL '1' SECOND WHERE name = ?", LOCK);
+
+        assertTrue(secondNode.isLeader(LOCK));
+        assertEquals("node-2", first.getBean(JdbcTemplate.class)
+                .queryForObject("SELECT owner FROM scheduler_lock WHERE name = ?", String.class, LOCK));
+    }
+
+    private ConfigurableApplicationContext start(String instanceId) {
+        return new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .profiles("test")
+                .run("--spring.datasource.url=jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1",
+                        "--scheduler.lock.instance-id=" + instanceId,
+                        "--scheduler.lock.heartbeat-ms=600000");
+    }
+}
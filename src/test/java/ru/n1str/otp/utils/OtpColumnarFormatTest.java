@@ -0,0 +1,86 @@
+package ru.n1str.otp.utils;
+
+import org.junit.jupiter.api.Test;
+import ru.n1str.otp.models.OtpCode;
+import ru.n1str.otp.models.OtpExportRow;
+import ru.n1str.otp.models.OtpStatus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//Запись и чтение колоночного формата: строки должны возвращаться без изменений,
+//в том числе отсутствующие код и operationId
+
+class OtpColumnarFormatTest {
+    private static final LocalDateTime BASE = LocalDateTime.of(2025, 3, 1, 12, 0);
+
+    @Test
+    void roundTripKeepsNullsAndEmptyStrings() throws IOException {
+        List<OtpExportRow> rows = List.of(
+                row(1, "alice", "123456", "op-1"),
+                row(2, "bob", null, "op-2"),
+                row(5, "carol", "", null),
+                row(9, "дмитрий", "654321", ""));
+
+        assertEquals(rows, roundTrip(rows, OtpColumnarWriter.DEFAULT_BLOCK_ROWS));
+    }
+
+    @Test
+    void roundTripAcrossBlocks() throws IOException {
+        List<OtpExportRow> rows = new ArrayList<>();
+        for (int i = 1; i <= 25; i++) {
+            rows.add(row(i * 3L, "user" + i, i % 4 == 0 ? null : String.valueOf(100000 + i), i % 5 == 0 ? null : "op-" + i));
+        }
+
+        ByteBuffer data = write(rows, 10);
+        OtpColumnarReader reader = new OtpColumnarReader(data);
+
+        assertEquals(25, reader.getRowCount());
+        assertEquals(3, reader.getBlockCount());
+        assertEquals(3, reader.getBlockFirstId(0));
+        assertEquals(30, reader.getBlockLastId(0));
+        assertEquals(rows.subList(10, 20), reader.readBlock(1));
+        assertEquals(rows, readAll(reader));
+    }
+
+    @Test
+    void rejectsUnknownVersion() throws IOException {
+        ByteBuffer data = write(List.of(row(1, "alice", "123456", null)), 10);
+        data.put(OtpColumnarFormat.MAGIC.length, (byte) (OtpColumnarFormat.VERSION + 1));
+
+        assertThrows(IllegalStateException.class, () -> new OtpColumnarReader(data));
+    }
+
+    private static OtpExportRow row(long id, String username, String code, String operationId) {
+        return new OtpExportRow(id, username, code,
+                id % 2 == 0 ? OtpStatus.USED : OtpStatus.ACTIVE,
+                id % 3 == 0 ? OtpCode.OtpChannel.EMAIL : OtpCode.OtpChannel.SMS,
+                BASE.plusSeconds(id), BASE.plusMinutes(5).plusSeconds(id), operationId);
+    }
+
+    private static List<OtpExportRow> roundTrip(List<OtpExportRow> rows, int blockRows) throws IOException {
+        return readAll(new OtpColumnarReader(write(rows, blockRows)));
+    }
+
+    private static ByteBuffer write(List<OtpExportRow> rows, int blockRows) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OtpColumnarWriter writer = new OtpColumnarWriter(out, blockRows)) {
+            for (OtpExportRow row : rows) {
+                writer.write(row);
+            }
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    private static List<OtpExportRow> readAll(OtpColumnarReader reader) {
+        List<OtpExportRow> result = new ArrayList<>();
+        reader.forEach(result::add);
+        return result;
+    }
+}